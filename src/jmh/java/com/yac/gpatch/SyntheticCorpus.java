@@ -0,0 +1,139 @@
+package com.yac.gpatch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates patches and matching file contents, so that the benchmarks run
+ * offline and their inputs only depend on their parameters.
+ *
+ * Rule {@code i} captures {@code value<i>} from a constant declaration. Hunk
+ * {@code j} renames the calls to {@code call<j>}, whose first arguments are
+ * references to the captured variables, followed by ellipses then literals.
+ * Every call of the content matches its hunk whatever the number of ellipses.
+ *
+ * The scheduler benchmarks use a tree of files scanned through by
+ * {@link #SCANNED_PATCH}: its anchor {@code compute(} is in every line but
+ * its hunk never matches, so files are fully scanned and never rewritten.
+ */
+public class SyntheticCorpus {
+
+    public static final int ARGUMENT_NB = 4;
+    public static final String SCANNED_PATCH = "@@ @@\n-compute(@...@);\n-zz\n+computed();\n";
+
+    private static final String SCANNED_LINE = "    value = compute(index, 42);\n";
+
+    // One line out of this number is a call matched by a hunk
+    private static final int CALL_INTERVAL = 16;
+
+    private SyntheticCorpus() {
+    }
+
+    /**
+     * @param ellipsisPercent the share of the arguments of the hunks that are
+     *                        ellipses, after the captured variables
+     * @param captureNb       the number of arguments of the hunks that are
+     *                        references to captured variables, ignored
+     *                        without rules
+     */
+    public static String generatePatch(int ruleNb, int hunkNb, int ellipsisPercent, int captureNb) {
+        int referenceNb = ruleNb == 0 ? 0 : Math.min(captureNb, ARGUMENT_NB);
+        int ellipsisNb = Math.min(ARGUMENT_NB - referenceNb, Math.round(ARGUMENT_NB * ellipsisPercent / 100f));
+
+        StringBuilder patch = new StringBuilder();
+        for (int i = 0; i < ruleNb; i++) {
+            patch.append("@@ v").append(i).append(" @@\n");
+            patch.append("const V").append(i).append(" = '@<>@';\n");
+        }
+        for (int j = 0; j < hunkNb; j++) {
+            StringBuilder arguments = new StringBuilder();
+            for (int k = 0; k < ARGUMENT_NB; k++) {
+                if (k > 0) {
+                    arguments.append(", ");
+                }
+                if (k < referenceNb) {
+                    arguments.append("@<v").append(k % ruleNb).append(">@");
+                } else if (k < referenceNb + ellipsisNb) {
+                    arguments.append("@...@");
+                } else {
+                    arguments.append("arg").append(k);
+                }
+            }
+            patch.append("@@ @@\n");
+            patch.append("-call").append(j).append("(").append(arguments).append(");\n");
+            patch.append("+called").append(j).append("(").append(arguments).append(");\n");
+        }
+
+        return patch.toString();
+    }
+
+    /**
+     * @return a content of about the given size, matched by the patch
+     *         generated with the same numbers of rules and hunks
+     */
+    public static String generateContent(int sizeKb, int ruleNb, int hunkNb, int captureNb) {
+        int referenceNb = ruleNb == 0 ? 0 : Math.min(captureNb, ARGUMENT_NB);
+        int size = sizeKb * 1024;
+
+        StringBuilder content = new StringBuilder(size + 64);
+        for (int i = 0; i < ruleNb; i++) {
+            content.append("const V").append(i).append(" = 'value").append(i).append("';\n");
+        }
+        for (int line = 0; content.length() < size; line++) {
+            if (hunkNb > 0 && line % CALL_INTERVAL == CALL_INTERVAL - 1) {
+                content.append("    call").append((line / CALL_INTERVAL) % hunkNb).append("(");
+                for (int k = 0; k < ARGUMENT_NB; k++) {
+                    if (k > 0) {
+                        content.append(", ");
+                    }
+                    if (k < referenceNb) {
+                        content.append("value").append(k % ruleNb);
+                    } else {
+                        content.append("arg").append(k);
+                    }
+                }
+                content.append(");\n");
+            } else {
+                content.append("    int x").append(line).append(" = compute(").append(line).append(", 42);\n");
+            }
+        }
+
+        return content.toString();
+    }
+
+    /**
+     * Deletes a directory and all it contains.
+     */
+    public static void delete(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Writes files of about the given size scanned through by
+     * {@link #SCANNED_PATCH}, named after the given prefix and spread over
+     * the given number of subdirectories as a source tree would be, or
+     * written in the directory itself if there are none.
+     */
+    public static void writeScannedFiles(Path directory, String prefix, int fileNb, int fileSize,
+            int subdirectoryNb) throws IOException {
+        StringBuilder content = new StringBuilder(fileSize + SCANNED_LINE.length());
+        while (content.length() < fileSize) {
+            content.append(SCANNED_LINE);
+        }
+        byte[] bytes = content.toString().getBytes();
+        for (int i = 0; i < fileNb; i++) {
+            Path fileDirectory = subdirectoryNb == 0 ? directory
+                    : Files.createDirectories(directory.resolve("dir" + i % subdirectoryNb));
+            Files.write(fileDirectory.resolve(prefix + i + ".ts"), bytes);
+        }
+    }
+
+}
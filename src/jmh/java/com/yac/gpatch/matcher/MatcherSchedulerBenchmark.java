@@ -0,0 +1,127 @@
+package com.yac.gpatch.matcher;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yac.gpatch.SyntheticCorpus;
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.FileWalker;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.AtomicRewriteWriter;
+import com.yac.gpatch.writer.RewriteWriter;
+
+/**
+ * Compares the time of a whole run on a skewed corpus, a few huge files among
+ * many small ones, between the former static batching of the files and
+ * {@link MatcherScheduler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatcherSchedulerBenchmark {
+
+    @Param({ "4" })
+    private int threadNb;
+
+    @Param({ "2" })
+    private int hugeFileNb;
+
+    @Param({ "16" })
+    private int hugeFileSizeMb;
+
+    @Param({ "512" })
+    private int smallFileNb;
+
+    @Param({ "128" })
+    private int smallFileSizeKb;
+
+    private final RewriteWriter writer = new AtomicRewriteWriter(0, MatchCache.disabled());
+
+    private Path corpus;
+    private List<CompiledPatch> compiledPatches;
+    private List<SourceFile> files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        corpus = Files.createTempDirectory("gpatch-scheduler-benchmark");
+        Path patchPath = Files.write(corpus.resolve("patch"), SyntheticCorpus.SCANNED_PATCH.getBytes());
+        compiledPatches = CompiledPatch.compile(Collections.singletonList(PatchParser.parse(patchPath)),
+                Charset.defaultCharset(), MatchingEngine.LINEAR);
+
+        // Huge files are generated first, as a directory of generated sources would
+        // be discovered in a row
+        SyntheticCorpus.writeScannedFiles(corpus, "huge", hugeFileNb, hugeFileSizeMb * 1024 * 1024, 0);
+        SyntheticCorpus.writeScannedFiles(corpus, "small", smallFileNb, smallFileSizeKb * 1024, 0);
+        files = new FileWalker(List.of(".ts"), Collections.emptyList(), Collections.emptyList(), true, threadNb)
+                .getAllFiles(corpus);
+        files.sort(Comparator.comparing(file -> file.getPath().getFileName().toString()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(corpus);
+    }
+
+    @Benchmark
+    public void staticBatches() throws Exception {
+        Statistics statistics = new Statistics();
+        List<List<SourceFile>> batchList = new ArrayList<>();
+        for (int i = 0; i < threadNb; i++) {
+            batchList.add(new ArrayList<>());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            batchList.get(i % threadNb).add(files.get(i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadNb);
+        try {
+            List<Future<?>> futures = batchList.stream().map(batch -> executor.submit(() -> batch
+                    .forEach(file -> new PatchMatcher(compiledPatches, file.getPath(), statistics, writer,
+                            MatchCache.disabled(), false).call())))
+                    .collect(Collectors.toList());
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void workStealing() throws Exception {
+        MatcherScheduler scheduler = new MatcherScheduler(threadNb, writer, MatchCache.disabled());
+        scheduler.run(compiledPatches, files, new Statistics(), report -> {
+        });
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.yac.gpatch.matcher;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.yac.gpatch.SyntheticCorpus;
+import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.model.Snippet;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.EditedCharSequence;
+import com.yac.gpatch.util.stats.Statistics;
+
+/**
+ * Measures the steps of the matching of a synthetic file, each one on the
+ * results of the previous steps computed once, and the whole matching of
+ * the file with reused matches. The gc profiler of the build reports the
+ * bytes allocated by each of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchMatcherBenchmark {
+
+    @Param({ "64", "1024" })
+    private int fileSizeKb;
+
+    @Param({ "1", "8" })
+    private int ruleNb;
+
+    @Param({ "1", "16" })
+    private int hunkNb;
+
+    @Param({ "0", "50" })
+    private int ellipsisPercent;
+
+    @Param({ "0", "2" })
+    private int captureNb;
+
+    @Param({ "LINEAR", "REGEX" })
+    private MatchingEngine engine;
+
+    private Patch patch;
+    private CompiledPatch compiledPatch;
+    private String content;
+    private PatchMatches patchMatches;
+    private List<Snippet> replacingSnippets;
+    private Statistics.Recorder recorder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path patchPath = Files.createTempFile("gpatch-matcher-benchmark", ".patch");
+        try {
+            Files.write(patchPath,
+                    SyntheticCorpus.generatePatch(ruleNb, hunkNb, ellipsisPercent, captureNb).getBytes());
+            patch = PatchParser.parse(patchPath);
+        } finally {
+            Files.delete(patchPath);
+        }
+        compiledPatch = CompiledPatch.compile(patch, Charset.defaultCharset(), engine);
+        content = SyntheticCorpus.generateContent(fileSizeKb, ruleNb, hunkNb, captureNb);
+
+        recorder = new Statistics().getRecorder();
+        patchMatches = compiledPatch.borrowMatches();
+        patchMatches.find(content, false, recorder);
+        for (int i = 0; i < compiledPatch.getHunks().size(); i++) {
+            patchMatches.getHunkReplacer(i).prepare(patchMatches.getVariables());
+        }
+        replacingSnippets = generateReplacingSnippets();
+    }
+
+    /**
+     * Translates the texts of the patch into patterns, the former
+     * {@code escapeText} step.
+     */
+    @Benchmark
+    public CompiledPatch compilePatch() {
+        return CompiledPatch.compile(patch, Charset.defaultCharset(), engine);
+    }
+
+    @Benchmark
+    public PatchMatches findMatches() {
+        patchMatches.find(content, false, recorder);
+
+        return patchMatches;
+    }
+
+    @Benchmark
+    public void generateReplacingSnippet(Blackhole blackhole) {
+        for (int i = 0; i < compiledPatch.getHunks().size(); i++) {
+            MatchList hunkMatches = patchMatches.getHunkMatches(i);
+            HunkReplacer hunkReplacer = patchMatches.getHunkReplacer(i);
+            for (int j = 0; j < hunkMatches.size(); j++) {
+                blackhole.consume(hunkReplacer.replace(hunkMatches.getText(j), hunkMatches.getStart(j),
+                        hunkMatches.getEnd(j)));
+            }
+        }
+    }
+
+    /**
+     * Reads the new content through its view, as the next patch of a run
+     * does.
+     */
+    @Benchmark
+    public int readNewContent() {
+        CharSequence newContent = new EditedCharSequence(content, replacingSnippets);
+        int hash = 0;
+        for (int i = 0; i < newContent.length(); i++) {
+            hash = 31 * hash + newContent.charAt(i);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Finds the matches and their replacements as for a file of a run, with
+     * matches borrowed and given back as a matcher thread does.
+     */
+    @Benchmark
+    public List<Snippet> matchFile() {
+        PatchMatches fileMatches = compiledPatch.borrowMatches();
+        try {
+            fileMatches.find(content, false, recorder);
+            List<Snippet> snippets = new ArrayList<>();
+            for (int i = 0; i < compiledPatch.getHunks().size(); i++) {
+                HunkReplacer hunkReplacer = fileMatches.getHunkReplacer(i);
+                hunkReplacer.prepare(fileMatches.getVariables());
+                hunkReplacer.replace(fileMatches.getHunkMatches(i), snippets);
+            }
+
+            snippets.sort(Comparator.comparingInt(Snippet::getStart));
+
+            return snippets;
+        } finally {
+            compiledPatch.giveBack(fileMatches);
+        }
+    }
+
+    private List<Snippet> generateReplacingSnippets() {
+        List<Snippet> snippets = new ArrayList<>();
+        for (int i = 0; i < compiledPatch.getHunks().size(); i++) {
+            patchMatches.getHunkReplacer(i).replace(patchMatches.getHunkMatches(i), snippets);
+        }
+        snippets.sort(Comparator.comparingInt(Snippet::getStart));
+
+        return snippets;
+    }
+
+}
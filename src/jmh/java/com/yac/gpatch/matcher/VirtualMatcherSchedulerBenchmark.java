@@ -0,0 +1,123 @@
+package com.yac.gpatch.matcher;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yac.gpatch.SyntheticCorpus;
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.FileWalker;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.AtomicRewriteWriter;
+import com.yac.gpatch.writer.RewriteWriter;
+
+/**
+ * Compares the time of a whole run on many files between the platform threads
+ * of {@link MatcherScheduler} and the virtual threads of
+ * {@link VirtualMatcherScheduler}.
+ *
+ * With a cold page cache, the page cache is dropped before each run, which
+ * needs root on Linux, and the corpus must be on a disk: the benchmark fails
+ * rather than measuring a warm cache if the cache cannot be dropped or the
+ * corpus is in memory, as in a tmpfs. Set the corpus directory with
+ * {@code -Dgpatch.corpus} to benchmark a network or slow disk rather than the
+ * temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class VirtualMatcherSchedulerBenchmark {
+
+    private static final Path DROP_CACHES = Paths.get("/proc/sys/vm/drop_caches");
+
+    @Param({ "cold", "warm" })
+    private String pageCache;
+
+    @Param({ "4" })
+    private int threadNb;
+
+    @Param({ "4096" })
+    private int fileNb;
+
+    @Param({ "64" })
+    private int fileSizeKb;
+
+    private final RewriteWriter writer = new AtomicRewriteWriter(0, MatchCache.disabled());
+
+    private Path corpus;
+    private List<CompiledPatch> compiledPatches;
+    private List<SourceFile> files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String corpusParent = System.getProperty("gpatch.corpus");
+        corpus = corpusParent == null ? Files.createTempDirectory("gpatch-virtual-benchmark")
+                : Files.createTempDirectory(Paths.get(corpusParent), "gpatch-virtual-benchmark");
+        if ("cold".equals(pageCache) && "tmpfs".equals(Files.getFileStore(corpus).type())) {
+            SyntheticCorpus.delete(corpus);
+            throw new IllegalStateException("A corpus in a tmpfs stays in memory, set -Dgpatch.corpus to a disk");
+        }
+        Path patchPath = Files.write(corpus.resolve("patch"), SyntheticCorpus.SCANNED_PATCH.getBytes());
+        compiledPatches = CompiledPatch.compile(Collections.singletonList(PatchParser.parse(patchPath)),
+                Charset.defaultCharset(), MatchingEngine.LINEAR);
+
+        SyntheticCorpus.writeScannedFiles(corpus, "file", fileNb, fileSizeKb * 1024, 64);
+        files = new FileWalker(List.of(".ts"), Collections.emptyList(), Collections.emptyList(), true, threadNb)
+                .getAllFiles(corpus);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropPageCache() throws IOException, InterruptedException {
+        if ("cold".equals(pageCache)) {
+            if (new ProcessBuilder("sync").inheritIO().start().waitFor() != 0) {
+                throw new IOException("Unable to sync the files before dropping the page cache");
+            }
+            // Fails without root rather than measuring a warm cache
+            Files.write(DROP_CACHES, "1".getBytes());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(corpus);
+    }
+
+    @Benchmark
+    public void platformThreads() throws Exception {
+        MatcherScheduler scheduler = new MatcherScheduler(threadNb, writer, MatchCache.disabled());
+        scheduler.run(compiledPatches, files, new Statistics(), report -> {
+        });
+    }
+
+    @Benchmark
+    public void virtualThreads() throws Exception {
+        VirtualMatcherScheduler scheduler = new VirtualMatcherScheduler(threadNb, writer, MatchCache.disabled());
+        scheduler.run(compiledPatches, files, new Statistics(), report -> {
+        });
+    }
+
+}
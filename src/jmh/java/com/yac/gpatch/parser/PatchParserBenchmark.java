@@ -0,0 +1,90 @@
+package com.yac.gpatch.parser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yac.gpatch.SyntheticCorpus;
+import com.yac.gpatch.matcher.BinaryPatchFile;
+import com.yac.gpatch.matcher.CompiledPatch;
+import com.yac.gpatch.matcher.MatchingEngine;
+import com.yac.gpatch.model.Patch;
+
+/**
+ * Measures the parsing of a synthetic patch file, with and without its
+ * compilation, and the loading of its binary patch file, compiled already.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchParserBenchmark {
+
+    @Param({ "1", "16" })
+    private int ruleNb;
+
+    @Param({ "1", "64" })
+    private int hunkNb;
+
+    @Param({ "0", "50" })
+    private int ellipsisPercent;
+
+    @Param({ "0", "2" })
+    private int captureNb;
+
+    private Path patchPath;
+    private Path binaryPatchPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        patchPath = Files.createTempFile("gpatch-parser-benchmark", ".patch");
+        Files.write(patchPath,
+                SyntheticCorpus.generatePatch(ruleNb, hunkNb, ellipsisPercent, captureNb).getBytes());
+        binaryPatchPath = Files.createTempFile("gpatch-parser-benchmark", ".bin");
+        BinaryPatchFile.write(binaryPatchPath, Collections.singletonList(
+                CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(patchPath);
+        Files.delete(binaryPatchPath);
+    }
+
+    @Benchmark
+    public Patch parse() throws IOException {
+        return PatchParser.parse(patchPath);
+    }
+
+    @Benchmark
+    public CompiledPatch parseAndCompile() throws IOException {
+        return CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR);
+    }
+
+    @Benchmark
+    public List<CompiledPatch> readBinary() throws IOException {
+        return BinaryPatchFile.read(binaryPatchPath).getCompiledPatches(StandardCharsets.UTF_8,
+                MatchingEngine.LINEAR);
+    }
+
+}
@@ -1,112 +1,501 @@
 package com.yac.gpatch;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import com.yac.gpatch.util.FileUtils;
+import com.yac.gpatch.util.FileWalker;
 import com.yac.gpatch.util.logging.Log;
+import com.yac.gpatch.util.stats.Statistics;
 
 import picocli.CommandLine;
 import picocli.CommandLine.MissingParameterException;
 
-import com.yac.gpatch.matcher.PatchMatcher;
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.cache.PatchCache;
+import com.yac.gpatch.daemon.Daemon;
+import com.yac.gpatch.daemon.DaemonClient;
+import com.yac.gpatch.matcher.BinaryPatchFile;
+import com.yac.gpatch.matcher.CompiledPatch;
+import com.yac.gpatch.matcher.MatcherPipeline;
+import com.yac.gpatch.matcher.MatcherScheduler;
+import com.yac.gpatch.matcher.VirtualMatcherScheduler;
 import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.model.SourceFile;
 import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.report.AsyncReporter;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.report.ReportFormat;
+import com.yac.gpatch.report.Reporter;
+import com.yac.gpatch.watch.TreeWatcher;
+import com.yac.gpatch.writer.AtomicRewriteWriter;
+import com.yac.gpatch.writer.DiffRewriteWriter;
+import com.yac.gpatch.writer.RewriteWriter;
 
 public class App {
 
+    private static final int SUCCESS_STATUS = 0;
+    private static final int ERROR_STATUS = -1;
+
     public static void main(String[] args) throws Exception {
-        AppConfig appConfig = populateAppConfig(args);
+        int status = SUCCESS_STATUS;
+        try {
+            AppConfig appConfig = populateAppConfig(args, System.out, System.err);
+            if (appConfig.getDaemonSocketPath() != null) {
+                runDaemon(appConfig);
+            } else if (appConfig.getConnectSocketPath() != null) {
+                status = runClient(appConfig, args);
+            } else {
+                run(appConfig, PatchCache.disabled(), System.out, System.err);
+            }
+        } catch (Exit e) {
+            status = e.status;
+        }
 
-        Patch patch = PatchParser.parse(appConfig.getPatchPath());
-        List<Log> parserLogs = PatchParser.validate(patch);
-        if (parserLogs.size() > 0) {
-            parserLogs.forEach(Log::print);
-            exitOnError();
-        } else {
-            List<Path> paths = new ArrayList<>();
+        System.exit(status);
+    }
+
+    /**
+     * Runs the given command line as if from the given directory, printing to
+     * the given streams.
+     *
+     * @param patchCache the patches compiled by the previous runs
+     * @return the exit status
+     */
+    public static int run(String[] args, Path workingDirectory, PatchCache patchCache, PrintStream output,
+            PrintStream errorOutput) throws Exception {
+        try {
+            AppConfig appConfig = populateAppConfig(args, output, errorOutput);
+            if (appConfig.isWatchRequested()) {
+                errorOutput.println("Error: The watch mode is not available on a daemon");
+                exitOnError();
+            }
+            appConfig.resolvePaths(workingDirectory);
+            run(appConfig, patchCache, output, errorOutput);
+        } catch (Exit e) {
+            return e.status;
+        }
+
+        return SUCCESS_STATUS;
+    }
+
+    private static void run(AppConfig appConfig, PatchCache patchCache, PrintStream output, PrintStream errorOutput)
+            throws Exception {
+        if (appConfig.getCompiledPatchPath() != null) {
+            writeBinaryPatchFile(appConfig, output, errorOutput);
+            return;
+        }
+
+        List<CompiledPatch> compiledPatches = compilePatches(appConfig, patchCache, output, errorOutput);
+        MatchCache matchCache = MatchCache.disabled();
+        if (appConfig.getCacheDirectory() != null) {
+            try {
+                matchCache = MatchCache.open(appConfig.getCacheDirectory(), compiledPatches,
+                        appConfig.isCacheChecksumRequested());
+            } catch (IOException e) {
+                errorOutput.println(new StringBuilder().append("Error: Unable to open the cache: ")
+                        .append(e.getMessage()).toString());
+                exitOnError();
+            }
+        }
+
+        TreeWatcher watcher = null;
+        try {
+            // Watched before the first pass, so that no change is missed
+            if (appConfig.isWatchRequested()) {
+                try {
+                    watcher = new TreeWatcher(appConfig.getPaths(), createFileWalker(appConfig));
+                } catch (IOException e) {
+                    errorOutput.println(new StringBuilder().append("Error: Unable to watch the files: ")
+                            .append(e.getMessage()).toString());
+                    exitOnError();
+                }
+            }
+
+            runPass(compiledPatches, null, appConfig, matchCache, watcher, output, errorOutput);
+            while (watcher != null) {
+                List<SourceFile> files = null;
+                try {
+                    files = watcher.awaitChanges();
+                } catch (IOException e) {
+                    exitOnError();
+                } catch (InterruptedException e) {
+                    exit();
+                }
+                runPass(compiledPatches, files, appConfig, matchCache, watcher, output, errorOutput);
+            }
+        } finally {
             try {
-                for (Path file : appConfig.getPaths()) {
-                    paths.addAll(FileUtils.getAllPathsByExtension(file, appConfig.getExtension()));
+                if (watcher != null) {
+                    watcher.close();
                 }
+                matchCache.close();
             } catch (IOException e) {
                 exitOnError();
             }
+        }
+    }
 
+    /**
+     * Applies the patches once, to the given files or to the files of the
+     * roots.
+     *
+     * @param files   the files to process, or {@code null} to walk the roots
+     * @param watcher the watcher of the files in watch mode, or {@code null}
+     */
+    private static void runPass(List<CompiledPatch> compiledPatches, List<SourceFile> files, AppConfig appConfig,
+            MatchCache matchCache, TreeWatcher watcher, PrintStream output, PrintStream errorOutput) {
+        List<Patch> patches = compiledPatches.stream().map(CompiledPatch::getPatch).collect(Collectors.toList());
+        Statistics statistics = new Statistics();
+        OutputStream diffOutput = null;
+        RewriteWriter writer = null;
+        AsyncReporter reporter = null;
+        // Everything is closed on exit too, since a daemon keeps running
+        try {
             try {
-                runMatchers(patch, paths);
-            } catch (Exception e) {
-                exit();
+                if (appConfig.getDiffPath() != null) {
+                    diffOutput = Files.newOutputStream(appConfig.getDiffPath());
+                    writer = new DiffRewriteWriter(diffOutput);
+                } else if (appConfig.isDryRunRequested()) {
+                    writer = new DiffRewriteWriter(output);
+                } else {
+                    writer = new AtomicRewriteWriter(appConfig.getFsyncBatchSize(), matchCache);
+                }
+            } catch (IOException e) {
+                exitOnError();
+            }
+            if (watcher != null) {
+                writer = watcher.ignoreWritesOf(writer);
+            }
+
+            reporter = new AsyncReporter(appConfig.getReportFormat(), output, errorOutput);
+            if (files == null) {
+                try {
+                    for (CompiledPatch compiledPatch : compiledPatches) {
+                        for (FileReport captureReport : compiledPatch.getCaptureReports()) {
+                            reporter.report(captureReport);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    exit();
+                }
+            }
+            if (files == null && appConfig.isPipelineRequested()) {
+                try {
+                    runPipeline(compiledPatches, appConfig, statistics, writer, matchCache, reporter);
+                } catch (IOException e) {
+                    exitOnError();
+                } catch (Exception e) {
+                    exit();
+                }
+            } else {
+                List<SourceFile> passFiles = files;
+                if (passFiles == null) {
+                    passFiles = new ArrayList<>();
+                    long walkStart = System.nanoTime();
+                    FileWalker walker = createFileWalker(appConfig);
+                    try {
+                        for (Path path : appConfig.getPaths()) {
+                            passFiles.addAll(walker.getAllFiles(path));
+                        }
+                    } catch (IOException e) {
+                        exitOnError();
+                    }
+                    statistics.getRecorder().addTime(Statistics.Phase.WALK, walkStart);
+                }
+
+                try {
+                    runMatchers(compiledPatches, passFiles, appConfig, statistics, writer, matchCache, reporter);
+                } catch (Exception e) {
+                    exit();
+                }
+            }
+        } finally {
+            try {
+                if (reporter != null) {
+                    reporter.close();
+                }
+                if (writer != null) {
+                    writer.close();
+                }
+                if (diffOutput != null) {
+                    diffOutput.close();
+                }
+            } catch (IOException e) {
+                exitOnError();
+            }
+        }
+
+        if (appConfig.isStatsRequested()) {
+            statistics.print(patches, output);
+        }
+        if (appConfig.getStatsPath() != null) {
+            try {
+                statistics.writeJson(appConfig.getStatsPath(), patches);
+            } catch (IOException e) {
+                exitOnError();
             }
         }
     }
 
+    /**
+     * @return the compiled patches of the run, from the cache if their files
+     *         did not change
+     */
+    private static List<CompiledPatch> compilePatches(AppConfig appConfig, PatchCache patchCache,
+            PrintStream output, PrintStream errorOutput) throws IOException {
+        List<Path> patchFilePaths = findPatchFiles(appConfig, errorOutput);
+        String key = PatchCache.toKey(patchFilePaths, appConfig.getEncoding(), appConfig.getEngine());
+        List<CompiledPatch> compiledPatches = patchCache.get(key);
+        if (compiledPatches == null) {
+            compiledPatches = readCompiledPatches(patchFilePaths, appConfig, errorOutput);
+            if (compiledPatches == null) {
+                List<Patch> patches = readPatches(patchFilePaths, output, errorOutput);
+                compiledPatches = CompiledPatch.compile(patches, appConfig.getEncoding(), appConfig.getEngine());
+            }
+            patchCache.put(key, compiledPatches);
+        }
+
+        // The files named by rules are read on each run, so they are not cached
+        List<CompiledPatch> boundPatches = new ArrayList<>();
+        for (CompiledPatch compiledPatch : compiledPatches) {
+            try {
+                boundPatches.add(compiledPatch.captureSharedRules(compiledPatch.getPatch().getDirectory()));
+            } catch (IOException e) {
+                errorOutput.println("Error: Unable to read the file of a rule: " + e.getMessage());
+                exitOnError();
+            }
+        }
+
+        return boundPatches;
+    }
+
     private static void exit() {
-        System.exit(0);
+        throw new Exit(SUCCESS_STATUS);
     }
 
     private static void exitOnError() {
-        System.exit(-1);
+        throw new Exit(ERROR_STATUS);
     }
 
-    private static AppConfig populateAppConfig(String[] args) {
-        String[] args2 = { "--p-file", "/home/alan/Documents/dev/_test/gpatch/patch",
-                "/home/alan/Documents/dev/_test/gpatch/", "-e", ".ts" };
-        args = args2;
+    /**
+     * @return the patch files of the run, in order
+     */
+    private static List<Path> findPatchFiles(AppConfig appConfig, PrintStream errorOutput) throws IOException {
+        List<Path> patchFilePaths = new ArrayList<>();
+        for (Path patchPath : appConfig.getPatchPaths()) {
+            patchFilePaths.addAll(FileUtils.getFilesByName(patchPath));
+        }
+        if (patchFilePaths.isEmpty()) {
+            errorOutput.println("Error: No patch file found");
+            exitOnError();
+        }
+
+        return patchFilePaths;
+    }
 
+    private static AppConfig populateAppConfig(String[] args, PrintStream output, PrintStream errorOutput) {
         AppConfig appConfig = new AppConfig();
         CommandLine commandLine = new CommandLine(appConfig);
 
         try {
             commandLine.parse(args);
         } catch (MissingParameterException e) {
-            System.err.println("Error: Missing required argument(s)");
-            exitOnError();
+            // A daemon gets the patches and files of each run from its clients,
+            // and compiling patches needs no file to process
+            if (appConfig.getDaemonSocketPath() == null
+                    && (appConfig.getCompiledPatchPath() == null || appConfig.getPatchPaths() == null)) {
+                errorOutput.println("Error: Missing required argument(s)");
+                exitOnError();
+            }
         }
 
         if (commandLine.isUsageHelpRequested()) {
-            commandLine.usage(System.out);
+            commandLine.usage(output);
             exit();
         } else if (commandLine.isVersionHelpRequested()) {
-            commandLine.printVersionHelp(System.out);
+            commandLine.printVersionHelp(output);
             exit();
+        } else if (appConfig.getThreadNb() < 1) {
+            errorOutput.println("Error: The number of threads must be positive");
+            exitOnError();
+        } else if (appConfig.getFsyncBatchSize() < 0) {
+            errorOutput.println("Error: The fsync batch size must not be negative");
+            exitOnError();
+        } else if (appConfig.getReportFormat() == ReportFormat.JSON && appConfig.isDryRunRequested()) {
+            errorOutput.println("Error: The JSON report and the dry run diff cannot both be printed");
+            exitOnError();
+        } else if (appConfig.isVirtualThreadsRequested() && appConfig.isPipelineRequested()) {
+            errorOutput.println("Error: Virtual threads are not available with the pipeline");
+            exitOnError();
+        } else if (appConfig.isWatchRequested() && appConfig.getDiffPath() != null) {
+            errorOutput.println("Error: The diff file is not available in watch mode");
+            exitOnError();
+        } else if (appConfig.getPatchCacheSize() < 0) {
+            errorOutput.println("Error: The patch cache size must not be negative");
+            exitOnError();
         }
 
         return appConfig;
     }
 
-    private static void runMatchers(Patch patch, List<Path> paths) throws ExecutionException, InterruptedException {
-        int matcherNb = Math.min(Runtime.getRuntime().availableProcessors(), paths.size());
-
-        List<List<Path>> batchList = new ArrayList<>();
-        for (int i = 0; i < matcherNb; i++) {
-            batchList.add(new ArrayList<>());
+    /**
+     * @return the binary patch file at the given path
+     */
+    private static BinaryPatchFile readBinaryPatchFile(Path patchFilePath, PrintStream errorOutput)
+            throws IOException {
+        BinaryPatchFile binaryPatchFile = null;
+        try {
+            binaryPatchFile = BinaryPatchFile.read(patchFilePath);
+        } catch (IOException e) {
+            errorOutput.println(new StringBuilder().append("Error: Unable to read the binary patch file: ")
+                    .append(e.getMessage()).toString());
+            exitOnError();
         }
-        for (int i = 0; i < paths.size(); i++) {
-            batchList.get(i).add(paths.get(i % matcherNb));
+
+        return binaryPatchFile;
+    }
+
+    /**
+     * @return the patches of the given files as they were compiled, or
+     *         {@code null} if one of them is not a binary patch file, or was
+     *         compiled for another charset, engine or view of the files
+     */
+    private static List<CompiledPatch> readCompiledPatches(List<Path> patchFilePaths, AppConfig appConfig,
+            PrintStream errorOutput) throws IOException {
+        List<CompiledPatch> compiledPatches = new ArrayList<>();
+        Boolean byteViewEnabled = null;
+        for (Path patchFilePath : patchFilePaths) {
+            if (!BinaryPatchFile.isBinaryPatchFile(patchFilePath)) {
+                return null;
+            }
+
+            BinaryPatchFile binaryPatchFile = readBinaryPatchFile(patchFilePath, errorOutput);
+            List<CompiledPatch> filePatches = binaryPatchFile.getCompiledPatches(appConfig.getEncoding(),
+                    appConfig.getEngine());
+            // Patches applied one after the other all match over the same view
+            if (filePatches == null
+                    || (byteViewEnabled != null && byteViewEnabled != binaryPatchFile.isByteViewEnabled())) {
+                return null;
+            }
+            byteViewEnabled = binaryPatchFile.isByteViewEnabled();
+            compiledPatches.addAll(filePatches);
         }
 
-        List<PatchMatcher> matchers = IntStream.range(0, matcherNb)
-                .mapToObj(i -> new PatchMatcher(patch, batchList.get(i))).collect(Collectors.toList());
+        return compiledPatches;
+    }
+
+    /**
+     * @return the patches of the given files, parsed and validated, or read
+     *         back from binary patch files
+     */
+    private static List<Patch> readPatches(List<Path> patchFilePaths, PrintStream output, PrintStream errorOutput)
+            throws IOException {
+        List<Patch> patches = new ArrayList<>();
+        List<Log> parserLogs = new ArrayList<>();
+        for (Path patchFilePath : patchFilePaths) {
+            if (BinaryPatchFile.isBinaryPatchFile(patchFilePath)) {
+                patches.addAll(readBinaryPatchFile(patchFilePath, errorOutput).getPatches());
+            } else {
+                Patch patch = PatchParser.parse(patchFilePath);
+                parserLogs.addAll(PatchParser.validate(patch));
+                patches.add(patch);
+            }
+        }
 
-        ExecutorService executor = Executors.newFixedThreadPool(matcherNb);
-        CompletionService<List<Log>> completionService = new ExecutorCompletionService<>(executor);
-        matchers.forEach(completionService::submit);
-        executor.shutdown();
-        for (int i = matchers.size(); i > 0; i--) {
-            List<Log> matcherLogs = completionService.take().get();
-            if (matcherLogs != null) {
-                matcherLogs.forEach(Log::print);
+        if (parserLogs.size() > 0) {
+            for (Log log : parserLogs) {
+                log.print(output, errorOutput);
             }
+            exitOnError();
+        }
+
+        return patches;
+    }
+
+    private static int runClient(AppConfig appConfig, String[] args) {
+        try {
+            return DaemonClient.run(appConfig.getConnectSocketPath(), args);
+        } catch (IOException e) {
+            System.err.println(new StringBuilder().append("Error: Unable to run on the daemon: ")
+                    .append(e.getMessage()).toString());
+            return ERROR_STATUS;
+        }
+    }
+
+    private static void runDaemon(AppConfig appConfig) {
+        try {
+            new Daemon(appConfig.getDaemonSocketPath(), appConfig.getPatchCacheSize()).run();
+        } catch (IOException e) {
+            System.err.println(new StringBuilder().append("Error: Unable to run the daemon: ")
+                    .append(e.getMessage()).toString());
+            exitOnError();
+        }
+    }
+
+    private static void runMatchers(List<CompiledPatch> compiledPatches, List<SourceFile> files, AppConfig appConfig,
+            Statistics statistics, RewriteWriter writer, MatchCache matchCache, Reporter reporter)
+            throws ExecutionException, InterruptedException {
+        if (appConfig.isVirtualThreadsRequested()) {
+            VirtualMatcherScheduler scheduler = new VirtualMatcherScheduler(appConfig.getThreadNb(), writer,
+                    matchCache);
+            scheduler.run(compiledPatches, files, statistics, reporter);
+        } else {
+            MatcherScheduler scheduler = new MatcherScheduler(appConfig.getThreadNb(), writer, matchCache);
+            scheduler.run(compiledPatches, files, statistics, reporter);
+        }
+    }
+
+    private static FileWalker createFileWalker(AppConfig appConfig) {
+        return new FileWalker(appConfig.getExtensions(), appConfig.getIncludes(), appConfig.getExcludes(),
+                !appConfig.isNoIgnoreRequested(), appConfig.getThreadNb());
+    }
+
+    private static void runPipeline(List<CompiledPatch> compiledPatches, AppConfig appConfig, Statistics statistics,
+            RewriteWriter writer, MatchCache matchCache, Reporter reporter)
+            throws IOException, ExecutionException, InterruptedException {
+        MatcherPipeline pipeline = new MatcherPipeline(appConfig.getThreadNb(), writer, matchCache);
+        pipeline.run(compiledPatches, appConfig.getPaths(), createFileWalker(appConfig), statistics, reporter);
+    }
+
+    /**
+     * Writes the patches of the run, compiled for its charset and engine, to
+     * the binary patch file of {@code --compile}.
+     */
+    private static void writeBinaryPatchFile(AppConfig appConfig, PrintStream output, PrintStream errorOutput)
+            throws IOException {
+        List<Patch> patches = readPatches(findPatchFiles(appConfig, errorOutput), output, errorOutput);
+        try {
+            BinaryPatchFile.write(appConfig.getCompiledPatchPath(),
+                    CompiledPatch.compile(patches, appConfig.getEncoding(), appConfig.getEngine()));
+        } catch (IOException e) {
+            errorOutput.println(new StringBuilder().append("Error: Unable to write the binary patch file: ")
+                    .append(e.getMessage()).toString());
+            exitOnError();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Ends a run with the given status, without exiting the JVM of a daemon.
+     */
+    private static class Exit extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        Exit(int status) {
+            super(null, null, false, false);
+            this.status = status;
         }
 
     }
@@ -1,9 +1,15 @@
 package com.yac.gpatch;
 
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
+
+import com.yac.gpatch.matcher.MatchingEngine;
+import com.yac.gpatch.report.ReportFormat;
 
 import picocli.CommandLine.Command;
 import picocli.CommandLine.IVersionProvider;
@@ -13,33 +19,214 @@ import picocli.CommandLine.Parameters;
 @Command(name = "gpatch", description = "Perform collateral evolutions", versionProvider = AppConfig.PropertiesVersionProvider.class)
 public class AppConfig {
 
-    @Option(names = { "-e", "--ext-files" }, description = "the extension of files to process", required = true)
-    private String extension;
+    @Option(names = { "-e", "--ext-files" }, description = "the extension of files to process, repeat or separate"
+            + " with commas for several", split = ",", required = true)
+    private List<String> extensions;
+
+    @Option(names = { "--include" }, description = "only process the files matching this .gitignore-style pattern,"
+            + " relative to each of FILES, repeat for several", paramLabel = "<glob>")
+    private List<String> includes = new ArrayList<>();
+
+    @Option(names = { "--exclude" }, description = "skip the files and directories matching this .gitignore-style"
+            + " pattern, relative to each of FILES, repeat for several", paramLabel = "<glob>")
+    private List<String> excludes = new ArrayList<>();
 
-    @Option(names = { "--p-file" }, description = "the patch file", paramLabel = "<patch>", required = true)
-    private Path patchPath;
+    @Option(names = { "--no-ignore" }, description = "also process the files ignored by the .gitignore files of"
+            + " FILES, of their subdirectories and of their parents up to the top of the repository")
+    private boolean noIgnoreRequested;
+
+    @Option(names = { "--p-file" }, description = "a patch file, or one written by --compile, or a directory of patch"
+            + " files applied by name order; repeat to apply several patches in order", paramLabel = "<patch>",
+            required = true)
+    private List<Path> patchPaths;
 
     @Parameters(arity = "1..*", description = "process all files in directory recursively", paramLabel = "FILES")
     private List<Path> paths;
 
+    @Option(names = { "--compile" }, description = "parse, validate and compile the patches for --encoding and"
+            + " --engine into this binary file, loaded faster than patch files by --p-file, then exit",
+            paramLabel = "<file>")
+    private Path compiledPatchPath;
+
+    @Option(names = { "--encoding" }, description = "the charset of the files, the platform charset by default",
+            paramLabel = "<charset>")
+    private Charset encoding = Charset.defaultCharset();
+
+    @Option(names = { "--engine" }, description = "the matching engine, LINEAR (default) or REGEX",
+            paramLabel = "<engine>")
+    private MatchingEngine engine = MatchingEngine.LINEAR;
+
+    @Option(names = { "--threads" }, description = "the number of files processed in parallel",
+            paramLabel = "<threads>")
+    private int threadNb = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = { "--cache-dir" }, description = "skip the files unchanged since a previous run of the same patch",
+            paramLabel = "<dir>")
+    private Path cacheDirectory;
+
+    @Option(names = { "--cache-checksum" }, description = "also compare the checksum of files to use the cache")
+    private boolean cacheChecksumRequested;
+
+    @Option(names = { "--dry-run" }, description = "print a unified diff of the changes instead of modifying files")
+    private boolean dryRunRequested;
+
+    @Option(names = { "--diff" }, description = "like --dry-run but write the diff to a file",
+            paramLabel = "<diff>")
+    private Path diffPath;
+
+    @Option(names = { "--fsync-batch" }, description = "fsync modified files by groups of this size, 0 to never fsync",
+            paramLabel = "<size>")
+    private int fsyncBatchSize;
+
+    @Option(names = { "--pipeline" }, description = "match files as soon as they are found instead of largest first")
+    private boolean pipelineRequested;
+
+    @Option(names = { "--report" }, description = "the output of the results, TEXT (default) or JSON lines listing"
+            + " the matches and logs of each file", paramLabel = "<format>")
+    private ReportFormat reportFormat = ReportFormat.TEXT;
+
+    @Option(names = { "--stats" }, description = "display statistics at the end of the run")
+    private boolean statsRequested;
+
+    @Option(names = { "--stats-json" }, description = "write the statistics of the run to a JSON file",
+            paramLabel = "<file>")
+    private Path statsPath;
+
+    @Option(names = { "--virtual-threads" }, description = "read and write each file on its own virtual thread,"
+            + " matching at most --threads files at once")
+    private boolean virtualThreadsRequested;
+
+    @Option(names = { "--watch" }, description = "after the run, apply the patches again to the files created or"
+            + " modified until interrupted")
+    private boolean watchRequested;
+
+    @Option(names = { "--daemon" }, description = "serve the runs of --connect on this Unix-domain socket, keeping"
+            + " the compiled patches", paramLabel = "<socket>")
+    private Path daemonSocketPath;
+
+    @Option(names = { "--connect" }, description = "run on the daemon listening on this Unix-domain socket",
+            paramLabel = "<socket>")
+    private Path connectSocketPath;
+
+    @Option(names = { "--patch-cache-size" }, description = "the number of compiled patch lists kept by the daemon",
+            paramLabel = "<size>")
+    private int patchCacheSize = 16;
+
     @Option(names = { "-h", "--help" }, description = "display this help message", usageHelp = true)
     private boolean usageHelpRequested;
 
     @Option(names = { "--version" }, description = "display version info", versionHelp = true)
     private boolean versionInfoRequested;
 
-    public String getExtension() {
-        return extension;
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public Path getCompiledPatchPath() {
+        return compiledPatchPath;
+    }
+
+    public Path getConnectSocketPath() {
+        return connectSocketPath;
+    }
+
+    public Path getDaemonSocketPath() {
+        return daemonSocketPath;
+    }
+
+    public Path getDiffPath() {
+        return diffPath;
+    }
+
+    public Charset getEncoding() {
+        return encoding;
+    }
+
+    public MatchingEngine getEngine() {
+        return engine;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    public int getFsyncBatchSize() {
+        return fsyncBatchSize;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
     }
 
-    public Path getPatchPath() {
-        return patchPath;
+    public int getPatchCacheSize() {
+        return patchCacheSize;
+    }
+
+    public List<Path> getPatchPaths() {
+        return patchPaths;
     }
 
     public List<Path> getPaths() {
         return paths;
     }
 
+    public ReportFormat getReportFormat() {
+        return reportFormat;
+    }
+
+    public Path getStatsPath() {
+        return statsPath;
+    }
+
+    public int getThreadNb() {
+        return threadNb;
+    }
+
+    public boolean isCacheChecksumRequested() {
+        return cacheChecksumRequested;
+    }
+
+    public boolean isDryRunRequested() {
+        return dryRunRequested;
+    }
+
+    public boolean isNoIgnoreRequested() {
+        return noIgnoreRequested;
+    }
+
+    public boolean isPipelineRequested() {
+        return pipelineRequested;
+    }
+
+    public boolean isStatsRequested() {
+        return statsRequested;
+    }
+
+    public boolean isVirtualThreadsRequested() {
+        return virtualThreadsRequested;
+    }
+
+    public boolean isWatchRequested() {
+        return watchRequested;
+    }
+
+    /**
+     * Resolves the relative paths of the options against the given directory,
+     * for runs served by a daemon on behalf of a client in that directory.
+     */
+    public void resolvePaths(Path directory) {
+        patchPaths = patchPaths.stream().map(directory::resolve).collect(Collectors.toList());
+        paths = paths == null ? null : paths.stream().map(directory::resolve).collect(Collectors.toList());
+        compiledPatchPath = compiledPatchPath == null ? null : directory.resolve(compiledPatchPath);
+        cacheDirectory = cacheDirectory == null ? null : directory.resolve(cacheDirectory);
+        diffPath = diffPath == null ? null : directory.resolve(diffPath);
+        statsPath = statsPath == null ? null : directory.resolve(statsPath);
+    }
+
     static class PropertiesVersionProvider implements IVersionProvider {
 
         public String[] getVersion() throws Exception {
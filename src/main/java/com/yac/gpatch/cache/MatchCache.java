@@ -0,0 +1,399 @@
+package com.yac.gpatch.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import com.yac.gpatch.matcher.CompiledPatch;
+import com.yac.gpatch.model.Hunk;
+import com.yac.gpatch.model.Rule;
+
+/**
+ * Remembers the files a patch has nothing more to do with, so that re-runs
+ * of the same patch only read the files that changed since.
+ *
+ * There is one index per list of compiled patches in the cache directory,
+ * named after their fingerprint. A file is identified by its absolute path, and an entry
+ * is fresh as long as the size and modification time of the file, and
+ * optionally its checksum, are unchanged. The index is an append-only log
+ * of entries, memory-mapped to be loaded and compacted when most of its
+ * entries are stale; a torn entry at its end is dropped.
+ */
+public class MatchCache implements Closeable {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAGIC_NUMBER = 0x47504348;
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+    // Files larger than a mapping are summed by chunks
+    private static final int CHECKSUM_CHUNK_SIZE = 1 << 30;
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final MatchCache DISABLED = new MatchCache(null, false, new ConcurrentHashMap<>());
+
+    private final FileChannel channel;
+    private final boolean checksumEnabled;
+    private final Map<String, Entry> entries;
+
+    private final ByteArrayOutputStream pendingBytes;
+    private final DataOutputStream pendingEntries;
+    // Not a monitor, which would pin the carrier of a virtual thread while writing the index
+    private final Lock pendingLock;
+
+    private MatchCache(FileChannel channel, boolean checksumEnabled, Map<String, Entry> entries) {
+        this.channel = channel;
+        this.checksumEnabled = checksumEnabled;
+        this.entries = entries;
+        this.pendingBytes = new ByteArrayOutputStream();
+        this.pendingEntries = new DataOutputStream(pendingBytes);
+        this.pendingLock = new ReentrantLock();
+    }
+
+    /**
+     * @return a cache that never hits and records nothing
+     */
+    public static MatchCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Opens the index of the given patches, creating the cache directory if
+     * needed. The index is locked until the cache is closed.
+     *
+     * @param compiledPatches the patches applied to the files, in order
+     * @param checksumEnabled whether entries also require the checksum of the
+     *                        content to be unchanged
+     * @throws IOException if the index cannot be read or is used by another
+     *                     run
+     */
+    public static MatchCache open(Path cacheDirectory, List<CompiledPatch> compiledPatches,
+            boolean checksumEnabled) throws IOException {
+        Files.createDirectories(cacheDirectory);
+        Path indexPath = cacheDirectory.resolve(new StringBuilder()
+                .append(fingerprint(compiledPatches, checksumEnabled)).append(INDEX_SUFFIX).toString());
+
+        FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                throw new IOException(
+                        new StringBuilder().append(indexPath).append(" is used by another run").toString());
+            }
+
+            Map<String, Entry> entries = new ConcurrentHashMap<>();
+            long entryNb = load(channel, entries);
+            MatchCache matchCache = new MatchCache(channel, checksumEnabled, entries);
+            if (entryNb == -1 || entryNb > 2 * entries.size()) {
+                matchCache.compact();
+            } else {
+                channel.position(channel.size());
+            }
+
+            return matchCache;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param content the content of the file, only read to compute its
+     *                checksum
+     * @return {@code true} if the patch had nothing to do with the file when
+     *         it had the given attributes and content
+     */
+    public boolean isFresh(Path path, BasicFileAttributes attributes, ByteBuffer content) {
+        Entry entry = getUnchangedEntry(path, attributes);
+
+        return entry != null && (!checksumEnabled || entry.checksum == checksum(content));
+    }
+
+    /**
+     * Same as {@link #isFresh(Path, BasicFileAttributes, ByteBuffer)} for a
+     * file too large to be mapped at once.
+     */
+    public boolean isFresh(Path path, BasicFileAttributes attributes, FileChannel content) throws IOException {
+        Entry entry = getUnchangedEntry(path, attributes);
+
+        return entry != null && (!checksumEnabled || entry.checksum == checksum(content));
+    }
+
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    /**
+     * Records a file the patch has just been applied to.
+     */
+    public void recordApplied(Path path) throws IOException {
+        if (channel == null) {
+            return;
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long checksum = 0;
+        if (checksumEnabled) {
+            try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                checksum = checksum(fileChannel);
+            }
+        }
+        record(path, attributes, checksum, EntryState.APPLIED);
+    }
+
+    /**
+     * Records a file the patch does not modify.
+     *
+     * @param attributes the attributes of the file read before its content
+     */
+    public void recordUnmatched(Path path, BasicFileAttributes attributes, ByteBuffer content) throws IOException {
+        if (channel != null) {
+            record(path, attributes, checksumEnabled ? checksum(content) : 0, EntryState.UNMATCHED);
+        }
+    }
+
+    /**
+     * Same as {@link #recordUnmatched(Path, BasicFileAttributes, ByteBuffer)}
+     * for a file too large to be mapped at once.
+     */
+    public void recordUnmatched(Path path, BasicFileAttributes attributes, FileChannel content) throws IOException {
+        if (channel != null) {
+            record(path, attributes, checksumEnabled ? checksum(content) : 0, EntryState.UNMATCHED);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                pendingLock.lock();
+                try {
+                    flush();
+                } finally {
+                    pendingLock.unlock();
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the index with its fresh entries only. The index is emptied
+     * first, so that an interrupted compaction leaves a torn index rather
+     * than a mix of old and new entries.
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC_NUMBER);
+        output.writeInt(FORMAT_VERSION);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            writeEntry(output, entry.getKey(), entry.getValue());
+        }
+
+        channel.truncate(0);
+        channel.position(0);
+        write(channel, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private void flush() throws IOException {
+        if (pendingBytes.size() > 0) {
+            write(channel, ByteBuffer.wrap(pendingBytes.toByteArray()));
+            pendingBytes.reset();
+        }
+    }
+
+    /**
+     * @return the entry of the given file if its size and modification time
+     *         are unchanged, or {@code null}
+     */
+    private Entry getUnchangedEntry(Path path, BasicFileAttributes attributes) {
+        if (channel == null) {
+            return null;
+        }
+
+        Entry entry = entries.get(toKey(path));
+        return entry != null && entry.size == attributes.size()
+                && entry.modificationTime == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) ? entry : null;
+    }
+
+    private void record(Path path, BasicFileAttributes attributes, long checksum, EntryState state)
+            throws IOException {
+        String key = toKey(path);
+        Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), checksum,
+                state);
+        entries.put(key, entry);
+        pendingLock.lock();
+        try {
+            writeEntry(pendingEntries, key, entry);
+            if (pendingBytes.size() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    private static long checksum(ByteBuffer content) {
+        CRC32C crc = new CRC32C();
+        crc.update(content.duplicate());
+
+        return crc.getValue();
+    }
+
+    private static long checksum(FileChannel content) throws IOException {
+        CRC32C crc = new CRC32C();
+        long size = content.size();
+        for (long position = 0; position < size; position += CHECKSUM_CHUNK_SIZE) {
+            crc.update(content.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(CHECKSUM_CHUNK_SIZE, size - position)));
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Identifies the patches, so that changing a patch, their order or the
+     * options they are compiled with never reuses the entries of other ones.
+     */
+    private static String fingerprint(List<CompiledPatch> compiledPatches, boolean checksumEnabled) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            updateDigest(digest, Integer.toString(FORMAT_VERSION));
+            updateDigest(digest, compiledPatches.get(0).getCharset().name());
+            updateDigest(digest, Boolean.toString(checksumEnabled));
+            for (CompiledPatch compiledPatch : compiledPatches) {
+                // Delimits the patches
+                updateDigest(digest, new StringBuilder().append(compiledPatch.getPatch().getRules().size()).append(" ")
+                        .append(compiledPatch.getPatch().getHunks().size()).toString());
+                for (Rule rule : compiledPatch.getPatch().getRules()) {
+                    updateDigest(digest, rule.toString());
+                    if (rule.getFilename() != null) {
+                        // The rewrites depend on the capture of the named file
+                        String capture = compiledPatch.getSharedVariables().get(rule.getId());
+                        updateDigest(digest, capture == null ? "" : "=" + capture);
+                    }
+                }
+                for (Hunk hunk : compiledPatch.getPatch().getHunks()) {
+                    updateDigest(digest, String.join("\n", hunk.getLines()));
+                }
+            }
+
+            StringBuilder fingerprint = new StringBuilder();
+            for (byte b : digest.digest()) {
+                fingerprint.append(String.format("%02x", b));
+            }
+
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the number of entries read, stale ones included, or -1 if the
+     *         index is not readable
+     */
+    private static long load(FileChannel channel, Map<String, Entry> entries) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (buffer.getInt() != MAGIC_NUMBER || buffer.getInt() != FORMAT_VERSION) {
+            return -1;
+        }
+
+        long entryNb = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                int keyLength = buffer.getInt();
+                if (keyLength < 0 || keyLength > buffer.remaining()) {
+                    return -1;
+                }
+                byte[] key = new byte[keyLength];
+                buffer.get(key);
+                Entry entry = new Entry(buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                        EntryState.values()[buffer.get()]);
+                entries.put(new String(key, StandardCharsets.UTF_8), entry);
+                entryNb++;
+            }
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            // Torn entry of an interrupted run, the index is compacted from the entries read so far
+            return -1;
+        }
+
+        return entryNb;
+    }
+
+    private static String toKey(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static void updateDigest(MessageDigest digest, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream output, String key, Entry entry) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(keyBytes.length);
+        output.write(keyBytes);
+        output.writeLong(entry.size);
+        output.writeLong(entry.modificationTime);
+        output.writeLong(entry.checksum);
+        output.writeByte(entry.state.ordinal());
+    }
+
+    private enum EntryState {
+
+        UNMATCHED, APPLIED;
+
+    }
+
+    private static class Entry {
+
+        private final long size;
+        private final long modificationTime;
+        private final long checksum;
+        private final EntryState state;
+
+        private Entry(long size, long modificationTime, long checksum, EntryState state) {
+            this.size = size;
+            this.modificationTime = modificationTime;
+            this.checksum = checksum;
+            this.state = state;
+        }
+
+    }
+
+}
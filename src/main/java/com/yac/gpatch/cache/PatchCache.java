@@ -0,0 +1,82 @@
+package com.yac.gpatch.cache;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.yac.gpatch.matcher.CompiledPatch;
+import com.yac.gpatch.matcher.MatchingEngine;
+
+/**
+ * Keeps the patches compiled by the previous runs of a daemon, so that a run
+ * with the same patch files only compiles them again if they changed.
+ *
+ * Patches are keyed by the absolute paths, modification times and sizes of
+ * their files, read before the files are parsed so that a concurrent change
+ * is seen by the next run, and by the charset and engine they were compiled
+ * for. The least recently used patches are evicted first.
+ */
+public class PatchCache {
+
+    private static final PatchCache DISABLED = new PatchCache(0);
+
+    private final Map<String, List<CompiledPatch>> entries;
+
+    /**
+     * @param capacity the number of lists of compiled patches kept
+     */
+    public PatchCache(int capacity) {
+        this.entries = new LinkedHashMap<String, List<CompiledPatch>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<CompiledPatch>> eldest) {
+                return size() > capacity;
+            }
+
+        };
+    }
+
+    /**
+     * @return a cache that keeps nothing
+     */
+    public static PatchCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return the key of the given patch files, compiled together in order
+     */
+    public static String toKey(List<Path> patchFilePaths, Charset charset, MatchingEngine engine)
+            throws IOException {
+        StringBuilder key = new StringBuilder().append(charset.name()).append(" ").append(engine.name());
+        for (Path patchFilePath : patchFilePaths) {
+            BasicFileAttributes attributes = Files.readAttributes(patchFilePath, BasicFileAttributes.class);
+            key.append("\n").append(patchFilePath.toAbsolutePath().normalize()).append(" ")
+                    .append(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)).append(" ")
+                    .append(attributes.size());
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * @return the compiled patches of the given key, or {@code null} if they
+     *         are not in the cache
+     */
+    public synchronized List<CompiledPatch> get(String key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(String key, List<CompiledPatch> compiledPatches) {
+        entries.put(key, compiledPatches);
+    }
+
+}
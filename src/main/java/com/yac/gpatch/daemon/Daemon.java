@@ -0,0 +1,140 @@
+package com.yac.gpatch.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.yac.gpatch.App;
+import com.yac.gpatch.cache.PatchCache;
+
+/**
+ * Serves runs on a Unix-domain socket from a warm JVM, keeping the patches
+ * compiled by the previous runs in a {@link PatchCache}.
+ *
+ * A client sends the directory its paths are relative to, then the number
+ * of its arguments and the arguments, as {@link DataOutputStream} does. The
+ * daemon answers with frames of the standard output and error of the run,
+ * each a type byte followed by a length and the bytes, then an exit frame
+ * followed by the exit status.
+ *
+ * Runs are served one at a time, since each one already uses all threads
+ * and two runs must not rewrite the same files at once.
+ */
+public class Daemon {
+
+    static final byte EXIT_FRAME = 0;
+    static final byte OUTPUT_FRAME = 1;
+    static final byte ERROR_OUTPUT_FRAME = 2;
+
+    private static final int ERROR_STATUS = -1;
+    // Far more than a command line holds, but small enough to allocate
+    private static final int MAX_ARG_NB = 1 << 16;
+
+    private final Path socketPath;
+    private final PatchCache patchCache;
+
+    /**
+     * @param patchCacheSize the number of lists of compiled patches kept
+     */
+    public Daemon(Path socketPath, int patchCacheSize) {
+        this.socketPath = socketPath;
+        this.patchCache = new PatchCache(patchCacheSize);
+    }
+
+    /**
+     * Serves runs until the daemon is killed, or its thread interrupted while
+     * waiting for a client. The socket file of a previous
+     * daemon is replaced, unless that daemon still answers.
+     */
+    public void run() throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+        if (Files.exists(socketPath)) {
+            if (isAnswering(address)) {
+                throw new IOException(new StringBuilder().append("A daemon already listens on ")
+                        .append(socketPath.toString()).toString());
+            }
+            Files.delete(socketPath);
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address);
+            socketPath.toFile().deleteOnExit();
+            while (true) {
+                try (SocketChannel channel = server.accept()) {
+                    serve(channel);
+                } catch (ClosedByInterruptException e) {
+                    return;
+                } catch (EOFException e) {
+                    // The client left before its request, as another daemon checking the socket does
+                } catch (IOException e) {
+                    // The client is gone, the next one is served
+                    System.err.println(new StringBuilder().append("Error: Unable to serve a run: ")
+                            .append(e.getMessage()).toString());
+                } catch (RuntimeException e) {
+                    // A request the run did not expect, such as an invalid directory, must not stop the daemon
+                    System.err.println(new StringBuilder().append("Error: Unable to serve a run: ")
+                            .append(e.toString()).toString());
+                }
+            }
+        }
+    }
+
+    private static boolean isAnswering(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void serve(SocketChannel channel) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        Path workingDirectory = Paths.get(input.readUTF());
+        int argNb = input.readInt();
+        if (argNb < 0 || argNb > MAX_ARG_NB) {
+            throw new IOException(new StringBuilder().append("Invalid number of arguments ").append(argNb)
+                    .toString());
+        }
+        String[] args = new String[argNb];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = input.readUTF();
+        }
+
+        DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        Lock framesLock = new ReentrantLock();
+        PrintStream output = new PrintStream(
+                new BufferedOutputStream(new FrameOutputStream(frames, framesLock, OUTPUT_FRAME)));
+        PrintStream errorOutput = new PrintStream(
+                new BufferedOutputStream(new FrameOutputStream(frames, framesLock, ERROR_OUTPUT_FRAME)));
+        int status;
+        try {
+            status = App.run(args, workingDirectory, patchCache, output, errorOutput);
+        } catch (Exception e) {
+            errorOutput.println(new StringBuilder().append("Error: ").append(e.toString()).toString());
+            status = ERROR_STATUS;
+        }
+        output.flush();
+        errorOutput.flush();
+
+        frames.writeByte(EXIT_FRAME);
+        frames.writeInt(status);
+        frames.flush();
+    }
+
+}
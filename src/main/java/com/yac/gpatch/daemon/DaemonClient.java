@@ -0,0 +1,61 @@
+package com.yac.gpatch.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Hands a run over to a {@link Daemon}, and prints its output as it comes.
+ */
+public class DaemonClient {
+
+    /**
+     * @param args the arguments of the run, relative to the current directory
+     * @return the exit status of the run
+     */
+    public static int run(Path socketPath, String[] args) throws IOException {
+        return run(socketPath, args, System.out, System.err);
+    }
+
+    /**
+     * @param output      receives the standard output of the run
+     * @param errorOutput receives the standard error of the run
+     */
+    static int run(Path socketPath, String[] args, PrintStream output, PrintStream errorOutput) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(Paths.get("").toAbsolutePath().toString());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            DataInputStream frames = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte type;
+            while ((type = frames.readByte()) != Daemon.EXIT_FRAME) {
+                byte[] bytes = new byte[frames.readInt()];
+                frames.readFully(bytes);
+                if (type == Daemon.OUTPUT_FRAME) {
+                    output.write(bytes, 0, bytes.length);
+                } else {
+                    errorOutput.write(bytes, 0, bytes.length);
+                }
+            }
+            output.flush();
+            errorOutput.flush();
+
+            return frames.readInt();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.yac.gpatch.daemon;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Sends what is written as frames of a given type, sharing the connection
+ * with the streams of the other types.
+ */
+class FrameOutputStream extends OutputStream {
+
+    private final DataOutputStream frames;
+    private final Lock framesLock;
+    private final byte type;
+
+    FrameOutputStream(DataOutputStream frames, Lock framesLock, byte type) {
+        this.frames = frames;
+        this.framesLock = framesLock;
+        this.type = type;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void flush() throws IOException {
+        framesLock.lock();
+        try {
+            frames.flush();
+        } finally {
+            framesLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        framesLock.lock();
+        try {
+            frames.writeByte(type);
+            frames.writeInt(length);
+            frames.write(bytes, offset, length);
+        } finally {
+            framesLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+}
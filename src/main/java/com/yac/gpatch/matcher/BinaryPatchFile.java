@@ -0,0 +1,456 @@
+package com.yac.gpatch.matcher;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.yac.gpatch.model.Hunk;
+import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.model.Rule;
+
+/**
+ * Patches compiled once, saved as a binary file that later runs load instead
+ * of parsing and compiling the patch files again.
+ *
+ * The header names the engine and the charset the patches were compiled for,
+ * and whether they match over a byte view. It is followed by the patches in
+ * order, each being its directory relative to the file, its rules and hunks
+ * with their lines, texts and patterns, then its prefilter automaton and its
+ * search plan. Texts are written as their length and UTF-8 bytes, a missing
+ * text having a length of -1, and lists of lines start with their size.
+ *
+ * The file is memory-mapped to be read. Only the names are decoded then,
+ * the ids deriving from them; the lines and texts are decoded from the
+ * mapping on their first use. The regexes of the regex engine are compiled
+ * again when reading.
+ */
+public class BinaryPatchFile {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAGIC_NUMBER = 0x47504350;
+
+    private final MatchingEngine engine;
+    private final Charset charset;
+    private final boolean byteViewEnabled;
+    private final List<CompiledPatch> compiledPatches;
+
+    private BinaryPatchFile(MatchingEngine engine, Charset charset, boolean byteViewEnabled,
+            List<CompiledPatch> compiledPatches) {
+        this.engine = engine;
+        this.charset = charset;
+        this.byteViewEnabled = byteViewEnabled;
+        this.compiledPatches = compiledPatches;
+    }
+
+    /**
+     * @return {@code true} if the given file starts like a binary patch file,
+     *         of any version
+     */
+    public static boolean isBinaryPatchFile(Path path) throws IOException {
+        try (InputStream input = Files.newInputStream(path)) {
+            byte[] magicNumber = input.readNBytes(Integer.BYTES);
+
+            return magicNumber.length == Integer.BYTES && ByteBuffer.wrap(magicNumber).getInt() == MAGIC_NUMBER;
+        }
+    }
+
+    /**
+     * @throws IOException if the file is not a binary patch file of this
+     *                     version, or is truncated or corrupted
+     */
+    public static BinaryPatchFile read(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(new StringBuilder().append("Not a binary patch file: ").append(path).toString());
+            }
+            // The mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.getInt() != MAGIC_NUMBER || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException(new StringBuilder().append("Unsupported binary patch file: ").append(path)
+                    .toString());
+        }
+
+        try {
+            MatchingEngine engine = MatchingEngine.valueOf(readString(buffer));
+            Charset charset = Charset.forName(readString(buffer));
+            boolean byteViewEnabled = buffer.get() != 0;
+            Path directory = path.toAbsolutePath().getParent();
+            List<CompiledPatch> compiledPatches = new ArrayList<>();
+            int patchNb = readCount(buffer);
+            for (int i = 0; i < patchNb; i++) {
+                compiledPatches.add(readPatch(buffer, directory, engine, charset, byteViewEnabled));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes");
+            }
+
+            return new BinaryPatchFile(engine, charset, byteViewEnabled,
+                    Collections.unmodifiableList(compiledPatches));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException(new StringBuilder().append("Truncated or corrupted binary patch file: ").append(path)
+                    .toString(), e);
+        }
+    }
+
+    /**
+     * Writes the given patches, compiled together by
+     * {@link CompiledPatch#compile(List, Charset, MatchingEngine)}, replacing
+     * the file.
+     */
+    public static void write(Path path, List<CompiledPatch> compiledPatches) throws IOException {
+        if (compiledPatches.isEmpty()) {
+            throw new IllegalArgumentException("No patch to write");
+        }
+
+        CompiledPatch firstPatch = compiledPatches.get(0);
+        Path directory = path.toAbsolutePath().getParent();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            output.writeInt(MAGIC_NUMBER);
+            output.writeInt(FORMAT_VERSION);
+            writeText(output, firstPatch.getEngine().name());
+            writeText(output, firstPatch.getCharset().name());
+            output.writeBoolean(firstPatch.isByteViewEnabled());
+            output.writeInt(compiledPatches.size());
+            for (CompiledPatch compiledPatch : compiledPatches) {
+                writePatch(output, compiledPatch, directory);
+            }
+        }
+    }
+
+    /**
+     * @return the patches as compiled for the given charset and engine, or
+     *         {@code null} if they were compiled for others
+     */
+    public List<CompiledPatch> getCompiledPatches(Charset charset, MatchingEngine engine) {
+        return this.charset.equals(charset) && this.engine == engine ? compiledPatches : null;
+    }
+
+    public List<Patch> getPatches() {
+        return compiledPatches.stream().map(CompiledPatch::getPatch).collect(Collectors.toList());
+    }
+
+    /**
+     * @return {@code true} if the patches were compiled to match over a byte
+     *         view of the files
+     */
+    public boolean isByteViewEnabled() {
+        return byteViewEnabled;
+    }
+
+    /**
+     * @return a number of items, each taking at least 4 bytes
+     */
+    static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / Integer.BYTES) {
+            throw new BufferUnderflowException();
+        }
+
+        return count;
+    }
+
+    /**
+     * @param limit the bound of the values, which are not negative
+     */
+    static int[] readInts(ByteBuffer buffer, int limit) {
+        int[] values = new int[readCount(buffer)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+        for (int value : values) {
+            if (value < 0 || value >= limit) {
+                throw new IllegalArgumentException("Value out of range");
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * @return the text at the position of the buffer, decoded
+     */
+    static String readString(ByteBuffer buffer) {
+        return readText(buffer).get();
+    }
+
+    static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    static void writeText(DataOutputStream output, String text) throws IOException {
+        if (text == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * @return the lines at the position of the buffer, decoded on their first
+     *         use
+     */
+    private static List<String> readLines(ByteBuffer buffer) {
+        int lineNb = readCount(buffer);
+        int size = buffer.getInt();
+        if (size < 0 || size > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        ByteBuffer lines = buffer.slice();
+        lines.limit(size);
+        buffer.position(buffer.position() + size);
+        // Checked now, so that decoding them later cannot fail
+        ByteBuffer check = lines.duplicate();
+        for (int i = 0; i < lineNb; i++) {
+            readText(check);
+        }
+        if (check.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes in lines");
+        }
+
+        return new MappedLines(lines, lineNb);
+    }
+
+    private static CompiledPatch readPatch(ByteBuffer buffer, Path fileDirectory, MatchingEngine engine,
+            Charset charset, boolean byteViewEnabled) {
+        Path directory = fileDirectory.resolve(readString(buffer)).normalize();
+        boolean crLfOnly = byteViewEnabled && !charset.equals(StandardCharsets.ISO_8859_1);
+        boolean regexEnabled = engine == MatchingEngine.REGEX;
+
+        int ruleNb = readCount(buffer);
+        List<Rule> rules = new ArrayList<>(ruleNb);
+        List<CompiledRule> compiledRules = new ArrayList<>(ruleNb);
+        for (int i = 0; i < ruleNb; i++) {
+            String name = readString(buffer);
+            String filename = readString(buffer);
+            Rule rule = new Rule(name, filename, readLines(buffer));
+            Supplier<String> text = readText(buffer);
+            Supplier<String> anchor = readText(buffer);
+            LinearPattern linearPattern = LinearPattern.read(buffer);
+            Pattern pattern = regexEnabled ? CompiledPatch.compileRuleRegex(rule, text.get(), crLfOnly) : null;
+            rules.add(rule);
+            compiledRules.add(new CompiledRule(rule, text, pattern, linearPattern, anchor));
+        }
+
+        int hunkNb = readCount(buffer);
+        List<Hunk> hunks = new ArrayList<>(hunkNb);
+        List<CompiledHunk> compiledHunks = new ArrayList<>(hunkNb);
+        for (int i = 0; i < hunkNb; i++) {
+            String name = readString(buffer);
+            Hunk hunk = new Hunk(name, readLines(buffer));
+            Supplier<String> initialText = readText(buffer);
+            Supplier<String> finalText = readText(buffer);
+            Supplier<String> anchor = readText(buffer);
+            LinearPattern linearPattern = LinearPattern.read(buffer);
+            LinearPattern ellipsisPattern = buffer.get() != 0 ? LinearPattern.read(buffer) : null;
+            List<VariableReference> initialVariables = readVariables(buffer, rules);
+            List<VariableReference> finalVariables = readVariables(buffer, rules);
+            Pattern pattern = regexEnabled ? CompiledPatch.compileHunkRegex(hunk, initialText.get(), crLfOnly)
+                    : null;
+            hunks.add(hunk);
+            compiledHunks.add(new CompiledHunk(hunk, initialText, finalText, pattern, linearPattern, ellipsisPattern,
+                    initialVariables, finalVariables, anchor));
+        }
+
+        LiteralPrefilter prefilter = LiteralPrefilter.read(buffer, hunkNb);
+        SearchPlan searchPlan = SearchPlan.read(buffer, compiledRules, hunkNb);
+        Map<String, Rule> ruleByName = new HashMap<>();
+        rules.forEach(rule -> ruleByName.putIfAbsent(rule.getName(), rule));
+
+        Patch patch = new Patch(Collections.unmodifiableList(rules), Collections.unmodifiableList(hunks), directory);
+        return new CompiledPatch(patch, Collections.unmodifiableList(compiledRules),
+                Collections.unmodifiableList(compiledHunks), Collections.unmodifiableMap(ruleByName), prefilter,
+                searchPlan, charset, byteViewEnabled, crLfOnly, engine, Collections.emptyMap(),
+                Collections.emptyList());
+    }
+
+    /**
+     * @return the text at the position of the buffer, decoded on its first
+     *         use
+     */
+    private static Supplier<String> readText(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return new MappedText(null);
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+
+        ByteBuffer text = buffer.slice();
+        text.limit(length);
+        buffer.position(buffer.position() + length);
+
+        return new MappedText(text);
+    }
+
+    private static List<VariableReference> readVariables(ByteBuffer buffer, List<Rule> rules) {
+        int variableNb = readCount(buffer);
+        List<VariableReference> variables = new ArrayList<>(variableNb);
+        for (int i = 0; i < variableNb; i++) {
+            int rule = buffer.getInt();
+            if (rule < 0 || rule >= rules.size()) {
+                throw new IllegalArgumentException("Invalid variable reference");
+            }
+            variables.add(new VariableReference(rules.get(rule), buffer.getInt(), buffer.getInt()));
+        }
+
+        return Collections.unmodifiableList(variables);
+    }
+
+    private static void writeLines(DataOutputStream output, List<String> lines) throws IOException {
+        List<byte[]> encodedLines = lines.stream().map(line -> line.getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        output.writeInt(lines.size());
+        output.writeInt(encodedLines.stream().mapToInt(line -> Integer.BYTES + line.length).sum());
+        for (byte[] line : encodedLines) {
+            output.writeInt(line.length);
+            output.write(line);
+        }
+    }
+
+    /**
+     * @param fileDirectory the directory of the binary patch file, which the
+     *                      directory of the patch is written relative to
+     */
+    private static void writePatch(DataOutputStream output, CompiledPatch compiledPatch, Path fileDirectory)
+            throws IOException {
+        Patch patch = compiledPatch.getPatch();
+        Path directory = patch.getDirectory();
+        boolean relativizable = directory.isAbsolute() && directory.getRoot().equals(fileDirectory.getRoot());
+        writeText(output, (relativizable ? fileDirectory.relativize(directory) : directory).toString());
+
+        output.writeInt(compiledPatch.getRules().size());
+        for (CompiledRule compiledRule : compiledPatch.getRules()) {
+            Rule rule = compiledRule.getRule();
+            writeText(output, rule.getName());
+            writeText(output, rule.getFilename());
+            writeLines(output, rule.getLines());
+            writeText(output, compiledRule.getText());
+            writeText(output, compiledRule.getAnchor());
+            compiledRule.getLinearPattern().write(output);
+        }
+
+        output.writeInt(compiledPatch.getHunks().size());
+        for (CompiledHunk compiledHunk : compiledPatch.getHunks()) {
+            Hunk hunk = compiledHunk.getHunk();
+            writeText(output, hunk.getName());
+            writeLines(output, hunk.getLines());
+            writeText(output, compiledHunk.getInitialText());
+            writeText(output, compiledHunk.getFinalText());
+            writeText(output, compiledHunk.getAnchor());
+            compiledHunk.getLinearPattern().write(output);
+            output.writeBoolean(compiledHunk.getEllipsisPattern() != null);
+            if (compiledHunk.getEllipsisPattern() != null) {
+                compiledHunk.getEllipsisPattern().write(output);
+            }
+            writeVariables(output, compiledHunk.getInitialVariables(), patch.getRules());
+            writeVariables(output, compiledHunk.getFinalVariables(), patch.getRules());
+        }
+
+        compiledPatch.getPrefilter().write(output);
+        compiledPatch.getSearchPlan().write(output);
+    }
+
+    private static void writeVariables(DataOutputStream output, List<VariableReference> variables, List<Rule> rules)
+            throws IOException {
+        output.writeInt(variables.size());
+        for (VariableReference variable : variables) {
+            output.writeInt(rules.indexOf(variable.getRule()));
+            output.writeInt(variable.getStart());
+            output.writeInt(variable.getEnd());
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Lines of a mapped binary patch file, all decoded on the first access to
+     * one of them.
+     */
+    private static class MappedLines extends AbstractList<String> {
+
+        private final ByteBuffer bytes;
+        private final int size;
+        private volatile String[] lines;
+
+        private MappedLines(ByteBuffer bytes, int size) {
+            this.bytes = bytes;
+            this.size = size;
+        }
+
+        @Override
+        public String get(int index) {
+            String[] decodedLines = lines;
+            if (decodedLines == null) {
+                decodedLines = new String[size];
+                ByteBuffer buffer = bytes.duplicate();
+                for (int i = 0; i < size; i++) {
+                    decodedLines[i] = readString(buffer);
+                }
+                lines = decodedLines;
+            }
+
+            return decodedLines[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+    }
+
+    /**
+     * A text of a mapped binary patch file, decoded on its first use.
+     */
+    private static class MappedText implements Supplier<String> {
+
+        // Null for a missing text
+        private final ByteBuffer bytes;
+        private volatile String text;
+
+        private MappedText(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String get() {
+            if (text == null && bytes != null) {
+                text = StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+            }
+
+            return text;
+        }
+
+    }
+
+}
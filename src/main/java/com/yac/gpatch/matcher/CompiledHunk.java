@@ -0,0 +1,87 @@
+package com.yac.gpatch.matcher;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import com.yac.gpatch.model.Hunk;
+
+public class CompiledHunk {
+
+    private final Hunk hunk;
+    // Texts are decoded on first use when read from a binary patch file
+    private final Supplier<String> initialText;
+    private final Supplier<String> finalText;
+    private final Pattern pattern;
+    private final LinearPattern linearPattern;
+    private final LinearPattern ellipsisPattern;
+    private final List<VariableReference> initialVariables;
+    private final List<VariableReference> finalVariables;
+    private final Supplier<String> anchor;
+
+    CompiledHunk(Hunk hunk, Supplier<String> initialText, Supplier<String> finalText, Pattern pattern,
+            LinearPattern linearPattern, LinearPattern ellipsisPattern, List<VariableReference> initialVariables,
+            List<VariableReference> finalVariables, Supplier<String> anchor) {
+        this.hunk = hunk;
+        this.initialText = initialText;
+        this.finalText = finalText;
+        this.pattern = pattern;
+        this.linearPattern = linearPattern;
+        this.ellipsisPattern = ellipsisPattern;
+        this.initialVariables = initialVariables;
+        this.finalVariables = finalVariables;
+        this.anchor = anchor;
+    }
+
+    /**
+     * @return the longest literal every match of the initial text contains, or
+     *         {@code null} if the initial text has no literal
+     */
+    public String getAnchor() {
+        return anchor.get();
+    }
+
+    /**
+     * @return the pattern capturing the content of each ellipsis of the initial
+     *         text, or {@code null} if the final text has no ellipsis
+     */
+    public LinearPattern getEllipsisPattern() {
+        return ellipsisPattern;
+    }
+
+    public String getFinalText() {
+        return finalText.get();
+    }
+
+    public List<VariableReference> getFinalVariables() {
+        return finalVariables;
+    }
+
+    public Hunk getHunk() {
+        return hunk;
+    }
+
+    public String getInitialText() {
+        return initialText.get();
+    }
+
+    public List<VariableReference> getInitialVariables() {
+        return initialVariables;
+    }
+
+    /**
+     * @return the pattern whose whole matches are the snippets of the hunk
+     */
+    public LinearPattern getLinearPattern() {
+        return linearPattern;
+    }
+
+    /**
+     * @return the regex of the hunk, or {@code null} if the patch is not
+     *         compiled for the regex engine
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+}
@@ -0,0 +1,569 @@
+package com.yac.gpatch.matcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.yac.gpatch.model.Hunk;
+import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.model.Rule;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.util.ByteCharSequence;
+import com.yac.gpatch.util.StringUtils;
+import com.yac.gpatch.util.logging.Log;
+import com.yac.gpatch.util.logging.LogLevel;
+
+/**
+ * Execution plan of a validated {@link Patch}. It is built once and shared
+ * read-only by all {@link PatchMatcher} instances, but for the pool of the
+ * {@link PatchMatches} they borrow.
+ *
+ * When the charset allows it, the patterns are compiled to run over a byte
+ * view of the files ({@link #isByteViewEnabled()}): with ISO-8859-1 and
+ * US-ASCII, or with UTF-8 when the texts to match are ASCII, since literals
+ * then match the same bytes as in the decoded content. The texts of the
+ * patch are then converted to the characters of their encoded bytes.
+ *
+ * Rules naming a file ({@code @@ name from path @@}) are matched against that
+ * file once per run, by {@link #captureSharedRules(Path)}, rather than in
+ * each file to patch.
+ */
+public class CompiledPatch {
+
+    static final String CAPTURING_VARIABLE_LITERAL = Pattern.quote(Patch.CAPTURING_VARIABLE_MACRO);
+    static final String WHITESPACES_REGEX = "\\s*";
+
+    // Building a content index costs about as much as scanning the content for
+    // eight patterns, it only pays off for patches with more
+    private static final int MIN_INDEXABLE_PATTERN_NB = 8;
+
+    private static final String ANY_CHAR_REGEX = ".";
+    // In a byte view, bytes of multi-byte characters must not be taken for line terminators
+    private static final String ANY_BYTE_REGEX = "[^\\n\\r]";
+
+    private static final Pattern MACRO_REGEX = Pattern.compile(new StringBuilder().append("(\\s+)|(")
+            .append(Pattern.quote(Patch.ELLIPSIS_MACRO)).append(")|(")
+            .append(Pattern.quote(Patch.CAPTURING_VARIABLE_MACRO)).append(")|")
+            .append(Patch.CAPTURED_VARIABLE_REGEX.pattern()).toString());
+
+    private final Patch patch;
+    private final List<CompiledRule> rules;
+    private final List<CompiledHunk> hunks;
+    private final Map<String, Rule> ruleByName;
+    private final LiteralPrefilter prefilter;
+    private final Charset charset;
+    private final boolean byteViewEnabled;
+    private final boolean crLfOnly;
+    private final MatchingEngine engine;
+    private final boolean contentIndexed;
+    // The first capture of each rule naming a file, by rule id, and the logs
+    // of these files
+    private final Map<String, String> sharedVariables;
+    private final List<FileReport> captureReports;
+    private final SearchPlan searchPlan;
+    private final Queue<PatchMatches> idleMatches;
+
+    /**
+     * @param searchPlan the plan of the rules and hunks, bound to the given
+     *                   shared variables
+     */
+    CompiledPatch(Patch patch, List<CompiledRule> rules, List<CompiledHunk> hunks, Map<String, Rule> ruleByName,
+            LiteralPrefilter prefilter, SearchPlan searchPlan, Charset charset, boolean byteViewEnabled,
+            boolean crLfOnly, MatchingEngine engine, Map<String, String> sharedVariables,
+            List<FileReport> captureReports) {
+        this.patch = patch;
+        this.rules = rules;
+        this.hunks = hunks;
+        this.ruleByName = ruleByName;
+        this.prefilter = prefilter;
+        this.charset = charset;
+        this.byteViewEnabled = byteViewEnabled;
+        this.crLfOnly = crLfOnly;
+        this.engine = engine;
+        this.contentIndexed = engine == MatchingEngine.LINEAR && Stream
+                .concat(rules.stream().map(CompiledRule::getLinearPattern),
+                        hunks.stream().map(CompiledHunk::getLinearPattern))
+                .filter(LinearPattern::isIndexable).count() >= MIN_INDEXABLE_PATTERN_NB;
+        this.sharedVariables = sharedVariables;
+        this.captureReports = captureReports;
+        this.searchPlan = searchPlan;
+        this.idleMatches = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @param charset the charset of the files to patch
+     * @param engine  the engine matching the rules and hunks, only the patterns
+     *                of the regex engine are compiled as regexes
+     */
+    public static CompiledPatch compile(Patch patch, Charset charset, MatchingEngine engine) {
+        return compile(patch, charset, engine, isByteViewSupported(patch, charset));
+    }
+
+    /**
+     * Compiles patches applied one after the other to the same contents. They
+     * all match over the same view of the files, the byte view being enabled
+     * only if every patch supports it, so that the replacements of a patch
+     * apply to the content produced by the previous one.
+     *
+     * @return the compiled patches, in the same order
+     */
+    public static List<CompiledPatch> compile(List<Patch> patches, Charset charset, MatchingEngine engine) {
+        boolean byteViewEnabled = patches.stream().allMatch(patch -> isByteViewSupported(patch, charset));
+
+        return patches.stream().map(patch -> compile(patch, charset, engine, byteViewEnabled))
+                .collect(Collectors.toList());
+    }
+
+    private static CompiledPatch compile(Patch patch, Charset charset, MatchingEngine engine,
+            boolean byteViewEnabled) {
+        Map<String, Rule> ruleByName = new HashMap<>();
+        patch.getRules().forEach(rule -> ruleByName.putIfAbsent(rule.getName(), rule));
+
+        Charset byteViewCharset = byteViewEnabled ? charset : null;
+        boolean crLfOnly = byteViewEnabled && !charset.equals(StandardCharsets.ISO_8859_1);
+        boolean regexEnabled = engine == MatchingEngine.REGEX;
+
+        List<CompiledRule> rules = patch.getRules().stream()
+                .map(rule -> compileRule(rule, byteViewCharset, crLfOnly, regexEnabled)).collect(Collectors.toList());
+        List<CompiledHunk> hunks = patch.getHunks().stream()
+                .map(hunk -> compileHunk(hunk, ruleByName, byteViewCharset, crLfOnly, regexEnabled))
+                .collect(Collectors.toList());
+
+        Charset contentCharset = byteViewEnabled ? StandardCharsets.ISO_8859_1 : charset;
+        return new CompiledPatch(patch, Collections.unmodifiableList(rules), Collections.unmodifiableList(hunks),
+                Collections.unmodifiableMap(ruleByName), createPrefilter(rules, hunks, contentCharset),
+                new SearchPlan(rules, hunks), charset, byteViewEnabled, crLfOnly, engine, Collections.emptyMap(),
+                Collections.emptyList());
+    }
+
+    /**
+     * Translates a patch text into a regex: whitespaces match any amount of
+     * whitespaces, macros are replaced by the given regexes and everything else
+     * is matched literally.
+     */
+    static String toRegex(String text, String ellipsisRegex, String capturingVariableRegex,
+            String capturedVariableRegex) {
+        StringBuilder regex = new StringBuilder();
+        Matcher macroMatcher = MACRO_REGEX.matcher(text);
+        int literalStart = 0;
+        while (macroMatcher.find()) {
+            appendLiteral(regex, text.substring(literalStart, macroMatcher.start()));
+            if (macroMatcher.group(1) != null) {
+                regex.append(WHITESPACES_REGEX);
+            } else if (macroMatcher.group(2) != null) {
+                regex.append(ellipsisRegex);
+            } else if (macroMatcher.group(3) != null) {
+                regex.append(capturingVariableRegex);
+            } else {
+                regex.append(capturedVariableRegex);
+            }
+            literalStart = macroMatcher.end();
+        }
+        appendLiteral(regex, text.substring(literalStart));
+
+        String escapedText = StringUtils.addPrefixIfNotPresent(regex.toString(), WHITESPACES_REGEX);
+        return StringUtils.addSuffixIfNotPresent(escapedText, WHITESPACES_REGEX);
+    }
+
+    /**
+     * @return the longest text matched literally by the given patch text, or
+     *         {@code null} if it only contains whitespaces and macros
+     */
+    static String findAnchor(String text) {
+        String anchor = null;
+        Matcher macroMatcher = MACRO_REGEX.matcher(text);
+        int literalStart = 0;
+        boolean macroFound;
+        do {
+            macroFound = macroMatcher.find();
+            int literalEnd = macroFound ? macroMatcher.start() : text.length();
+            if (literalEnd - literalStart > (anchor == null ? 0 : anchor.length())) {
+                anchor = text.substring(literalStart, literalEnd);
+            }
+            literalStart = macroFound ? macroMatcher.end() : literalEnd;
+        } while (macroFound);
+
+        return anchor;
+    }
+
+    /**
+     * Builds the {@link LinearPattern} equivalent to the regex built by
+     * {@link #toRegex(String, String, String, String)}.
+     *
+     * @param capturingEllipses      whether ellipses are captured in numbered
+     *                               groups
+     * @param capturingVariableGroup the group capturing the {@code @<>@} macro,
+     *                               or {@code null} to match it literally
+     */
+    static LinearPattern toLinearPattern(String text, boolean crLfOnly, boolean capturingEllipses,
+            String capturingVariableGroup) {
+        LinearPattern.Builder builder = LinearPattern.builder(crLfOnly);
+        Matcher macroMatcher = MACRO_REGEX.matcher(text);
+        int literalStart = 0;
+        boolean whitespacesFirst = macroMatcher.lookingAt() && macroMatcher.group(1) != null;
+        boolean whitespacesLast = false;
+        if (!whitespacesFirst) {
+            builder.whitespaces();
+        }
+        macroMatcher.reset();
+        while (macroMatcher.find()) {
+            builder.literal(text.substring(literalStart, macroMatcher.start()));
+            whitespacesLast = macroMatcher.group(1) != null && macroMatcher.end() == text.length();
+            if (macroMatcher.group(1) != null) {
+                builder.whitespaces();
+            } else if (macroMatcher.group(2) != null) {
+                builder.ellipsis(capturingEllipses);
+            } else if (macroMatcher.group(3) != null) {
+                if (capturingVariableGroup == null) {
+                    builder.literal(Patch.CAPTURING_VARIABLE_MACRO);
+                } else {
+                    builder.startGroup(capturingVariableGroup).text().endGroup(capturingVariableGroup);
+                }
+            } else {
+                builder.text();
+            }
+            literalStart = macroMatcher.end();
+        }
+        builder.literal(text.substring(literalStart));
+        if (!whitespacesLast) {
+            builder.whitespaces();
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Matches the rules naming a file against that file, once for all the
+     * files of a run. A file is read again by each run, so that its changes
+     * are seen.
+     *
+     * @param patchDirectory the directory the files are relative to
+     * @return a patch using the first capture of each of these rules in every
+     *         file, or this patch if it has no such rule
+     */
+    public CompiledPatch captureSharedRules(Path patchDirectory) throws IOException {
+        if (rules.stream().allMatch(compiledRule -> compiledRule.getRule().getFilename() == null)) {
+            return this;
+        }
+
+        Map<String, String> variables = new HashMap<>();
+        Map<Path, List<Log>> logsByPath = new HashMap<>();
+        for (CompiledRule compiledRule : rules) {
+            Rule rule = compiledRule.getRule();
+            if (rule.getFilename() == null) {
+                continue;
+            }
+
+            Path path = patchDirectory.resolve(rule.getFilename());
+            ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+            CharSequence content = byteViewEnabled ? new ByteCharSequence(bytes) : charset.decode(bytes);
+            List<String> captures = new ArrayList<>();
+            if (engine == MatchingEngine.REGEX) {
+                Matcher matcher = compiledRule.getPattern().matcher(content);
+                while (matcher.find()) {
+                    if (matcher.start(rule.getId()) != -1) {
+                        captures.add(matcher.group(rule.getId()));
+                    }
+                }
+            } else {
+                LinearPattern.Matcher matcher = compiledRule.getLinearPattern().matcher(content);
+                while (matcher.find()) {
+                    if (matcher.start(rule.getId()) != -1) {
+                        captures.add(matcher.group(rule.getId()));
+                    }
+                }
+            }
+
+            List<Log> logs = logsByPath.computeIfAbsent(path, key -> new ArrayList<>());
+            if (captures.isEmpty()) {
+                logs.add(new Log(LogLevel.INFO, new StringBuilder().append("File ").append(path.toString())
+                        .append(": Missing variable '").append(rule.getName()).append("'").toString()));
+            } else {
+                variables.put(rule.getId(), captures.get(0));
+                if (captures.size() > 1) {
+                    logs.add(new Log(LogLevel.INFO, new StringBuilder().append("File ").append(path.toString())
+                            .append(": Variable '").append(rule.getName()).append("' has multiple definitions")
+                            .toString()));
+                }
+            }
+        }
+
+        List<FileReport> reports = new ArrayList<>();
+        logsByPath.forEach((path, logs) -> reports.add(new FileReport(path, logs, Collections.emptyList())));
+
+        return new CompiledPatch(patch, rules, hunks, ruleByName, prefilter, searchPlan.bind(rules, variables), charset,
+                byteViewEnabled, crLfOnly, engine, Collections.unmodifiableMap(variables),
+                Collections.unmodifiableList(reports));
+    }
+
+    /**
+     * Compiles a text of the patch in which variables have been replaced by
+     * their captured values, to be matched against a whole snippet.
+     */
+    LinearPattern compileText(String text) {
+        return toLinearPattern(text, crLfOnly, false, null);
+    }
+
+    /**
+     * @return matches owned by the caller until they are given back, there
+     *         are at most as many as files matched at once
+     */
+    PatchMatches borrowMatches() {
+        PatchMatches matches = idleMatches.poll();
+
+        return matches != null ? matches : new PatchMatches(this);
+    }
+
+    void giveBack(PatchMatches matches) {
+        matches.clear(null);
+        idleMatches.add(matches);
+    }
+
+    private static String anyTextRegex(boolean crLfOnly) {
+        return new StringBuilder().append(crLfOnly ? ANY_BYTE_REGEX : ANY_CHAR_REGEX).append("+").toString();
+    }
+
+    private static void appendLiteral(StringBuilder regex, String literal) {
+        if (!literal.isEmpty()) {
+            regex.append(Pattern.quote(literal));
+        }
+    }
+
+    /**
+     * @param initialText the initial text of the hunk, as matched in the
+     *                    content
+     * @return the regex of the hunk for the regex engine
+     */
+    static Pattern compileHunkRegex(Hunk hunk, String initialText, boolean crLfOnly) {
+        String regex = toRegex(initialText, ellipsisRegex(crLfOnly, false), CAPTURING_VARIABLE_LITERAL,
+                anyTextRegex(crLfOnly));
+
+        return Pattern.compile(new StringBuilder().append("(?<").append(hunk.getId()).append(">").append(regex)
+                .append(")").toString());
+    }
+
+    /**
+     * @param text the text of the rule, as matched in the content
+     * @return the regex of the rule for the regex engine
+     */
+    static Pattern compileRuleRegex(Rule rule, String text, boolean crLfOnly) {
+        String capturingRegex = new StringBuilder().append("(?<").append(rule.getId()).append(">")
+                .append(anyTextRegex(crLfOnly)).append(")").toString();
+
+        return Pattern.compile(toRegex(text, ellipsisRegex(crLfOnly, false), capturingRegex, anyTextRegex(crLfOnly)));
+    }
+
+    private static CompiledHunk compileHunk(Hunk hunk, Map<String, Rule> ruleByName, Charset byteViewCharset,
+            boolean crLfOnly, boolean regexEnabled) {
+        String initialText = toContentText(hunk.getInitialLines(), byteViewCharset);
+        String finalText = toContentText(hunk.getFinalLines(), byteViewCharset);
+
+        Pattern pattern = regexEnabled ? compileHunkRegex(hunk, initialText, crLfOnly) : null;
+        // The whole match is the snippet of the hunk
+        LinearPattern linearPattern = toLinearPattern(initialText, crLfOnly, false, null);
+
+        LinearPattern ellipsisPattern = null;
+        if (finalText.contains(Patch.ELLIPSIS_MACRO)) {
+            ellipsisPattern = toLinearPattern(initialText, crLfOnly, true, null);
+        }
+
+        String anchor = findAnchor(initialText);
+        return new CompiledHunk(hunk, () -> initialText, () -> finalText, pattern, linearPattern, ellipsisPattern,
+                findVariableReferences(initialText, ruleByName), findVariableReferences(finalText, ruleByName),
+                () -> anchor);
+    }
+
+    private static CompiledRule compileRule(Rule rule, Charset byteViewCharset, boolean crLfOnly,
+            boolean regexEnabled) {
+        String text = toContentText(rule.getLines(), byteViewCharset);
+
+        Pattern pattern = regexEnabled ? compileRuleRegex(rule, text, crLfOnly) : null;
+        String anchor = findAnchor(text);
+
+        return new CompiledRule(rule, () -> text, pattern, toLinearPattern(text, crLfOnly, false, rule.getId()),
+                () -> anchor);
+    }
+
+    /**
+     * @param contentCharset the charset mapping the matched characters to the
+     *                       bytes of the files
+     */
+    private static LiteralPrefilter createPrefilter(List<CompiledRule> rules, List<CompiledHunk> hunks,
+            Charset contentCharset) {
+        Map<String, String> anchorByRuleId = new HashMap<>();
+        // Rules naming a file are not matched in the files to patch
+        rules.stream()
+                .filter(compiledRule -> compiledRule.getAnchor() != null
+                        && compiledRule.getRule().getFilename() == null)
+                .forEach(compiledRule -> anchorByRuleId.put(compiledRule.getRule().getId(),
+                        compiledRule.getAnchor()));
+
+        // A hunk applies only if its initial text and all the rules it uses match
+        List<Set<String>> requiredAnchors = hunks.stream().map(compiledHunk -> {
+            Set<String> anchors = new HashSet<>();
+            if (compiledHunk.getAnchor() != null) {
+                anchors.add(compiledHunk.getAnchor());
+            }
+            Stream.concat(compiledHunk.getInitialVariables().stream(), compiledHunk.getFinalVariables().stream())
+                    .map(variable -> anchorByRuleId.get(variable.getRule().getId())).filter(Objects::nonNull)
+                    .forEach(anchors::add);
+
+            return anchors;
+        }).collect(Collectors.toList());
+
+        return new LiteralPrefilter(requiredAnchors, contentCharset);
+    }
+
+    private static String ellipsisRegex(boolean crLfOnly, boolean capturing) {
+        String regex = new StringBuilder().append(crLfOnly ? ANY_BYTE_REGEX : ANY_CHAR_REGEX).append("*?").toString();
+
+        return capturing ? new StringBuilder().append("(").append(regex).append(")").toString() : regex;
+    }
+
+    private static List<VariableReference> findVariableReferences(String text, Map<String, Rule> ruleByName) {
+        List<VariableReference> variables = new ArrayList<>();
+        Matcher variableMatcher = Patch.CAPTURED_VARIABLE_REGEX.matcher(text);
+        while (variableMatcher.find()) {
+            variables.add(new VariableReference(ruleByName.get(variableMatcher.group(1)), variableMatcher.start(),
+                    variableMatcher.end()));
+        }
+
+        return Collections.unmodifiableList(variables);
+    }
+
+    private static boolean isAscii(String text) {
+        return text.chars().allMatch(c -> c < 0x80);
+    }
+
+    /**
+     * Literals must match the same bytes in the byte view as in the decoded
+     * content, and the replacements must be encodable.
+     */
+    private static boolean isByteViewSupported(Patch patch, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder();
+        Predicate<String> isMatchable;
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            isMatchable = CompiledPatch::isAscii;
+        } else if (charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII)) {
+            isMatchable = encoder::canEncode;
+        } else {
+            return false;
+        }
+
+        return Stream.concat(patch.getHunks().stream().flatMap(hunk -> hunk.getInitialLines().stream()),
+                patch.getRules().stream().flatMap(rule -> rule.getLines().stream())).allMatch(isMatchable)
+                && patch.getHunks().stream().flatMap(hunk -> hunk.getFinalLines().stream())
+                        .allMatch(encoder::canEncode);
+    }
+
+    /**
+     * @param byteViewCharset the charset of the files if they are matched
+     *                        through a byte view, {@code null} otherwise
+     * @return the joined lines, as characters of their encoded bytes in a byte
+     *         view
+     */
+    private static String toContentText(List<String> lines, Charset byteViewCharset) {
+        String text = lines.stream().collect(Collectors.joining("\n"));
+
+        return byteViewCharset == null ? text
+                : new String(text.getBytes(byteViewCharset), StandardCharsets.ISO_8859_1);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return the logs of the files the rules naming one were matched
+     *         against, if any
+     */
+    public List<FileReport> getCaptureReports() {
+        return captureReports;
+    }
+
+    /**
+     * @return the charset of the files to patch
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the charset mapping the matched characters, including the
+     *         replacements, to the bytes of the files
+     */
+    public Charset getContentCharset() {
+        return byteViewEnabled ? StandardCharsets.ISO_8859_1 : charset;
+    }
+
+    public MatchingEngine getEngine() {
+        return engine;
+    }
+
+    public List<CompiledHunk> getHunks() {
+        return hunks;
+    }
+
+    public LiteralPrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    public Patch getPatch() {
+        return patch;
+    }
+
+    public Rule getRule(String name) {
+        return ruleByName.get(name);
+    }
+
+    public List<CompiledRule> getRules() {
+        return rules;
+    }
+
+    SearchPlan getSearchPlan() {
+        return searchPlan;
+    }
+
+    /**
+     * @return the first capture of each rule naming a file, by rule id, once
+     *         {@link #captureSharedRules(Path)} matched them
+     */
+    public Map<String, String> getSharedVariables() {
+        return sharedVariables;
+    }
+
+    /**
+     * @return {@code true} if files are matched through a
+     *         {@link com.yac.gpatch.util.ByteCharSequence} instead of being
+     *         decoded
+     */
+    public boolean isByteViewEnabled() {
+        return byteViewEnabled;
+    }
+
+    /**
+     * @return {@code true} if enough patterns start with a literal for a
+     *         {@link ContentIndex} of each file to pay off
+     */
+    public boolean isContentIndexed() {
+        return contentIndexed;
+    }
+
+}
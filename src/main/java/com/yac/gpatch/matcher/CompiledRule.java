@@ -0,0 +1,58 @@
+package com.yac.gpatch.matcher;
+
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import com.yac.gpatch.model.Rule;
+
+public class CompiledRule {
+
+    private final Rule rule;
+    // Decoded on first use when read from a binary patch file
+    private final Supplier<String> text;
+    private final Pattern pattern;
+    private final LinearPattern linearPattern;
+    private final Supplier<String> anchor;
+
+    CompiledRule(Rule rule, Supplier<String> text, Pattern pattern, LinearPattern linearPattern,
+            Supplier<String> anchor) {
+        this.rule = rule;
+        this.text = text;
+        this.pattern = pattern;
+        this.linearPattern = linearPattern;
+        this.anchor = anchor;
+    }
+
+    /**
+     * @return the longest literal every match contains, or {@code null} if the
+     *         rule has no literal
+     */
+    public String getAnchor() {
+        return anchor.get();
+    }
+
+    /**
+     * @return the pattern capturing the text of the rule in a group named
+     *         after its id
+     */
+    public LinearPattern getLinearPattern() {
+        return linearPattern;
+    }
+
+    /**
+     * @return the regex of the rule, or {@code null} if the patch is not
+     *         compiled for the regex engine
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    public String getText() {
+        return text.get();
+    }
+
+}
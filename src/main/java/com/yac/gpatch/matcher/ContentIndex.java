@@ -0,0 +1,132 @@
+package com.yac.gpatch.matcher;
+
+import java.util.Arrays;
+
+/**
+ * Index of a file content built once and shared by all the rules and hunks
+ * matched on it.
+ *
+ * Whitespaces are left out: the index holds the positions of the pairs of
+ * adjacent non-whitespace characters, grouped by hash into a compact
+ * bucketed array. A literal of a patch never contains whitespaces, so a
+ * pattern starting with a literal of at least two characters can only match
+ * around the positions of any of its pairs. It walks the smallest of their
+ * buckets instead of scanning the content again, which skips most of the
+ * content when the literal holds an uncommon pair.
+ *
+ * An index can be rebuilt for the next content in the arrays of the last one.
+ */
+public class ContentIndex {
+
+    // Enough for the pairs of ASCII characters, whose hashes are below 4096
+    private static final int BUCKET_NB = 4096;
+    private static final int MASK = BUCKET_NB - 1;
+    // Larger contents are scanned, the index would take eight times their size
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+
+    private final int[] bucketStarts;
+    private final int[] bucketEnds;
+    // Bucket of the pair starting at each position, or -1
+    private int[] buckets;
+    private int[] positions;
+
+    private ContentIndex() {
+        this.bucketStarts = new int[BUCKET_NB + 1];
+        this.bucketEnds = new int[BUCKET_NB];
+        this.buckets = new int[0];
+        this.positions = new int[0];
+    }
+
+    /**
+     * @return the index of the content, or {@code null} if it is too large
+     */
+    public static ContentIndex build(CharSequence content) {
+        return build(content, null);
+    }
+
+    /**
+     * @param reused an index of a former content whose arrays are reused, or
+     *               {@code null}
+     * @return the index of the content, or {@code null} if it is too large
+     */
+    static ContentIndex build(CharSequence content, ContentIndex reused) {
+        if (content.length() > MAX_CONTENT_LENGTH) {
+            return null;
+        }
+
+        ContentIndex index = reused != null ? reused : new ContentIndex();
+        index.fill(content);
+
+        return index;
+    }
+
+    /**
+     * @return the bucket of the positions of the given pair
+     */
+    int getBucket(int first, int second) {
+        return hash(first, second);
+    }
+
+    int getBucketEnd(int bucket) {
+        return bucketStarts[bucket + 1];
+    }
+
+    int getBucketStart(int bucket) {
+        return bucketStarts[bucket];
+    }
+
+    /**
+     * @param i an index between the start and the end of a bucket
+     */
+    int getPosition(int i) {
+        return positions[i];
+    }
+
+    private void fill(CharSequence content) {
+        int length = content.length();
+        if (buckets.length < length) {
+            buckets = new int[length];
+        }
+        Arrays.fill(bucketStarts, 0);
+
+        // The bucket of each pair is computed once, since reading the content is the costly part
+        int pairNb = 0;
+        int second = length > 0 ? content.charAt(0) : 0;
+        for (int i = 0; i + 1 < length; i++) {
+            int first = second;
+            second = content.charAt(i + 1);
+            if (LinearPattern.isWhitespace(first) || LinearPattern.isWhitespace(second)) {
+                buckets[i] = -1;
+            } else {
+                int bucket = hash(first, second);
+                buckets[i] = bucket;
+                bucketStarts[bucket + 1]++;
+                pairNb++;
+            }
+        }
+        if (length > 0) {
+            buckets[length - 1] = -1;
+        }
+        for (int bucket = 0; bucket < BUCKET_NB; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+
+        // Counting sort of the positions by bucket, which keeps each bucket sorted
+        if (positions.length < pairNb) {
+            positions = new int[pairNb];
+        }
+        System.arraycopy(bucketStarts, 0, bucketEnds, 0, BUCKET_NB);
+        for (int i = 0; i < length; i++) {
+            if (buckets[i] != -1) {
+                positions[bucketEnds[buckets[i]]++] = i;
+            }
+        }
+    }
+
+    private static int hash(int first, int second) {
+        int hash = first * 31 + second;
+
+        return (hash ^ (hash >>> 12)) & MASK;
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.yac.gpatch.matcher;
+
+import java.util.List;
+import java.util.Map;
+
+import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.model.Snippet;
+import com.yac.gpatch.util.StringUtils;
+
+/**
+ * Generates the replacements of the matches of a hunk in a content.
+ *
+ * The variables captured in a content are the same for all the matches of the
+ * hunk, so the final text with its variables replaced is built once per
+ * content, and shared by the replacements without ellipsis. A replacer is
+ * reused from content to content along with its matchers and buffer.
+ */
+class HunkReplacer {
+
+    private final CompiledPatch compiledPatch;
+    private final CompiledHunk compiledHunk;
+    private final LinearPattern.Matcher ellipsisMatcher;
+    private final StringBuilder builder;
+
+    // The final text with the variables of the content replaced, and the
+    // replacement text of a match without ellipsis
+    private String replacingText;
+    private String lineReplacingText;
+    // Matches the initial text with its variables replaced, or null
+    private LinearPattern.Matcher initialTextMatcher;
+
+    HunkReplacer(CompiledPatch compiledPatch, CompiledHunk compiledHunk) {
+        this.compiledPatch = compiledPatch;
+        this.compiledHunk = compiledHunk;
+        this.ellipsisMatcher = compiledHunk.getEllipsisPattern() == null ? null
+                : compiledHunk.getEllipsisPattern().matcher("");
+        this.builder = new StringBuilder();
+    }
+
+    /**
+     * Forgets the variables of the last content, and any reference to it.
+     */
+    void clear() {
+        replacingText = null;
+        lineReplacingText = null;
+        initialTextMatcher = null;
+        if (ellipsisMatcher != null) {
+            ellipsisMatcher.reset("");
+        }
+    }
+
+    /**
+     * @param variables the first capture of each rule in the content, which
+     *                  must include all the variables of the hunk
+     */
+    void prepare(Map<String, ? extends CharSequence> variables) {
+        replacingText = replaceVariables(compiledHunk.getFinalText(), compiledHunk.getFinalVariables(), variables);
+        lineReplacingText = toLines(replacingText);
+        initialTextMatcher = compiledHunk.getInitialVariables().isEmpty() ? null
+                : compiledPatch.compileText(replaceVariables(compiledHunk.getInitialText(),
+                        compiledHunk.getInitialVariables(), variables)).matcher("");
+    }
+
+    /**
+     * Adds the replacements of the matches whose text matches the initial text
+     * of the hunk with its variables replaced.
+     */
+    void replace(MatchList hunkMatches, List<Snippet> replacingSnippets) {
+        for (int i = 0; i < hunkMatches.size(); i++) {
+            CharSequence matchingText = hunkMatches.getText(i);
+            if (initialTextMatcher == null || initialTextMatcher.reset(matchingText).matches()) {
+                replacingSnippets.add(replace(matchingText, hunkMatches.getStart(i), hunkMatches.getEnd(i)));
+            }
+        }
+    }
+
+    /**
+     * @return the replacement of the given match, once the replacer is
+     *         prepared
+     */
+    Snippet replace(CharSequence matchingText, int start, int end) {
+        if (ellipsisMatcher == null || !ellipsisMatcher.reset(matchingText).matches()) {
+            return new Snippet(lineReplacingText, start, end);
+        }
+
+        builder.setLength(0);
+        int textPosition = 0;
+        for (int i = 1; i <= ellipsisMatcher.groupCount(); i++) {
+            int ellipsisIndex = replacingText.indexOf(Patch.ELLIPSIS_MACRO, textPosition);
+            if (ellipsisIndex == -1) {
+                break;
+            }
+            builder.append(replacingText, textPosition, ellipsisIndex);
+            if (ellipsisMatcher.start(i) != -1) {
+                builder.append(matchingText, ellipsisMatcher.start(i), ellipsisMatcher.end(i));
+            }
+            textPosition = ellipsisIndex + Patch.ELLIPSIS_MACRO.length();
+        }
+        builder.append(replacingText, textPosition, replacingText.length());
+
+        return new Snippet(toLines(builder.toString()), start, end);
+    }
+
+    private String replaceVariables(String text, List<VariableReference> references,
+            Map<String, ? extends CharSequence> variables) {
+        if (references.isEmpty()) {
+            return text;
+        }
+
+        builder.setLength(0);
+        int textPosition = 0;
+        for (VariableReference reference : references) {
+            builder.append(text, textPosition, reference.getStart())
+                    .append(variables.get(reference.getRule().getId()));
+            textPosition = reference.getEnd();
+        }
+
+        return builder.append(text, textPosition, text.length()).toString();
+    }
+
+    private static String toLines(String text) {
+        return StringUtils.addSuffixIfNotPresent(StringUtils.addPrefixIfNotPresent(text, "\n"), "\n");
+    }
+
+}
@@ -0,0 +1,722 @@
+package com.yac.gpatch.matcher;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pattern of the patch language matched in linear time.
+ *
+ * A patch text only translates into literals, whitespace runs, ellipses and
+ * variables matching the rest of a line, which {@link java.util.regex} matches
+ * by backtracking: a line with several ellipses can take a time exponential
+ * in their number. This pattern is compiled into a small program run by a
+ * Pike VM instead: all the alternatives are followed at once, one character
+ * at a time, and ordered by priority so that the matches and groups are the
+ * same as the ones of the equivalent regex.
+ */
+public class LinearPattern {
+
+    private static final int CHAR = 0;
+    private static final int WHITESPACE = 1;
+    private static final int ANY = 2;
+    private static final int SPLIT = 3;
+    private static final int JUMP = 4;
+    private static final int SAVE = 5;
+    private static final int MATCH = 6;
+
+    private final int[] opcodes;
+    private final int[] arguments;
+    private final int[] alternatives;
+    private final boolean crLfOnly;
+    private final int groupCount;
+    private final Map<String, Integer> groupIndexes;
+    // Literal starting every match after leading whitespaces, possibly empty
+    private final int[] prefix;
+
+    private LinearPattern(int[] opcodes, int[] arguments, int[] alternatives, boolean crLfOnly, int groupCount,
+            Map<String, Integer> groupIndexes) {
+        this.opcodes = opcodes;
+        this.arguments = arguments;
+        this.alternatives = alternatives;
+        this.crLfOnly = crLfOnly;
+        this.groupCount = groupCount;
+        this.groupIndexes = groupIndexes;
+        this.prefix = findPrefix();
+    }
+
+    /**
+     * @param crLfOnly whether only CR and LF end a line, as in a byte view of
+     *                 a multi-byte charset
+     */
+    static Builder builder(boolean crLfOnly) {
+        return new Builder(crLfOnly);
+    }
+
+    public Matcher matcher(CharSequence text) {
+        return new Matcher(this, text, null);
+    }
+
+    /**
+     * @param index the index of the text, or {@code null} to scan it
+     */
+    public Matcher matcher(CharSequence text, ContentIndex index) {
+        return new Matcher(this, text, index);
+    }
+
+    /**
+     * Reads a pattern written by {@link #write(DataOutputStream)}.
+     *
+     * @throws IllegalArgumentException if the program is not valid
+     */
+    static LinearPattern read(ByteBuffer buffer) {
+        int[] opcodes = BinaryPatchFile.readInts(buffer, MATCH + 1);
+        int[] arguments = BinaryPatchFile.readInts(buffer, Integer.MAX_VALUE);
+        int[] alternatives = BinaryPatchFile.readInts(buffer, Integer.MAX_VALUE);
+        boolean crLfOnly = buffer.get() != 0;
+        int groupCount = buffer.getInt();
+        int groupNb = BinaryPatchFile.readCount(buffer);
+        Map<String, Integer> groupIndexes = new HashMap<>();
+        for (int i = 0; i < groupNb; i++) {
+            String name = BinaryPatchFile.readString(buffer);
+            int group = buffer.getInt();
+            if (group < 1 || group > groupCount) {
+                throw new IllegalArgumentException("Invalid pattern group");
+            }
+            groupIndexes.put(name, group);
+        }
+
+        // Every jump and save of the program must stay in bounds
+        int size = opcodes.length;
+        boolean valid = size > 0 && arguments.length == size && alternatives.length == size
+                && opcodes[size - 1] == MATCH && groupCount >= 0;
+        for (int pc = 0; pc < size && valid; pc++) {
+            if (opcodes[pc] == SPLIT) {
+                valid = arguments[pc] < size && alternatives[pc] < size;
+            } else if (opcodes[pc] == JUMP) {
+                valid = arguments[pc] < size;
+            } else if (opcodes[pc] == SAVE) {
+                valid = arguments[pc] < 2 * groupCount + 2;
+            }
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid pattern program");
+        }
+
+        return new LinearPattern(opcodes, arguments, alternatives, crLfOnly, groupCount, groupIndexes);
+    }
+
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @return {@code true} if the matches of the pattern can be searched
+     *         through a {@link ContentIndex}
+     */
+    boolean isIndexable() {
+        return prefix.length >= 2;
+    }
+
+    /**
+     * Writes the program of the pattern, to be read back by
+     * {@link #read(ByteBuffer)}.
+     */
+    void write(DataOutputStream output) throws IOException {
+        BinaryPatchFile.writeInts(output, opcodes);
+        BinaryPatchFile.writeInts(output, arguments);
+        BinaryPatchFile.writeInts(output, alternatives);
+        output.writeBoolean(crLfOnly);
+        output.writeInt(groupCount);
+        output.writeInt(groupIndexes.size());
+        for (Map.Entry<String, Integer> group : groupIndexes.entrySet()) {
+            BinaryPatchFile.writeText(output, group.getKey());
+            output.writeInt(group.getValue());
+        }
+    }
+
+    private int[] findPrefix() {
+        int pc = 0;
+        while (opcodes[pc] == SAVE) {
+            pc++;
+        }
+        // Leading whitespace loops
+        while (opcodes[pc] == SPLIT && opcodes[pc + 1] == WHITESPACE && opcodes[pc + 2] == JUMP
+                && arguments[pc + 2] == pc) {
+            pc += 3;
+            while (opcodes[pc] == SAVE) {
+                pc++;
+            }
+        }
+
+        int prefixEnd = pc;
+        while (opcodes[prefixEnd] == CHAR) {
+            prefixEnd++;
+        }
+
+        return Arrays.copyOfRange(arguments, pc, prefixEnd);
+    }
+
+    private boolean isLineCharacter(int c) {
+        if (crLfOnly) {
+            return c != '\n' && c != '\r';
+        }
+
+        return c != '\n' && c != '\r' && c != 0x85 && c != 0x2028 && c != 0x2029;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Builds the program of a pattern, element by element.
+     */
+    static class Builder {
+
+        private final boolean crLfOnly;
+        private final List<int[]> instructions;
+        private final Map<String, Integer> groupIndexes;
+        private int groupCount;
+
+        private Builder(boolean crLfOnly) {
+            this.crLfOnly = crLfOnly;
+            this.instructions = new ArrayList<>();
+            this.groupIndexes = new HashMap<>();
+            add(SAVE, 0, 0);
+        }
+
+        /**
+         * Matches the rest of the line lazily, like {@code .*?}.
+         *
+         * @param capturing whether to capture the matched text in a numbered
+         *                  group
+         */
+        Builder ellipsis(boolean capturing) {
+            int group = capturing ? ++groupCount : 0;
+            if (capturing) {
+                add(SAVE, 2 * group, 0);
+            }
+            int loop = instructions.size();
+            add(SPLIT, loop + 3, loop + 1);
+            add(ANY, 0, 0);
+            add(JUMP, loop, 0);
+            if (capturing) {
+                add(SAVE, 2 * group + 1, 0);
+            }
+
+            return this;
+        }
+
+        /**
+         * Starts a named group, ended by {@link #endGroup(String)}.
+         */
+        Builder startGroup(String name) {
+            if (groupIndexes.containsKey(name)) {
+                throw new IllegalArgumentException(
+                        new StringBuilder().append("Duplicate group name ").append(name).toString());
+            }
+            groupIndexes.put(name, ++groupCount);
+            add(SAVE, 2 * groupCount, 0);
+
+            return this;
+        }
+
+        Builder endGroup(String name) {
+            add(SAVE, 2 * groupIndexes.get(name) + 1, 0);
+
+            return this;
+        }
+
+        Builder literal(String literal) {
+            literal.chars().forEach(c -> add(CHAR, c, 0));
+
+            return this;
+        }
+
+        /**
+         * Matches the rest of the line greedily, like {@code .+}.
+         */
+        Builder text() {
+            int loop = instructions.size();
+            add(ANY, 0, 0);
+            add(SPLIT, loop, loop + 2);
+
+            return this;
+        }
+
+        /**
+         * Matches a run of whitespaces greedily, like {@code \s*}.
+         */
+        Builder whitespaces() {
+            int loop = instructions.size();
+            add(SPLIT, loop + 1, loop + 3);
+            add(WHITESPACE, 0, 0);
+            add(JUMP, loop, 0);
+
+            return this;
+        }
+
+        LinearPattern build() {
+            add(SAVE, 1, 0);
+            add(MATCH, 0, 0);
+
+            int size = instructions.size();
+            int[] opcodes = new int[size];
+            int[] arguments = new int[size];
+            int[] alternatives = new int[size];
+            for (int pc = 0; pc < size; pc++) {
+                opcodes[pc] = instructions.get(pc)[0];
+                arguments[pc] = instructions.get(pc)[1];
+                alternatives[pc] = instructions.get(pc)[2];
+            }
+
+            return new LinearPattern(opcodes, arguments, alternatives, crLfOnly, groupCount,
+                    new HashMap<>(groupIndexes));
+        }
+
+        private void add(int opcode, int argument, int alternative) {
+            instructions.add(new int[] { opcode, argument, alternative });
+        }
+
+    }
+
+    /**
+     * Finds the matches of a pattern in a text, with the same semantics as
+     * {@link java.util.regex.Matcher#find()} and
+     * {@link java.util.regex.Matcher#matches()}.
+     */
+    public static class Matcher {
+
+        private final LinearPattern pattern;
+
+        private CharSequence text;
+        private ContentIndex index;
+        private ThreadList currentThreads;
+        private ThreadList nextThreads;
+        private int searchStart;
+        // Position from which no match may start anymore
+        private int startLimit;
+        private int[] groups;
+        // Earliest start of a match the end of the text cut short, or -1
+        private int pendingStart;
+        // Next position in the index of the rarest pair of the prefix, found at
+        // the given offset of the prefix
+        private int candidate;
+        private int candidateEnd;
+        private int candidateOffset;
+
+        private Matcher(LinearPattern pattern, CharSequence text, ContentIndex index) {
+            this.pattern = pattern;
+            this.currentThreads = new ThreadList(pattern.opcodes.length);
+            this.nextThreads = new ThreadList(pattern.opcodes.length);
+            reset(text, index);
+        }
+
+        public int end(int group) {
+            checkGroup(group);
+
+            return groups[2 * group + 1];
+        }
+
+        public int end(String name) {
+            return end(getGroupIndex(name));
+        }
+
+        /**
+         * Searches the next match, from the end of the previous one.
+         */
+        public boolean find() {
+            if (searchStart > text.length()) {
+                groups = null;
+                pendingStart = -1;
+                return false;
+            }
+
+            groups = run(searchStart, false);
+            if (groups != null) {
+                searchStart = groups[1] == groups[0] ? groups[1] + 1 : groups[1];
+            } else {
+                searchStart = text.length() + 1;
+            }
+
+            return groups != null;
+        }
+
+        /**
+         * Searches the next match from the given position, as
+         * {@link java.util.regex.Matcher#find(int)}.
+         */
+        public boolean find(int start) {
+            searchStart = start;
+
+            return find();
+        }
+
+        /**
+         * @return the earliest position a match may start at if the text went
+         *         on, which is at most the start of the last match found, or -1
+         *         if the last search did not reach the end of the text. It is
+         *         not tracked through an index, nor with limited starts
+         */
+        public int getPendingStart() {
+            return pendingStart;
+        }
+
+        public String group(int group) {
+            checkGroup(group);
+
+            return groups[2 * group] == -1 ? null
+                    : text.subSequence(groups[2 * group], groups[2 * group + 1]).toString();
+        }
+
+        public String group(String name) {
+            return group(getGroupIndex(name));
+        }
+
+        public int groupCount() {
+            return pattern.groupCount;
+        }
+
+        /**
+         * @return whether the last search reached the end of the text, a longer
+         *         text possibly giving another result, as
+         *         {@link java.util.regex.Matcher#hitEnd()}
+         */
+        public boolean hitEnd() {
+            return pendingStart != -1;
+        }
+
+        /**
+         * Restricts the next searches to the matches starting before the given
+         * position, until the next reset. A match may still end after it, the
+         * rest of the text being read only as far as the match goes.
+         */
+        public Matcher limitStarts(int startLimit) {
+            this.startLimit = startLimit;
+
+            return this;
+        }
+
+        /**
+         * Matches the whole text.
+         */
+        public boolean matches() {
+            groups = run(0, true);
+
+            return groups != null;
+        }
+
+        /**
+         * Searches another text from its start, as
+         * {@link java.util.regex.Matcher#reset(CharSequence)}.
+         */
+        public Matcher reset(CharSequence text) {
+            return reset(text, null);
+        }
+
+        /**
+         * @param index the index of the text, or {@code null} to scan it
+         */
+        public Matcher reset(CharSequence text, ContentIndex index) {
+            this.text = text;
+            this.index = pattern.isIndexable() ? index : null;
+            this.searchStart = 0;
+            this.startLimit = Integer.MAX_VALUE;
+            this.groups = null;
+            this.pendingStart = -1;
+            this.candidate = 0;
+            this.candidateEnd = 0;
+            this.candidateOffset = 0;
+            if (this.index != null) {
+                int[] prefix = pattern.prefix;
+                this.candidateEnd = Integer.MAX_VALUE;
+                for (int offset = 0; offset + 1 < prefix.length; offset++) {
+                    int bucket = index.getBucket(prefix[offset], prefix[offset + 1]);
+                    if (index.getBucketEnd(bucket) - index.getBucketStart(bucket) < candidateEnd - candidate) {
+                        this.candidate = index.getBucketStart(bucket);
+                        this.candidateEnd = index.getBucketEnd(bucket);
+                        this.candidateOffset = offset;
+                    }
+                }
+            }
+
+            return this;
+        }
+
+        public int start(int group) {
+            checkGroup(group);
+
+            return groups[2 * group];
+        }
+
+        public int start(String name) {
+            return start(getGroupIndex(name));
+        }
+
+        private void checkGroup(int group) {
+            if (groups == null) {
+                throw new IllegalStateException("No match found");
+            } else if (group < 0 || group > pattern.groupCount) {
+                throw new IndexOutOfBoundsException(
+                        new StringBuilder().append("No group ").append(group).toString());
+            }
+        }
+
+        private int getGroupIndex(String name) {
+            Integer index = pattern.groupIndexes.get(name);
+            if (index == null) {
+                throw new IllegalArgumentException(
+                        new StringBuilder().append("No group with name <").append(name).append(">").toString());
+            }
+
+            return index;
+        }
+
+        /**
+         * Runs all the threads of the program at once. Threads are ordered by
+         * priority, so that the first one reaching the end of the program
+         * discards the ones after it.
+         *
+         * @param anchored whether the match must span the whole text
+         * @return the groups of the match, or {@code null}
+         */
+        private int[] run(int start, boolean anchored) {
+            int length = text.length();
+            int[] matchedGroups = null;
+            currentThreads.clear();
+            pendingStart = -1;
+
+            int position = start;
+            while (true) {
+                if (matchedGroups == null && (anchored ? position == start : position < startLimit)) {
+                    if (currentThreads.isEmpty() && !anchored && pattern.prefix.length > 0) {
+                        int skipStart = position;
+                        position = index != null ? skipToCandidate(position) : skipToFirstChar(position, length);
+                        if (position == -1) {
+                            if (index == null && startLimit > length) {
+                                pendingStart = findPrefixStartAtEnd(skipStart, length);
+                            }
+                            break;
+                        }
+                    }
+                    if (anchored || position < startLimit) {
+                        int[] initialGroups = new int[2 * (pattern.groupCount + 1)];
+                        Arrays.fill(initialGroups, -1);
+                        addThread(currentThreads, 0, initialGroups, position);
+                    }
+                }
+                if (currentThreads.isEmpty()) {
+                    break;
+                }
+
+                int c = position < length ? text.charAt(position) : -1;
+                nextThreads.clear();
+                for (int i = 0; i < currentThreads.size; i++) {
+                    int pc = currentThreads.pcs[i];
+                    int[] threadGroups = currentThreads.groups[i];
+                    if (c == -1 && pattern.opcodes[pc] != MATCH) {
+                        // This thread, and the match it may lead to, needs more text
+                        pendingStart = pendingStart == -1 ? threadGroups[0] : Math.min(pendingStart, threadGroups[0]);
+                    }
+                    switch (pattern.opcodes[pc]) {
+                    case CHAR:
+                        if (c == pattern.arguments[pc]) {
+                            addThread(nextThreads, pc + 1, threadGroups, position + 1);
+                        }
+                        break;
+                    case WHITESPACE:
+                        if (c != -1 && isWhitespace(c)) {
+                            addThread(nextThreads, pc + 1, threadGroups, position + 1);
+                        }
+                        break;
+                    case ANY:
+                        if (c != -1 && pattern.isLineCharacter(c)) {
+                            addThread(nextThreads, pc + 1, threadGroups, position + 1);
+                        }
+                        break;
+                    case MATCH:
+                        if (!anchored || position == length) {
+                            matchedGroups = threadGroups;
+                            // Lower priority threads cannot win anymore
+                            i = currentThreads.size;
+                        }
+                        break;
+                    default:
+                        break;
+                    }
+                }
+
+                ThreadList threads = currentThreads;
+                currentThreads = nextThreads;
+                nextThreads = threads;
+                if (position >= length) {
+                    break;
+                }
+                position++;
+            }
+
+            return matchedGroups;
+        }
+
+        /**
+         * Follows the instructions consuming no character, in priority order.
+         */
+        private void addThread(ThreadList threads, int pc, int[] threadGroups, int position) {
+            if (!threads.mark(pc)) {
+                return;
+            }
+
+            switch (pattern.opcodes[pc]) {
+            case JUMP:
+                addThread(threads, pattern.arguments[pc], threadGroups, position);
+                break;
+            case SPLIT:
+                addThread(threads, pattern.arguments[pc], threadGroups, position);
+                addThread(threads, pattern.alternatives[pc], threadGroups, position);
+                break;
+            case SAVE:
+                int[] newGroups = threadGroups.clone();
+                newGroups[pattern.arguments[pc]] = position;
+                addThread(threads, pc + 1, newGroups, position);
+                break;
+            default:
+                threads.add(pc, threadGroups);
+                break;
+            }
+        }
+
+        /**
+         * A match can only start at the prefix of the pattern, or at the
+         * whitespaces before it, so no match starts before the start limit
+         * once a character other than a whitespace follows it.
+         *
+         * @return the first position a match can start from, or -1
+         */
+        private int skipToFirstChar(int position, int length) {
+            int firstChar = pattern.prefix[0];
+            for (int prefixPosition = position; prefixPosition < length; prefixPosition++) {
+                char c = text.charAt(prefixPosition);
+                if (c == firstChar && startsWithPrefix(prefixPosition, length)) {
+                    return skipBackWhitespaces(prefixPosition, position);
+                } else if (prefixPosition >= startLimit && !isWhitespace(c)) {
+                    return -1;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Same as {@link #skipToFirstChar(int, int)} with the positions of the
+         * rarest pair of the prefix in the index. Searches only move forward,
+         * so the candidates are walked once.
+         */
+        private int skipToCandidate(int position) {
+            int length = text.length();
+            for (; candidate < candidateEnd; candidate++) {
+                int prefixPosition = index.getPosition(candidate) - candidateOffset;
+                if (prefixPosition >= position && startsWithPrefix(prefixPosition, length)) {
+                    return skipBackWhitespaces(prefixPosition, position);
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * @return the first position the prefix may start at if the text went
+         *         on, the whitespaces before it included
+         */
+        private int findPrefixStartAtEnd(int position, int length) {
+            int[] prefix = pattern.prefix;
+            int prefixPosition = Math.max(position, length - prefix.length + 1);
+            for (; prefixPosition < length; prefixPosition++) {
+                int i = 0;
+                while (prefixPosition + i < length && text.charAt(prefixPosition + i) == prefix[i]) {
+                    i++;
+                }
+                if (prefixPosition + i == length) {
+                    break;
+                }
+            }
+
+            return skipBackWhitespaces(prefixPosition, position);
+        }
+
+        private boolean startsWithPrefix(int prefixPosition, int length) {
+            int[] prefix = pattern.prefix;
+            if (prefixPosition + prefix.length > length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (text.charAt(prefixPosition + i) != prefix[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private int skipBackWhitespaces(int prefixPosition, int position) {
+            int matchStart = prefixPosition;
+            while (matchStart > position && isWhitespace(text.charAt(matchStart - 1))) {
+                matchStart--;
+            }
+
+            return matchStart;
+        }
+
+    }
+
+    /**
+     * Threads of the VM at a position, at most one per instruction.
+     */
+    private static class ThreadList {
+
+        private final int[] pcs;
+        private final int[][] groups;
+        private final int[] generations;
+        private int generation;
+        private int size;
+
+        private ThreadList(int programSize) {
+            this.pcs = new int[programSize];
+            this.groups = new int[programSize][];
+            this.generations = new int[programSize];
+        }
+
+        private void add(int pc, int[] threadGroups) {
+            pcs[size] = pc;
+            groups[size] = threadGroups;
+            size++;
+        }
+
+        private void clear() {
+            size = 0;
+            generation++;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * @return {@code false} if the instruction has already been visited at
+         *         this position
+         */
+        private boolean mark(int pc) {
+            if (generations[pc] == generation) {
+                return false;
+            }
+            generations[pc] = generation;
+
+            return true;
+        }
+
+    }
+
+}
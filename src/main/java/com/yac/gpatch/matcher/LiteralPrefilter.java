@@ -0,0 +1,306 @@
+package com.yac.gpatch.matcher;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Rejects files that cannot be modified by a patch without decoding them.
+ *
+ * Each hunk requires a set of literal anchors: the longest literal of its
+ * initial text and of every rule it uses. The anchors of all the hunks are
+ * searched at once in the raw bytes of a file with an Aho-Corasick automaton,
+ * and the file is kept as soon as all the anchors of a hunk have been seen.
+ */
+public class LiteralPrefilter {
+
+    private static final int ALPHABET_SIZE = 256;
+
+    private final boolean enabled;
+    private final int[] requiredAnchorCounts;
+    private final int[][] hunksByAnchor;
+
+    private final int[] transitions;
+    private final int[][] outputs;
+
+    /**
+     * @param requiredAnchors the anchors required by each hunk
+     * @param charset         the charset of the files to scan
+     */
+    LiteralPrefilter(List<? extends Collection<String>> requiredAnchors, Charset charset) {
+        Map<String, Integer> anchorIndexes = new HashMap<>();
+        List<byte[]> encodedAnchors = new ArrayList<>();
+        List<List<Integer>> hunkLists = new ArrayList<>();
+        CharsetEncoder encoder = charset.newEncoder();
+
+        this.requiredAnchorCounts = new int[requiredAnchors.size()];
+        boolean anyHunkWithoutAnchor = false;
+        for (int hunk = 0; hunk < requiredAnchors.size(); hunk++) {
+            for (String anchor : requiredAnchors.get(hunk)) {
+                Integer anchorIndex = anchorIndexes.get(anchor);
+                if (anchorIndex == null) {
+                    byte[] encodedAnchor = encode(encoder, anchor);
+                    if (encodedAnchor == null) {
+                        continue;
+                    }
+                    anchorIndex = encodedAnchors.size();
+                    anchorIndexes.put(anchor, anchorIndex);
+                    encodedAnchors.add(encodedAnchor);
+                    hunkLists.add(new ArrayList<>());
+                }
+                hunkLists.get(anchorIndex).add(hunk);
+                requiredAnchorCounts[hunk]++;
+            }
+            anyHunkWithoutAnchor |= requiredAnchorCounts[hunk] == 0;
+        }
+
+        this.hunksByAnchor = hunkLists.stream().map(hunks -> hunks.stream().mapToInt(Integer::intValue).toArray())
+                .toArray(int[][]::new);
+        this.enabled = isSubstringPreserving(charset) && !anyHunkWithoutAnchor;
+
+        List<int[]> outputList = new ArrayList<>();
+        this.transitions = enabled ? buildAutomaton(encodedAnchors, outputList) : null;
+        this.outputs = outputList.toArray(new int[outputList.size()][]);
+    }
+
+    private LiteralPrefilter(boolean enabled, int[] requiredAnchorCounts, int[][] hunksByAnchor, int[] transitions,
+            int[][] outputs) {
+        this.enabled = enabled;
+        this.requiredAnchorCounts = requiredAnchorCounts;
+        this.hunksByAnchor = hunksByAnchor;
+        this.transitions = transitions;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Reads a prefilter written by {@link #write(DataOutputStream)}, with its
+     * automaton.
+     *
+     * @throws IllegalArgumentException if the automaton is not valid for the
+     *                                  given number of hunks
+     */
+    static LiteralPrefilter read(ByteBuffer buffer, int hunkNb) {
+        boolean enabled = buffer.get() != 0;
+        int[] requiredAnchorCounts = BinaryPatchFile.readInts(buffer, Integer.MAX_VALUE);
+        int[][] hunksByAnchor = new int[BinaryPatchFile.readCount(buffer)][];
+        for (int anchor = 0; anchor < hunksByAnchor.length; anchor++) {
+            hunksByAnchor[anchor] = BinaryPatchFile.readInts(buffer, hunkNb);
+        }
+        int[][] outputs = new int[BinaryPatchFile.readCount(buffer)][];
+        for (int state = 0; state < outputs.length; state++) {
+            outputs[state] = buffer.get() != 0 ? BinaryPatchFile.readInts(buffer, hunksByAnchor.length) : null;
+        }
+        int[] transitions = enabled ? BinaryPatchFile.readInts(buffer, outputs.length) : null;
+        if (requiredAnchorCounts.length != hunkNb
+                || (enabled && (outputs.length == 0 || transitions.length != outputs.length * ALPHABET_SIZE))) {
+            throw new IllegalArgumentException("Invalid prefilter");
+        }
+
+        return new LiteralPrefilter(enabled, requiredAnchorCounts, hunksByAnchor, transitions, outputs);
+    }
+
+    /**
+     * Scans the remaining bytes of the given buffer without changing its
+     * position.
+     *
+     * @return {@code false} if no hunk of the patch can match the content
+     */
+    public boolean mayMatch(ByteBuffer buffer) {
+        return !enabled || new Scan().mayMatch(buffer);
+    }
+
+    /**
+     * Scans a file by windows of the given size, for files too large to be
+     * mapped at once. Anchors spanning two windows are found as well.
+     */
+    public boolean mayMatch(FileChannel channel, int windowSize) throws IOException {
+        if (!enabled) {
+            return true;
+        }
+
+        Scan scan = new Scan();
+        long size = channel.size();
+        for (long position = 0; position < size; position += windowSize) {
+            if (scan.mayMatch(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(windowSize, size - position)))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes the prefilter with its automaton, to be read back by
+     * {@link #read(ByteBuffer, int)}.
+     */
+    void write(DataOutputStream output) throws IOException {
+        output.writeBoolean(enabled);
+        BinaryPatchFile.writeInts(output, requiredAnchorCounts);
+        output.writeInt(hunksByAnchor.length);
+        for (int[] hunks : hunksByAnchor) {
+            BinaryPatchFile.writeInts(output, hunks);
+        }
+        output.writeInt(outputs.length);
+        for (int[] anchors : outputs) {
+            output.writeBoolean(anchors != null);
+            if (anchors != null) {
+                BinaryPatchFile.writeInts(output, anchors);
+            }
+        }
+        if (enabled) {
+            BinaryPatchFile.writeInts(output, transitions);
+        }
+    }
+
+    /**
+     * @param outputList filled with the anchors recognized in each state
+     * @return the transition table of the automaton
+     */
+    private static int[] buildAutomaton(List<byte[]> encodedAnchors, List<int[]> outputList) {
+        // Trie of the anchors
+        List<int[]> gotoList = new ArrayList<>();
+        gotoList.add(newState());
+        outputList.add(null);
+        for (int anchor = 0; anchor < encodedAnchors.size(); anchor++) {
+            int state = 0;
+            for (byte b : encodedAnchors.get(anchor)) {
+                int symbol = b & 0xff;
+                if (gotoList.get(state)[symbol] == -1) {
+                    gotoList.get(state)[symbol] = gotoList.size();
+                    gotoList.add(newState());
+                    outputList.add(null);
+                }
+                state = gotoList.get(state)[symbol];
+            }
+            outputList.set(state, append(outputList.get(state), anchor));
+        }
+
+        // Failure links, folded into a complete transition table
+        int stateCount = gotoList.size();
+        int[] failures = new int[stateCount];
+        int[] transitions = new int[stateCount * ALPHABET_SIZE];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 0; symbol < ALPHABET_SIZE; symbol++) {
+            int next = gotoList.get(0)[symbol];
+            transitions[symbol] = next == -1 ? 0 : next;
+            if (next != -1) {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int[] stateOutputs = outputList.get(state);
+            int[] failureOutputs = outputList.get(failures[state]);
+            if (failureOutputs != null) {
+                for (int anchor : failureOutputs) {
+                    stateOutputs = append(stateOutputs, anchor);
+                }
+                outputList.set(state, stateOutputs);
+            }
+            for (int symbol = 0; symbol < ALPHABET_SIZE; symbol++) {
+                int next = gotoList.get(state)[symbol];
+                int failureTransition = transitions[failures[state] * ALPHABET_SIZE + symbol];
+                if (next == -1) {
+                    transitions[state * ALPHABET_SIZE + symbol] = failureTransition;
+                } else {
+                    transitions[state * ALPHABET_SIZE + symbol] = next;
+                    failures[next] = failureTransition;
+                    queue.add(next);
+                }
+            }
+        }
+
+        return transitions;
+    }
+
+    private static int[] append(int[] array, int value) {
+        if (array == null) {
+            return new int[] { value };
+        }
+        int[] newArray = Arrays.copyOf(array, array.length + 1);
+        newArray[array.length] = value;
+
+        return newArray;
+    }
+
+    private static byte[] encode(CharsetEncoder encoder, String anchor) {
+        try {
+            ByteBuffer encodedAnchor = encoder.reset().encode(CharBuffer.wrap(anchor));
+            byte[] bytes = new byte[encodedAnchor.remaining()];
+            encodedAnchor.get(bytes);
+
+            return bytes;
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The encoding of a text must appear in the encoding of any text containing
+     * it, which holds for single-byte charsets and UTF-8.
+     */
+    private static boolean isSubstringPreserving(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f);
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET_SIZE];
+        Arrays.fill(state, -1);
+
+        return state;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The state of the automaton and the anchors found so far in a content.
+     */
+    private class Scan {
+
+        private final int[] missingAnchorCounts = requiredAnchorCounts.clone();
+        private final boolean[] foundAnchors = new boolean[hunksByAnchor.length];
+        private int state;
+
+        /**
+         * Goes on with the remaining bytes of the given buffer.
+         */
+        private boolean mayMatch(ByteBuffer buffer) {
+            for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+                state = transitions[state * ALPHABET_SIZE + (buffer.get(i) & 0xff)];
+                int[] anchors = outputs[state];
+                if (anchors != null) {
+                    for (int anchor : anchors) {
+                        if (!foundAnchors[anchor]) {
+                            foundAnchors[anchor] = true;
+                            for (int hunk : hunksByAnchor[anchor]) {
+                                if (--missingAnchorCounts[hunk] == 0) {
+                                    return true;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.yac.gpatch.matcher;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * The positions of the matches of a rule or hunk in a content. Their texts
+ * are not copied: they are read from the content when needed, through views.
+ *
+ * A list is cleared rather than recreated from one content to the next, so
+ * that its arrays only grow until they fit the files matched.
+ */
+class MatchList {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private CharSequence content;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    MatchList() {
+        this.starts = new int[INITIAL_CAPACITY];
+        this.ends = new int[INITIAL_CAPACITY];
+    }
+
+    void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * size);
+            ends = Arrays.copyOf(ends, 2 * size);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Empties the list for the matches of the given content.
+     */
+    void clear(CharSequence content) {
+        this.content = content;
+        this.size = 0;
+    }
+
+    CharSequence getContent() {
+        return content;
+    }
+
+    int getEnd(int i) {
+        return ends[i];
+    }
+
+    int getStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @return a read-only view of the text of the given match
+     */
+    CharSequence getText(int i) {
+        return CharBuffer.wrap(content, starts[i], ends[i]);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+}
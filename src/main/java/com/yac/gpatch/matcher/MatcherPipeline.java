@@ -0,0 +1,232 @@
+package com.yac.gpatch.matcher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.report.Reporter;
+import com.yac.gpatch.util.FileWalker;
+import com.yac.gpatch.util.logging.Log;
+import com.yac.gpatch.util.logging.LogLevel;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.Rewrite;
+import com.yac.gpatch.writer.RewriteWriter;
+import com.yac.gpatch.writer.StreamingRewriteWriter;
+
+/**
+ * Runs the discovery of the files, their matching and the writing of the
+ * modified files as concurrent stages linked by bounded queues, so that
+ * walking the tree, matching and writing overlap and memory stays bounded
+ * whatever the size of the tree.
+ *
+ * The files are announced to the writer in the order they are found, and
+ * each one is reported processed to it through the writing stage, after its
+ * rewrite, so that a writer ordering its output follows the walk.
+ */
+public class MatcherPipeline {
+
+    private static final int FILE_QUEUE_CAPACITY = 1024;
+
+    private static final SourceFile END_OF_FILES = new SourceFile(null, 0);
+    private static final WriteTask END_OF_WRITES = new WriteTask(null, null);
+
+    private final int threadNb;
+    private final RewriteWriter writer;
+    private final MatchCache matchCache;
+
+    public MatcherPipeline(int threadNb, RewriteWriter writer, MatchCache matchCache) {
+        this.threadNb = threadNb;
+        this.writer = writer;
+        this.matchCache = matchCache;
+    }
+
+    /**
+     * @param reporter receives the report of each file as soon as it has been
+     *                 processed
+     */
+    public void run(List<CompiledPatch> compiledPatches, List<Path> roots, FileWalker walker, Statistics statistics,
+            Reporter reporter) throws IOException, ExecutionException, InterruptedException {
+        BlockingQueue<SourceFile> fileQueue = new ArrayBlockingQueue<>(FILE_QUEUE_CAPACITY);
+        // Rewrites hold whole file contents, only a few of them are kept in memory
+        BlockingQueue<WriteTask> writeQueue = new ArrayBlockingQueue<>(threadNb);
+        RewriteWriter queueWriter = createQueueWriter(writeQueue);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadNb + 2);
+        try {
+            Future<?> discovery = executor.submit(() -> discover(roots, walker, fileQueue, statistics));
+            List<Future<?>> matchers = IntStream.range(0, threadNb)
+                    .mapToObj(i -> executor.submit(() -> match(compiledPatches, fileQueue, statistics, queueWriter,
+                            reporter)))
+                    .collect(Collectors.toList());
+            Future<?> writing = executor.submit(() -> write(writeQueue, reporter));
+
+            for (Future<?> matcher : matchers) {
+                matcher.get();
+            }
+            writeQueue.put(END_OF_WRITES);
+            writing.get();
+
+            try {
+                discovery.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The time of the walk includes the time waiting for the matchers when the
+     * queue is full.
+     */
+    private Void discover(List<Path> roots, FileWalker walker, BlockingQueue<SourceFile> fileQueue,
+            Statistics statistics) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        writer.expect(Collections.emptyList());
+        try {
+            for (Path root : roots) {
+                walker.walk(root, file -> {
+                    try {
+                        writer.expectNext(file.getPath());
+                        fileQueue.put(file);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        } finally {
+            statistics.getRecorder().addTime(Statistics.Phase.WALK, start);
+            for (int i = 0; i < threadNb; i++) {
+                fileQueue.put(END_OF_FILES);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return a writer queueing the rewrites and the processed files for the
+     *         writing stage. Streamed contents are already on disk, the
+     *         matchers move them in place themselves
+     */
+    private RewriteWriter createQueueWriter(BlockingQueue<WriteTask> writeQueue) {
+        RewriteWriter queueWriter = new RewriteWriter() {
+
+            @Override
+            public void processed(Path path) throws IOException {
+                put(writeQueue, new WriteTask(null, path));
+            }
+
+            @Override
+            public void write(Rewrite rewrite) throws IOException {
+                put(writeQueue, new WriteTask(rewrite, null));
+            }
+
+        };
+        if (!(writer instanceof StreamingRewriteWriter)) {
+            return queueWriter;
+        }
+
+        StreamingRewriteWriter streamingWriter = (StreamingRewriteWriter) writer;
+        return new StreamingRewriteWriter() {
+
+            @Override
+            public Path createTemporaryFile(Path path) throws IOException {
+                return streamingWriter.createTemporaryFile(path);
+            }
+
+            @Override
+            public void processed(Path path) throws IOException {
+                queueWriter.processed(path);
+            }
+
+            @Override
+            public void write(Rewrite rewrite) throws IOException {
+                queueWriter.write(rewrite);
+            }
+
+            @Override
+            public void write(Path path, Path temporaryPath) throws IOException {
+                streamingWriter.write(path, temporaryPath);
+            }
+
+        };
+    }
+
+    private Void match(List<CompiledPatch> compiledPatches, BlockingQueue<SourceFile> fileQueue, Statistics statistics,
+            RewriteWriter queueWriter, Reporter reporter) throws InterruptedException {
+        SourceFile file;
+        while ((file = fileQueue.take()) != END_OF_FILES) {
+            reporter.report(new PatchMatcher(compiledPatches, file.getPath(), statistics, queueWriter, matchCache,
+                    reporter.isMatchReportEnabled()).call());
+        }
+
+        return null;
+    }
+
+    private Void write(BlockingQueue<WriteTask> writeQueue, Reporter reporter) throws InterruptedException {
+        WriteTask task;
+        while ((task = writeQueue.take()) != END_OF_WRITES) {
+            Path path = task.rewrite != null ? task.rewrite.getPath() : task.processedPath;
+            try {
+                if (task.rewrite != null) {
+                    writer.write(task.rewrite);
+                } else {
+                    writer.processed(path);
+                }
+            } catch (IOException e) {
+                String message = new StringBuilder().append(task.rewrite != null ? "Unable to write "
+                        : "Unable to handle ").append(path.getFileName().toString()).toString();
+                reporter.report(new FileReport(path, Collections.singletonList(new Log(LogLevel.ERROR, message)),
+                        Collections.emptyList()));
+            }
+        }
+
+        return null;
+    }
+
+    private static void put(BlockingQueue<WriteTask> writeQueue, WriteTask task) throws IOException {
+        try {
+            writeQueue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A rewrite to write, or a file whose rewrite, if any, has been queued
+     * before.
+     */
+    private static class WriteTask {
+
+        private final Rewrite rewrite;
+        private final Path processedPath;
+
+        private WriteTask(Rewrite rewrite, Path processedPath) {
+            this.rewrite = rewrite;
+            this.processedPath = processedPath;
+        }
+
+    }
+
+}
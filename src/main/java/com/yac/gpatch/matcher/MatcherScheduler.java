@@ -0,0 +1,63 @@
+package com.yac.gpatch.matcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.report.Reporter;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.RewriteWriter;
+
+/**
+ * Runs one {@link PatchMatcher} per file on a work-stealing pool.
+ *
+ * Files are submitted largest first so that the biggest files do not end up
+ * alone at the tail of the run while the other threads are idle.
+ */
+public class MatcherScheduler {
+
+    private final int threadNb;
+    private final RewriteWriter writer;
+    private final MatchCache matchCache;
+
+    public MatcherScheduler(int threadNb, RewriteWriter writer, MatchCache matchCache) {
+        this.threadNb = threadNb;
+        this.writer = writer;
+        this.matchCache = matchCache;
+    }
+
+    /**
+     * @param reporter receives the report of each file as soon as it has been
+     *                 processed
+     */
+    public void run(List<CompiledPatch> compiledPatches, List<SourceFile> files, Statistics statistics,
+            Reporter reporter) throws ExecutionException, InterruptedException {
+        List<SourceFile> sortedFiles = new ArrayList<>(files);
+        // Ties are broken by path so that the order, and so the output of a dry
+        // run, is the same from run to run
+        sortedFiles.sort(Comparator.comparingLong(SourceFile::getSize).reversed()
+                .thenComparing(SourceFile::getPath));
+        writer.expect(sortedFiles.stream().map(SourceFile::getPath).collect(Collectors.toList()));
+
+        ForkJoinPool pool = new ForkJoinPool(threadNb);
+        try {
+            CompletionService<FileReport> completionService = new ExecutorCompletionService<>(pool);
+            sortedFiles.forEach(file -> completionService.submit(new PatchMatcher(compiledPatches, file.getPath(),
+                    statistics, writer, matchCache, reporter.isMatchReportEnabled())));
+            for (int i = sortedFiles.size(); i > 0; i--) {
+                reporter.report(completionService.take().get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
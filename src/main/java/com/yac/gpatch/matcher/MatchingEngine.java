@@ -0,0 +1,17 @@
+package com.yac.gpatch.matcher;
+
+/**
+ * Engine finding the snippets matched by the rules and hunks of a patch.
+ */
+public enum MatchingEngine {
+
+    /**
+     * {@link LinearPattern}, in time linear in the size of the files.
+     */
+    LINEAR,
+    /**
+     * {@link java.util.regex}, kept to compare the results of both engines.
+     */
+    REGEX;
+
+}
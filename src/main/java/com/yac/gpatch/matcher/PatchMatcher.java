@@ -1,247 +1,645 @@
 package com.yac.gpatch.matcher;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
-import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.yac.gpatch.model.Hunk;
-import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.cache.MatchCache;
 import com.yac.gpatch.model.Rule;
 import com.yac.gpatch.model.Snippet;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.report.MatchAction;
+import com.yac.gpatch.report.MatchReport;
+import com.yac.gpatch.util.ByteCharSequence;
+import com.yac.gpatch.util.EditedCharSequence;
+import com.yac.gpatch.util.Identifiable;
+import com.yac.gpatch.util.LineIndex;
 import com.yac.gpatch.util.logging.Log;
 import com.yac.gpatch.util.logging.LogLevel;
-
-public class PatchMatcher implements Callable<List<Log>> {
-
-    private static final String REGEX_ALTERNATIVE_SYMBOL = "|";
-
-    private final Patch patch;
-    private final List<Path> paths;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.Rewrite;
+import com.yac.gpatch.writer.RewriteWriter;
+import com.yac.gpatch.writer.StreamingRewriteWriter;
+
+/**
+ * Applies patches to a file. The file is read and decoded once, the patches
+ * are applied one after the other to its content in memory, and it is
+ * written at most once. Each patch matches a view of the content with the
+ * replacements of the previous ones, the new content being never built.
+ * Matches are kept as positions in the content, in lists borrowed from the
+ * compiled patches along with their matchers.
+ *
+ * Files too large for their content to be held in the heap are matched by
+ * windows of their bytes instead, when the patches are matched through a
+ * byte view with the linear engine and the writer takes streamed contents.
+ * Each patch then streams the content it produces to a temporary file, read
+ * by the next patch, so that memory stays bounded whatever the size of the
+ * file. Other large files are still matched as a whole.
+ */
+public class PatchMatcher implements Callable<FileReport> {
+
+    // Whole contents are decoded and rebuilt in the heap, several times their size
+    private static final long WINDOWED_FILE_SIZE = Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16);
+    private static final int WINDOW_SIZE = (int) Math.min(64 * 1024 * 1024, WINDOWED_FILE_SIZE / 4);
+    // The permits of the contents read at once, one per KiB, for a quarter of the heap
+    static final int READING_PERMIT_NB = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4096);
+
+    private final List<CompiledPatch> compiledPatches;
+    private final Path path;
+    private final Statistics statistics;
+    private final RewriteWriter writer;
+    private final MatchCache matchCache;
+    private final boolean matchReportEnabled;
+    private final Semaphore matchingPermits;
+    private final Semaphore readingPermits;
 
     private List<Log> logs;
+    private List<MatchReport> matches;
+
+    /**
+     * @param compiledPatches    the patches to apply, in order, compiled
+     *                           together
+     * @param matchReportEnabled whether the report lists the matches of the
+     *                           rules and hunks
+     */
+    public PatchMatcher(List<CompiledPatch> compiledPatches, Path path, Statistics statistics, RewriteWriter writer,
+            MatchCache matchCache, boolean matchReportEnabled) {
+        this(compiledPatches, path, statistics, writer, matchCache, matchReportEnabled, null, null);
+    }
 
-    public PatchMatcher(Patch patch, List<Path> paths) {
-        this.patch = patch;
-        this.paths = paths;
+    /**
+     * @param matchingPermits bounds the number of files matched at once. The
+     *                        file is then read rather than mapped, so that
+     *                        page faults do not pin the carrier of a virtual
+     *                        thread while it holds a permit
+     * @param readingPermits  bounds the bytes read and not yet written, with
+     *                        one permit per KiB of content, a file larger than
+     *                        all the permits taking them all
+     */
+    public PatchMatcher(List<CompiledPatch> compiledPatches, Path path, Statistics statistics, RewriteWriter writer,
+            MatchCache matchCache, boolean matchReportEnabled, Semaphore matchingPermits,
+            Semaphore readingPermits) {
+        this.compiledPatches = compiledPatches;
+        this.path = path;
+        this.statistics = statistics;
+        this.writer = writer;
+        this.matchCache = matchCache;
+        this.matchReportEnabled = matchReportEnabled;
+        this.matchingPermits = matchingPermits;
+        this.readingPermits = readingPermits;
         this.logs = new ArrayList<>();
+        this.matches = new ArrayList<>();
     }
 
     public void match() {
-        paths.forEach(path -> {
-            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
-                MappedByteBuffer mappedByteBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
-                        file.length());
+        Statistics.Recorder recorder = statistics.borrowRecorder();
+        long time = System.nanoTime();
+        int readPermitNb = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Read before the content, so that a concurrent change is seen by the next run
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (isWindowable(channel.size())) {
+                matchWindowed(channel, attributes, recorder, time);
+                return;
+            }
+
+            // The content is only read if the cache does not already tell
+            // that the file is unchanged, the checksum being computed from a
+            // mapping of the file
+            boolean fresh = matchCache.isFresh(path, attributes, channel);
+            if (fresh) {
+                recorder.addTime(Statistics.Phase.MAP, time);
+                statistics.incrementCacheHits();
+                return;
+            } else if (matchCache.isEnabled()) {
+                statistics.incrementCacheMisses();
+            }
+            ByteBuffer byteBuffer;
+            if (matchingPermits == null) {
+                byteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } else {
+                if (readingPermits != null) {
+                    readPermitNb = (int) Math.min(READING_PERMIT_NB, (channel.size() + 1023) / 1024);
+                    readingPermits.acquire(readPermitNb);
+                    time = System.nanoTime();
+                }
+                byteBuffer = read(channel);
+            }
+            time = recorder.addTime(Statistics.Phase.MAP, time);
+
+            boolean rewritten = false;
+            statistics.incrementFilesScanned();
+            recorder.addBytesScanned(byteBuffer.remaining());
+            CharSequence mappedCharBuffer = null;
+            CharSequence content = null;
+            List<Snippet> replacingSnippets = null;
+            if (matchingPermits != null) {
+                matchingPermits.acquire();
+                time = System.nanoTime();
+            }
+            try {
+                for (int i = 0; i < compiledPatches.size(); i++) {
+                    CompiledPatch compiledPatch = compiledPatches.get(i);
+                    // The literals of a patch are only looked for in the bytes of an unmodified file
+                    if (replacingSnippets == null) {
+                        boolean mayMatch = compiledPatch.getPrefilter().mayMatch(byteBuffer);
+                        time = recorder.addTime(Statistics.Phase.PREFILTER, time);
+                        if (!mayMatch) {
+                            continue;
+                        }
+                    }
+                    if (mappedCharBuffer == null) {
+                        mappedCharBuffer = compiledPatch.isByteViewEnabled() ? new ByteCharSequence(byteBuffer)
+                                : compiledPatch.getCharset().decode(byteBuffer);
+                        content = mappedCharBuffer;
+                        time = recorder.addTime(Statistics.Phase.DECODE, time);
+                    }
+
+                    List<Snippet> patchSnippets = generateReplacingSnippets(i + 1, compiledPatch, content, recorder);
+                    time = System.nanoTime();
+                    if (!patchSnippets.isEmpty()) {
+                        replacingSnippets = replacingSnippets == null ? patchSnippets
+                                : SnippetComposer.compose(replacingSnippets, content, patchSnippets);
+                        content = new EditedCharSequence(mappedCharBuffer, replacingSnippets);
+                        time = recorder.addTime(Statistics.Phase.REWRITE, time);
+                    }
+                }
+            } finally {
+                if (matchingPermits != null) {
+                    matchingPermits.release();
+                }
+            }
 
-                if (mappedByteBuffer != null) {
-                    CharSequence mappedCharBuffer = Charset.defaultCharset().decode(mappedByteBuffer);
+            if (mappedCharBuffer == null) {
+                statistics.incrementFilesPrefiltered();
+            } else if (replacingSnippets != null) {
+                writer.write(new Rewrite(path, mappedCharBuffer,
+                        compiledPatches.get(0).isByteViewEnabled() ? byteBuffer : null, replacingSnippets,
+                        compiledPatches.get(0).getContentCharset()));
+                recorder.addTime(Statistics.Phase.WRITE, time);
+                statistics.incrementFilesRewritten();
+                rewritten = true;
+            }
 
-                    Map<String, List<Snippet>> snippetMap = populateSnippetMap(mappedCharBuffer);
+            // Files with logs are matched again so that their logs are not lost
+            if (!rewritten && logs.isEmpty()) {
+                matchCache.recordUnmatched(path, attributes, byteBuffer);
+            }
+        } catch (Exception e) {
+            String message = new StringBuilder().append("Unable to handle ").append(path.getFileName().toString())
+                    .toString();
+            logs.add(new Log(LogLevel.ERROR, message));
+        } finally {
+            if (readPermitNb > 0) {
+                readingPermits.release(readPermitNb);
+            }
+            statistics.giveBack(recorder);
+        }
+    }
 
-                    boolean rulesValid = true;
-                    for (Rule rule : patch.getRules()) {
-                        if (snippetMap.containsKey(rule.getId()) && snippetMap.get(rule.getId()).size() > 1) {
-                            logMultipleVariableDefinitions(path, rule.getName());
+    /**
+     * Applies the patches to a file too large to be held in memory, then
+     * hands over the temporary file of the last patch that modified it.
+     */
+    private void matchWindowed(FileChannel channel, BasicFileAttributes attributes, Statistics.Recorder recorder,
+            long time) throws IOException, InterruptedException {
+        boolean fresh = matchCache.isFresh(path, attributes, channel);
+        time = recorder.addTime(Statistics.Phase.MAP, time);
+        if (fresh) {
+            statistics.incrementCacheHits();
+            return;
+        } else if (matchCache.isEnabled()) {
+            statistics.incrementCacheMisses();
+        }
+
+        StreamingRewriteWriter streamingWriter = (StreamingRewriteWriter) writer;
+        statistics.incrementFilesScanned();
+        recorder.addBytesScanned(channel.size());
+        boolean scanned = false;
+        boolean rewritten = false;
+        FileChannel content = channel;
+        // The content produced by the previous patches, if any modified the file
+        Path contentPath = null;
+        try {
+            if (matchingPermits != null) {
+                matchingPermits.acquire();
+                time = System.nanoTime();
+            }
+            try {
+                for (int i = 0; i < compiledPatches.size(); i++) {
+                    CompiledPatch compiledPatch = compiledPatches.get(i);
+                    if (contentPath == null) {
+                        boolean mayMatch = compiledPatch.getPrefilter().mayMatch(channel, WINDOW_SIZE);
+                        time = recorder.addTime(Statistics.Phase.PREFILTER, time);
+                        if (!mayMatch) {
+                            continue;
+                        }
+                    }
+                    scanned = true;
+
+                    Path newContentPath = streamingWriter.createTemporaryFile(path);
+                    boolean modified = false;
+                    try (FileChannel newContent = FileChannel.open(newContentPath, StandardOpenOption.WRITE)) {
+                        modified = applyWindowed(i + 1, compiledPatch, content, newContent, recorder);
+                    } finally {
+                        if (!modified) {
+                            Files.deleteIfExists(newContentPath);
+                        }
+                    }
+                    if (modified) {
+                        if (contentPath != null) {
+                            content.close();
+                            Files.delete(contentPath);
                         }
+                        contentPath = newContentPath;
+                        content = FileChannel.open(contentPath, StandardOpenOption.READ);
                     }
+                    time = System.nanoTime();
+                }
+            } finally {
+                if (matchingPermits != null) {
+                    matchingPermits.release();
+                }
+                if (content != channel) {
+                    content.close();
+                }
+            }
 
-                    if (rulesValid) {
-                        List<Snippet> replacingSnippets = new ArrayList<>();
-                        patch.getHunks().stream().filter(hunk -> snippetMap.containsKey(hunk.getId())).forEach(hunk -> {
-                            List<Snippet> capturedVariables = new ArrayList<>();
-                            String finalText = hunk.getFinalLines().stream().collect(Collectors.joining("\n"));
-                            String initialText = hunk.getInitialLines().stream().collect(Collectors.joining("\n"));
-
-                            boolean hunksValid = true;
-
-                            // Check hunk final lines
-                            Matcher finalTextMatcher = Patch.CAPTURED_VARIABLE_REGEX.matcher(finalText);
-                            while (finalTextMatcher.find()) {
-                                Rule matchingRule = patch.getRules().stream()
-                                        .filter(rule -> rule.getName().equals(finalTextMatcher.group(1))).findFirst()
-                                        .get();
-                                if (snippetMap.get(matchingRule.getId()).isEmpty()) {
-                                    hunksValid = false;
-                                    logMissingVariable(path, matchingRule.getName());
-                                }
-                            }
+            if (!scanned) {
+                statistics.incrementFilesPrefiltered();
+            } else if (contentPath != null) {
+                rewritten = true;
+                streamingWriter.write(path, contentPath);
+                recorder.addTime(Statistics.Phase.WRITE, time);
+                statistics.incrementFilesRewritten();
+            }
+        } finally {
+            // The writer deletes the temporary file it could not move
+            if (contentPath != null && !rewritten) {
+                Files.deleteIfExists(contentPath);
+            }
+        }
 
-                            // Check hunk initial lines
-                            Matcher initialTextMatcher = Patch.CAPTURED_VARIABLE_REGEX.matcher(initialText);
-                            while (initialTextMatcher.find()) {
-                                Rule matchingRule = patch.getRules().stream()
-                                        .filter(rule -> rule.getName().equals(initialTextMatcher.group(1))).findFirst()
-                                        .get();
-                                if (snippetMap.get(matchingRule.getId()).isEmpty()) {
-                                    hunksValid = false;
-                                    logMissingVariable(path, matchingRule.getName());
-                                } else {
-                                    capturedVariables
-                                            .add(new Snippet(snippetMap.get(matchingRule.getId()).get(0).getText(),
-                                                    initialTextMatcher.start(1), initialTextMatcher.end(1)));
-                                }
-                            }
+        if (!rewritten && logs.isEmpty()) {
+            matchCache.recordUnmatched(path, attributes, channel);
+        }
+    }
+
+    /**
+     * Applies a patch to a content window by window, writing the new content
+     * as the replacements are found.
+     *
+     * @return {@code true} if the patch modified the content, the new content
+     *         being incomplete otherwise
+     */
+    private boolean applyWindowed(int patchNumber, CompiledPatch compiledPatch, FileChannel content,
+            FileChannel newContent, Statistics.Recorder recorder) throws IOException {
+        // Hunks use the first capture of each rule wherever it is, rules are matched over the whole content first
+        List<CompiledRule> rules = compiledPatch.getRules();
+        List<CompiledHunk> hunks = compiledPatch.getHunks();
+        SearchPlan plan = compiledPatch.getSearchPlan();
+        PatchMatches patchMatches = compiledPatch.borrowMatches();
+        try {
+            // The rules are searched together, only the ones no hunk needs are skipped
+            boolean[] skippedHunks = new boolean[hunks.size()];
+            plan.skipUnboundHunks(skippedHunks);
+            List<Integer> searchedRules = new ArrayList<>();
+            for (int i : plan.getRuleOrder()) {
+                if (matchReportEnabled || plan.isRuleNeeded(i, skippedHunks)) {
+                    searchedRules.add(i);
+                } else {
+                    recorder.addSkippedSearch(rules.get(i).getRule());
+                }
+            }
 
-                            if (hunksValid) {
-                                if (capturedVariables.isEmpty()) {
-                                    snippetMap.get(hunk.getId()).stream().forEach(snippet -> {
-                                        replacingSnippets.add(generateReplacingSnippet(finalText, initialText,
-                                                snippet.getText(), snippet.getStart(), snippet.getEnd(), snippetMap));
-                                    });
-                                } else {
-                                    capturedVariables.sort(Comparator.comparing(Snippet::getStart).reversed());
-
-                                    String capturedVariableText = Patch.CAPTURED_VARIABLE_REGEX.pattern();
-                                    int prefixLengthOfCapturedVariableText = capturedVariableText.indexOf("(");
-                                    int suffixLengthOfCapturedVariableText = capturedVariableText.length()
-                                            - capturedVariableText.lastIndexOf(")") - 1;
-                                    String initialTextWithCapturedVariables = initialText;
-                                    for (Snippet capturedVariable : capturedVariables) {
-                                        initialTextWithCapturedVariables = new StringBuilder()
-                                                .append(initialTextWithCapturedVariables.substring(0,
-                                                        capturedVariable.getStart()
-                                                                - prefixLengthOfCapturedVariableText))
-                                                .append(capturedVariable.getText())
-                                                .append(initialTextWithCapturedVariables.substring(
-                                                        capturedVariable.getEnd() + suffixLengthOfCapturedVariableText))
-                                                .toString();
-                                    }
-
-                                    Pattern initialTextWithCapturedVariablesRegex = Pattern.compile(escapeText(
-                                            initialTextWithCapturedVariables.replaceAll(Patch.ELLIPSIS_MACRO, ".*?")));
-
-                                    snippetMap.get(hunk.getId()).stream().filter(snippet -> {
-                                        return initialTextWithCapturedVariablesRegex.matcher(snippet.getText())
-                                                .matches();
-                                    }).forEach(snippet -> {
-                                        replacingSnippets.add(generateReplacingSnippet(finalText, initialText,
-                                                snippet.getText(), snippet.getStart(), snippet.getEnd(), snippetMap));
-                                    });
+            Map<String, CharSequence> variables = patchMatches.getVariables();
+            variables.putAll(compiledPatch.getSharedVariables());
+            long[] ruleMatchNbs = new long[rules.size()];
+            if (!searchedRules.isEmpty()) {
+                List<WindowedSearch> ruleSearches = searchedRules.stream()
+                        .map(i -> new WindowedSearch(rules.get(i).getLinearPattern(), rules.get(i).getRule().getId()))
+                        .collect(Collectors.toList());
+                scanWindows(content, ruleSearches,
+                        searchedRules.stream().map(i -> rules.get(i).getRule()).collect(Collectors.toList()),
+                        Statistics.Phase.RULES, recorder, (window, matches) -> {
+                            for (int i = 0; i < searchedRules.size(); i++) {
+                                Rule rule = rules.get(searchedRules.get(i)).getRule();
+                                MatchList ruleMatches = matches.get(i);
+                                // Copied, the window is read again for the next one
+                                if (!ruleMatches.isEmpty()) {
+                                    variables.putIfAbsent(rule.getId(), ruleMatches.getText(0).toString());
+                                }
+                                ruleMatchNbs[searchedRules.get(i)] += ruleMatches.size();
+                                if (matchReportEnabled) {
+                                    addMatchReports(patchNumber, MatchAction.CAPTURE, rule.getName(), ruleMatches,
+                                            window);
                                 }
                             }
                         });
+            }
+            for (int i : searchedRules) {
+                if (ruleMatchNbs[i] > 1) {
+                    logMultipleVariableDefinitions(path, rules.get(i).getRule().getName());
+                } else if (ruleMatchNbs[i] == 0) {
+                    plan.skipHunksNeeding(i, skippedHunks);
+                }
+            }
 
-                        if (!replacingSnippets.isEmpty()) {
-                            StringBuilder newFileContent = generateNewTextFromReplacingSnippets(replacingSnippets,
-                                    mappedCharBuffer);
-                            writeNewFileContent(newFileContent, mappedByteBuffer, file);
-                        }
-                    }
-
+            Set<String> searchedRuleIds = searchedRules.stream().map(i -> rules.get(i).getRule().getId())
+                    .collect(Collectors.toSet());
+            List<Integer> searchedHunks = new ArrayList<>();
+            for (int i = 0; i < hunks.size(); i++) {
+                if (skippedHunks[i]) {
+                    recorder.addSkippedSearch(hunks.get(i).getHunk());
+                    logSkippedHunk(path, hunks.get(i), variables, searchedRuleIds);
+                } else {
+                    searchedHunks.add(i);
                 }
-            } catch (Exception e) {
-                String message = new StringBuilder().append("Unable to handle ").append(path.getFileName().toString())
-                        .toString();
-                logs.add(new Log(LogLevel.ERROR, message));
             }
-        });
-    }
+            // The content is not read again when no hunk can apply
+            if (searchedHunks.isEmpty()) {
+                return false;
+            }
 
-    private String addPrefixIfNotPresent(String str, String prefix) {
-        if (str.startsWith(prefix)) {
-            return str;
-        } else {
-            return new StringBuilder().append(prefix).append(str).toString();
+            List<WindowedSearch> hunkSearches = searchedHunks.stream()
+                    .map(i -> new WindowedSearch(hunks.get(i).getLinearPattern(), null))
+                    .collect(Collectors.toList());
+            WindowedRewrite rewrite = new WindowedRewrite(patchNumber, patchMatches, searchedHunks, content,
+                    newContent, recorder);
+            scanWindows(content, hunkSearches,
+                    searchedHunks.stream().map(i -> hunks.get(i).getHunk()).collect(Collectors.toList()),
+                    Statistics.Phase.HUNKS, recorder, rewrite);
+
+            return rewrite.finish();
+        } finally {
+            compiledPatch.giveBack(patchMatches);
         }
     }
 
-    private String addSuffixIfNotPresent(String str, String prefix) {
-        if (str.endsWith(prefix)) {
-            return str;
-        } else {
-            return new StringBuilder().append(str).append(prefix).toString();
+    /**
+     * Runs searches over a content window by window. Each window starts where
+     * a match may have been cut by the end of the previous one, and is
+     * enlarged as long as a match may not fit in it.
+     *
+     * @param patterns the rules or hunks searched, for their statistics
+     */
+    private void scanWindows(FileChannel content, List<WindowedSearch> searches, List<? extends Identifiable> patterns,
+            Statistics.Phase phase, Statistics.Recorder recorder, WindowHandler handler) throws IOException {
+        long size = content.size();
+        long[] searchTimes = new long[searches.size()];
+        long windowStart = 0;
+        long firstLine = 1;
+        int windowSize = WINDOW_SIZE;
+        ByteBuffer buffer = null;
+        while (true) {
+            int length = (int) Math.min(windowSize, size - windowStart);
+            boolean last = windowStart + length == size;
+            buffer = readWindow(content, windowStart, length, buffer);
+            CharSequence text = new ByteCharSequence(buffer);
+            long nextWindowStart = windowStart + length;
+            for (int i = 0; i < searches.size(); i++) {
+                long time = System.nanoTime();
+                nextWindowStart = Math.min(nextWindowStart, searches.get(i).search(text, windowStart, last));
+                searchTimes[i] += System.nanoTime() - time;
+            }
+            if (nextWindowStart == windowStart && !last) {
+                if (windowSize == Integer.MAX_VALUE) {
+                    throw new IOException("Match larger than a window");
+                }
+                windowSize = (int) Math.min(2L * windowSize, Integer.MAX_VALUE);
+                continue;
+            }
+
+            List<MatchList> matches = new ArrayList<>();
+            for (int i = 0; i < searches.size(); i++) {
+                MatchList searchMatches = searches.get(i).commit(windowStart, nextWindowStart);
+                matches.add(searchMatches);
+                recorder.addMatches(phase, patterns.get(i), searchMatches.size(),
+                        System.nanoTime() - searchTimes[i]);
+                searchTimes[i] = 0;
+            }
+            ContentWindow window = new ContentWindow(text, windowStart,
+                    matchReportEnabled ? new LineIndex(text) : null, firstLine);
+            handler.handle(window, matches);
+            if (last) {
+                return;
+            }
+            if (matchReportEnabled) {
+                firstLine = window.getLine((int) (nextWindowStart - windowStart));
+            }
+            windowStart = nextWindowStart;
         }
     }
 
-    private Snippet generateReplacingSnippet(String finalText, String initialText, String matchingText,
-            int startPosition, int endPosition, Map<String, List<Snippet>> snippetMap) {
-        List<Snippet> innerReplacingSnippets = new ArrayList<>();
+    /**
+     * Files are matched by windows of their bytes with the linear engine,
+     * whose searches tell where the end of a window may have cut a match.
+     */
+    private boolean isWindowable(long size) {
+        return size > WINDOWED_FILE_SIZE && writer instanceof StreamingRewriteWriter
+                && compiledPatches.stream().allMatch(compiledPatch -> compiledPatch.isByteViewEnabled()
+                        && compiledPatch.getEngine() == MatchingEngine.LINEAR);
+    }
 
-        // Replace captured variables
-        Matcher capturedVariablesMatcher = Patch.CAPTURED_VARIABLE_REGEX.matcher(finalText);
-        while (capturedVariablesMatcher.find()) {
-            String capturedVariable = capturedVariablesMatcher.group(1);
-            Rule matchingRule = patch.getRules().stream().filter(rule -> rule.getName().equals(capturedVariable))
-                    .findFirst().get();
+    /**
+     * Reads rather than maps the window when matching permits are used, as
+     * {@link #read(FileChannel)}.
+     *
+     * @param buffer the buffer of the previous window, reused if large
+     *               enough, or {@code null}
+     */
+    private ByteBuffer readWindow(FileChannel channel, long position, int length, ByteBuffer buffer)
+            throws IOException {
+        if (matchingPermits == null) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
 
-            innerReplacingSnippets.add(new Snippet(snippetMap.get(matchingRule.getId()).get(0).getText(),
-                    capturedVariablesMatcher.start(1) - Patch.CAPTURING_VARIABLE_PREFIX.length(),
-                    capturedVariablesMatcher.end(1) + Patch.CAPTURING_VARIABLE_SUFFIX.length()));
+        ByteBuffer windowBuffer = buffer != null && buffer.capacity() >= length ? buffer.clear().limit(length)
+                : ByteBuffer.allocate(length);
+        while (windowBuffer.hasRemaining()
+                && channel.read(windowBuffer, position + windowBuffer.position()) >= 0) {
+            // Reads until the end of the window, or of the file if it has been shortened since
         }
 
-        String replacingText = innerReplacingSnippets.isEmpty() ? ""
-                : generateNewTextFromReplacingSnippets(innerReplacingSnippets, finalText).toString();
-
-        // Replace ellipsis
-        if (finalText.contains(Patch.ELLIPSIS_MACRO)) {
-            Matcher ellipsisMatcher = Pattern.compile(escapeText(initialText).replaceAll(Patch.ELLIPSIS_MACRO, "(.*?)"))
-                    .matcher(matchingText);
-            List<String> ellipisReplacements = new ArrayList<>();
-            while (ellipsisMatcher.find()) {
-                String capturedContent = ellipsisMatcher.group(1);
-                if (capturedContent != null) {
-                    ellipisReplacements.add(capturedContent);
+        return windowBuffer.flip();
+    }
+
+    /**
+     * @param patchNumber the position of the patch in the run, from 1
+     * @return the replacements of the given content by the patch, sorted by
+     *         position
+     */
+    private List<Snippet> generateReplacingSnippets(int patchNumber, CompiledPatch compiledPatch,
+            CharSequence content, Statistics.Recorder recorder) {
+        PatchMatches patchMatches = compiledPatch.borrowMatches();
+        try {
+            patchMatches.find(content, matchReportEnabled, recorder);
+            long time = System.nanoTime();
+
+            List<CompiledRule> rules = compiledPatch.getRules();
+            for (int i = 0; i < rules.size(); i++) {
+                if (patchMatches.getRuleMatches(i).size() > 1) {
+                    logMultipleVariableDefinitions(path, rules.get(i).getRule().getName());
                 }
             }
-            for (String replacement : ellipisReplacements) {
-                replacingText = replacingText.replace(Patch.ELLIPSIS_MACRO, replacement);
+
+            ContentWindow window = null;
+            if (matchReportEnabled) {
+                window = new ContentWindow(content, 0, new LineIndex(content), 1);
+                for (int i = 0; i < rules.size(); i++) {
+                    addMatchReports(patchNumber, MatchAction.CAPTURE, rules.get(i).getRule().getName(),
+                            patchMatches.getRuleMatches(i), window);
+                }
             }
-        }
 
-        replacingText = addPrefixIfNotPresent(replacingText, "\n");
-        replacingText = addSuffixIfNotPresent(replacingText, "\n");
+            List<CompiledHunk> hunks = compiledPatch.getHunks();
+            Set<String> searchedRuleIds = new HashSet<>();
+            for (int i = 0; i < rules.size(); i++) {
+                if (patchMatches.isRuleSearched(i)) {
+                    searchedRuleIds.add(rules.get(i).getRule().getId());
+                }
+            }
+            for (int i = 0; i < hunks.size(); i++) {
+                if (patchMatches.isHunkSkipped(i)) {
+                    logSkippedHunk(path, hunks.get(i), patchMatches.getVariables(), searchedRuleIds);
+                }
+            }
+
+            List<Snippet> replacingSnippets = new ArrayList<>();
+            // Replacements are reported once the conflicting ones are dropped
+            Map<Snippet, String> hunkNames = window != null ? new IdentityHashMap<>() : null;
+            for (int i = 0; i < hunks.size(); i++) {
+                CompiledHunk compiledHunk = hunks.get(i);
+                // Hunks are only searched once the variables they need are captured
+                if (patchMatches.getHunkMatches(i).isEmpty()) {
+                    continue;
+                }
+
+                int firstIndex = replacingSnippets.size();
+                HunkReplacer hunkReplacer = patchMatches.getHunkReplacer(i);
+                hunkReplacer.prepare(patchMatches.getVariables());
+                hunkReplacer.replace(patchMatches.getHunkMatches(i), replacingSnippets);
+                if (hunkNames != null) {
+                    for (Snippet snippet : replacingSnippets.subList(firstIndex, replacingSnippets.size())) {
+                        hunkNames.put(snippet, compiledHunk.getHunk().getName());
+                    }
+                }
+            }
+            replacingSnippets.sort(Comparator.comparingInt(Snippet::getStart));
+            List<Snippet> appliedSnippets = hunkNames != null ? new ArrayList<>() : null;
+            List<Snippet> sortedSnippets = removeOverlaps(replacingSnippets, content, appliedSnippets);
+            if (appliedSnippets != null) {
+                for (Snippet snippet : appliedSnippets) {
+                    addMatchReport(patchNumber, MatchAction.REPLACE, hunkNames.get(snippet), snippet.getStart(),
+                            snippet.getEnd(), window);
+                }
+            }
+            recorder.addTime(Statistics.Phase.REWRITE, time);
 
-        return new Snippet(replacingText, startPosition, endPosition);
+            return sortedSnippets;
+        } finally {
+            compiledPatch.giveBack(patchMatches);
+        }
     }
 
-    private String escapeText(String text) {
-        String escapedText = text.replaceAll("\\s+", "\\\\s*") // whitespaces
-                .replaceAll("\\(", "\\\\(") // left parenthesis
-                .replaceAll("\\)", "\\\\)") // right parenthesis
-                .replaceAll("\\{", "\\\\{") // left brace
-                .replaceAll("\\}", "\\\\}") // right brace
-        ;
-        escapedText = addPrefixIfNotPresent(escapedText, "\\s*");
-        escapedText = addSuffixIfNotPresent(escapedText, "\\s*");
-
-        return escapedText;
+    /**
+     * Matches include their leading and trailing whitespaces, so hunks matching
+     * adjacent lines overlap on the whitespaces between them, which are left to
+     * the first replacement. Replacements overlapping on anything else conflict
+     * and the latter is dropped.
+     *
+     * @param appliedSnippets receives the given snippets that are not dropped,
+     *                        as they were before being trimmed, or
+     *                        {@code null}
+     */
+    private List<Snippet> removeOverlaps(List<Snippet> sortedSnippets, CharSequence content,
+            List<Snippet> appliedSnippets) {
+        List<Snippet> snippets = new ArrayList<>();
+        for (Snippet snippet : sortedSnippets) {
+            Snippet previousSnippet = snippets.isEmpty() ? null : snippets.get(snippets.size() - 1);
+            if (previousSnippet == null || snippet.getStart() >= previousSnippet.getEnd()) {
+                snippets.add(snippet);
+                if (appliedSnippets != null) {
+                    appliedSnippets.add(snippet);
+                }
+            } else if (snippet.getEnd() >= previousSnippet.getEnd()
+                    && isBlank(content, snippet.getStart(), previousSnippet.getEnd())) {
+                String text = snippet.getText();
+                if (previousSnippet.getText().endsWith("\n") && text.startsWith("\n")) {
+                    text = text.substring(1);
+                }
+                snippets.add(new Snippet(text, previousSnippet.getEnd(), snippet.getEnd()));
+                if (appliedSnippets != null) {
+                    appliedSnippets.add(snippet);
+                }
+            } else {
+                logOverlappingMatches(path, snippet.getStart());
+            }
+        }
+
+        return snippets;
     }
 
-    private StringBuilder generateNewTextFromReplacingSnippets(List<Snippet> replacingSnippets,
-            CharSequence initialText) {
-        replacingSnippets.sort(Comparator.comparing(Snippet::getStart));
+    /**
+     * @param matches the matches of the given window
+     */
+    private void addMatchReports(int patchNumber, MatchAction action, String name, MatchList matches,
+            ContentWindow window) {
+        for (int i = 0; i < matches.size(); i++) {
+            addMatchReport(patchNumber, action, name, matches.getStart(i), matches.getEnd(i), window);
+        }
+    }
 
-        StringBuilder newFileContent = new StringBuilder()
-                .append(initialText.subSequence(0, replacingSnippets.get(0).getStart()));
-        int i = 0;
-        do {
-            newFileContent = newFileContent.append(replacingSnippets.get(i).getText());
-            if (i + 1 < replacingSnippets.size()) {
-                newFileContent = newFileContent.append(initialText.subSequence(replacingSnippets.get(i).getEnd(),
-                        replacingSnippets.get(i + 1).getStart()));
-            }
-            i++;
-        } while (i < replacingSnippets.size());
+    private void addMatchReport(int patchNumber, MatchAction action, String name, int start, int end,
+            ContentWindow window) {
+        int lastPosition = Math.max(start, end - 1);
+        matches.add(new MatchReport(patchNumber, action, name, window.start + start, window.start + end,
+                window.getLine(start), window.getLine(lastPosition)));
+    }
 
-        return newFileContent.append(initialText
-                .subSequence(replacingSnippets.get(replacingSnippets.size() - 1).getEnd(), initialText.length()));
+    /**
+     * Logs that a hunk was not searched, with its variables that a rule
+     * searched or naming a file did not capture.
+     *
+     * @param variables       the first capture of each rule, by rule id
+     * @param searchedRuleIds the ids of the rules searched in the file
+     */
+    private void logSkippedHunk(Path file, CompiledHunk compiledHunk, Map<String, ? extends CharSequence> variables,
+            Set<String> searchedRuleIds) {
+        List<String> missingVariables = Stream
+                .concat(compiledHunk.getFinalVariables().stream(), compiledHunk.getInitialVariables().stream())
+                .map(VariableReference::getRule)
+                .filter(rule -> !variables.containsKey(rule.getId())
+                        && (rule.getFilename() != null || searchedRuleIds.contains(rule.getId())))
+                .map(Rule::getName).distinct().collect(Collectors.toList());
+
+        StringBuilder log = new StringBuilder().append("File ").append(file.toString()).append(": Skipped hunk '")
+                .append(compiledHunk.getHunk().getName()).append("', missing variable")
+                .append(missingVariables.size() > 1 ? "s " : " ");
+        for (int i = 0; i < missingVariables.size(); i++) {
+            log.append(i > 0 ? ", '" : "'").append(missingVariables.get(i)).append("'");
+        }
+        logs.add(new Log(LogLevel.INFO, log.toString()));
     }
 
-    private void logMissingVariable(Path file, String variable) {
-        String log = new StringBuilder().append("File ").append(file.toString()).append(": Missing variable '")
-                .append(variable).append("'").toString();
+    private void logOverlappingMatches(Path file, long position) {
+        String log = new StringBuilder().append("File ").append(file.toString())
+                .append(": Ignored match overlapping another one at offset ").append(position).toString();
         logs.add(new Log(LogLevel.INFO, log));
     }
 
@@ -251,62 +649,216 @@ public class PatchMatcher implements Callable<List<Log>> {
         logs.add(new Log(LogLevel.INFO, log));
     }
 
-    private Map<String, List<Snippet>> populateSnippetMap(CharSequence mappedCharBuffer) {
-        Map<String, List<Snippet>> snippetMap = Stream
-                .concat(patch.getRules().stream().map(Rule::getId), patch.getHunks().stream().map(Hunk::getId))
-                .collect(Collectors.toMap(id -> id, id -> new ArrayList<>()));
-
-        patch.getRules().forEach(rule -> {
-            String str = new StringBuilder().append("(?<").append(rule.getId()).append(">.+)").toString();
-            Pattern regex = Pattern.compile(escapeText(rule.getLines().stream().collect(Collectors.joining("\n")))
-                    .replaceAll(Patch.ELLIPSIS_MACRO, ".*?").replaceAll(Patch.CAPTURING_VARIABLE_MACRO, str));
-            Matcher ruleMatcher = regex.matcher(mappedCharBuffer);
-            while (ruleMatcher.find()) {
-                String ruleText = ruleMatcher.group(rule.getId());
-                if (ruleText != null) {
-                    int groupStart = ruleMatcher.start(rule.getId());
-                    int groupEnd = ruleMatcher.end(rule.getId());
-                    snippetMap.get(rule.getId()).add(new Snippet(ruleText, groupStart, groupEnd));
-                }
-            }
-        });
-
-        patch.getHunks().forEach(hunk -> {
-            String str = escapeText(hunk.getInitialLines().stream().collect(Collectors.joining("\n")))
-                    .replaceAll(Patch.ELLIPSIS_MACRO, ".*?").replaceAll(Patch.CAPTURED_VARIABLE_REGEX.pattern(), ".+");
-
-            Pattern regex = Pattern.compile(new StringBuilder().append("(?<").append(hunk.getId()).append(">")
-                    .append(str).append(")").toString());
-            Matcher hunkMatcher = regex.matcher(mappedCharBuffer);
-            while (hunkMatcher.find()) {
-                String hunkText = hunkMatcher.group(hunk.getId());
-                if (hunkText != null) {
-                    int groupStart = hunkMatcher.start(hunk.getId());
-                    int groupEnd = hunkMatcher.end(hunk.getId());
-                    snippetMap.get(hunk.getId()).add(new Snippet(hunkText, groupStart, groupEnd));
-                }
-            }
-        });
+    private static ByteBuffer read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Reads until the end of the file, which may have been shortened since
+        }
 
-        return snippetMap;
+        return buffer.flip();
     }
 
-    private void writeNewFileContent(StringBuilder newFileContent, MappedByteBuffer mappedByteBuffer,
-            RandomAccessFile file) throws IOException {
-        file.setLength(newFileContent.length());
-        mappedByteBuffer = file.getChannel().map(MapMode.READ_WRITE, 0, file.length());
-        mappedByteBuffer.clear();
-        mappedByteBuffer.limit(newFileContent.length());
-        mappedByteBuffer.put(newFileContent.toString().getBytes());
+    private static boolean isBlank(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!LinearPattern.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     ///////////////////////////////////////////////////////////////////////////////
 
     @Override
-    public List<Log> call() {
+    public FileReport call() {
         match();
+        try {
+            writer.processed(path);
+        } catch (IOException e) {
+            String message = new StringBuilder().append("Unable to handle ").append(path.getFileName().toString())
+                    .toString();
+            logs.add(new Log(LogLevel.ERROR, message));
+        }
+
+        return new FileReport(path, logs, matches);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A part of a content, or the whole content, with what is needed to report
+     * its matches by position in the content.
+     */
+    private static class ContentWindow {
+
+        private final CharSequence text;
+        private final long start;
+        private final LineIndex lineIndex;
+        private final long firstLine;
+
+        /**
+         * @param lineIndex the index of the lines of the window, or
+         *                  {@code null} if no match is reported
+         * @param firstLine the line of the content the window starts in
+         */
+        private ContentWindow(CharSequence text, long start, LineIndex lineIndex, long firstLine) {
+            this.text = text;
+            this.start = start;
+            this.lineIndex = lineIndex;
+            this.firstLine = firstLine;
+        }
+
+        /**
+         * @return the line of the content of the given position of the window
+         */
+        private long getLine(int position) {
+            return firstLine + lineIndex.getLine(position) - 1;
+        }
+
+    }
+
+    private interface WindowHandler {
+
+        /**
+         * @param matches the matches kept by each search, positioned in the
+         *                window
+         */
+        void handle(ContentWindow window, List<MatchList> matches) throws IOException;
+
+    }
+
+    /**
+     * Writes the new content of a patch applied by windows: each replacement
+     * is written along with the content before it as soon as it is found, the
+     * matches of a window being sorted and freed of overlaps as in a whole
+     * content.
+     */
+    private class WindowedRewrite implements WindowHandler {
+
+        private final int patchNumber;
+        private final PatchMatches patchMatches;
+        private final FileChannel content;
+        private final FileChannel newContent;
+        private final Statistics.Recorder recorder;
+        // The hunks searched, and whether each hunk was prepared on its first
+        // matches
+        private final List<Integer> hunkIndexes;
+        private final boolean[] preparedHunks;
+        private final List<Snippet> replacingSnippets;
+        // The hunk of each replacement of the window, reported once applied
+        private final Map<Snippet, String> hunkNames;
+
+        private long position;
+        private long previousEnd;
+        private String previousText;
+        private boolean modified;
+
+        /**
+         * @param patchMatches holds the variables, captured in the whole
+         *                     content beforehand
+         * @param hunkIndexes  the hunks whose matches are handled, in the
+         *                     order of the searches
+         */
+        private WindowedRewrite(int patchNumber, PatchMatches patchMatches, List<Integer> hunkIndexes,
+                FileChannel content, FileChannel newContent, Statistics.Recorder recorder) {
+            this.patchNumber = patchNumber;
+            this.patchMatches = patchMatches;
+            this.content = content;
+            this.newContent = newContent;
+            this.recorder = recorder;
+            this.hunkIndexes = hunkIndexes;
+            this.preparedHunks = new boolean[patchMatches.getCompiledPatch().getHunks().size()];
+            this.replacingSnippets = new ArrayList<>();
+            this.hunkNames = new IdentityHashMap<>();
+        }
+
+        @Override
+        public void handle(ContentWindow window, List<MatchList> matches) throws IOException {
+            long time = System.nanoTime();
+            replacingSnippets.clear();
+            for (int i = 0; i < matches.size(); i++) {
+                int hunk = hunkIndexes.get(i);
+                CompiledHunk compiledHunk = patchMatches.getCompiledPatch().getHunks().get(hunk);
+                if (matches.get(i).isEmpty()) {
+                    continue;
+                }
+                if (!preparedHunks[hunk]) {
+                    preparedHunks[hunk] = true;
+                    patchMatches.getHunkReplacer(hunk).prepare(patchMatches.getVariables());
+                }
+
+                int firstIndex = replacingSnippets.size();
+                patchMatches.getHunkReplacer(hunk).replace(matches.get(i), replacingSnippets);
+                if (matchReportEnabled) {
+                    for (Snippet snippet : replacingSnippets.subList(firstIndex, replacingSnippets.size())) {
+                        hunkNames.put(snippet, compiledHunk.getHunk().getName());
+                    }
+                }
+            }
+            replacingSnippets.sort(Comparator.comparingInt(Snippet::getStart));
+
+            // Same as removeOverlaps(), the previous replacement being possibly in a previous window
+            for (Snippet snippet : replacingSnippets) {
+                long start = window.start + snippet.getStart();
+                long end = window.start + snippet.getEnd();
+                if (start >= previousEnd) {
+                    write(start, end, snippet.getText());
+                } else if (end >= previousEnd
+                        && isBlank(window.text, snippet.getStart(), (int) (previousEnd - window.start))) {
+                    String text = snippet.getText();
+                    if (previousText.endsWith("\n") && text.startsWith("\n")) {
+                        text = text.substring(1);
+                    }
+                    write(previousEnd, end, text);
+                } else {
+                    logOverlappingMatches(path, start);
+                    continue;
+                }
+                if (matchReportEnabled) {
+                    addMatchReport(patchNumber, MatchAction.REPLACE, hunkNames.get(snippet), snippet.getStart(),
+                            snippet.getEnd(), window);
+                }
+            }
+            hunkNames.clear();
+            recorder.addTime(Statistics.Phase.REWRITE, time);
+        }
+
+        /**
+         * Writes the content after the last replacement.
+         *
+         * @return {@code true} if the content was modified
+         */
+        private boolean finish() throws IOException {
+            if (modified) {
+                transfer(content.size());
+            }
+
+            return modified;
+        }
+
+        private void transfer(long end) throws IOException {
+            while (position < end) {
+                long byteNb = content.transferTo(position, end - position, newContent);
+                if (byteNb <= 0) {
+                    throw new IOException("Content shortened while rewritten");
+                }
+                position += byteNb;
+            }
+        }
+
+        private void write(long start, long end, String text) throws IOException {
+            transfer(start);
+            ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(patchMatches.getCompiledPatch().getContentCharset()));
+            while (bytes.hasRemaining()) {
+                newContent.write(bytes);
+            }
+            position = end;
+            previousEnd = end;
+            previousText = text;
+            modified = true;
+        }
 
-        return logs;
     }
 
 }
@@ -0,0 +1,317 @@
+package com.yac.gpatch.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.yac.gpatch.model.Hunk;
+import com.yac.gpatch.model.Rule;
+import com.yac.gpatch.util.stats.Statistics;
+
+/**
+ * The matches of the rules and hunks of a patch in a content, with everything
+ * needed to find them and to generate their replacements.
+ *
+ * Instances are borrowed from their compiled patch and given back once a
+ * file is matched, so that the next file reuses their matchers, lists and
+ * index instead of allocating its own.
+ *
+ * The rules and hunks of a large content are searched by parallel tasks of the
+ * pool matching the file, the linear patterns region by region, so that a
+ * huge file does not keep a single thread busy while the others are idle.
+ */
+class PatchMatches {
+
+    // Contents from this length are searched in parallel, in regions of the
+    // given length
+    private static final int PARALLEL_CONTENT_LENGTH = 4 * 1024 * 1024;
+    private static final int REGION_LENGTH = 1024 * 1024;
+
+    private final CompiledPatch compiledPatch;
+    private final MatchList[] ruleMatches;
+    private final MatchList[] hunkMatches;
+    private final HunkReplacer[] hunkReplacers;
+    // The first capture of each rule, by id, the rules naming a file included
+    private final Map<String, CharSequence> variables;
+    // The hunks not searched since a rule they need has no match, the rules
+    // searched, and the rules then hunks to search in parallel
+    private final boolean[] skippedHunks;
+    private final boolean[] searchedRules;
+    private final int[] parallelSearches;
+    // Rules then hunks, created on their first content
+    private final LinearPattern.Matcher[] linearMatchers;
+    private final Matcher[] regexMatchers;
+
+    private ContentIndex index;
+
+    PatchMatches(CompiledPatch compiledPatch) {
+        this.compiledPatch = compiledPatch;
+        int ruleNb = compiledPatch.getRules().size();
+        int hunkNb = compiledPatch.getHunks().size();
+        this.ruleMatches = new MatchList[ruleNb];
+        this.hunkMatches = new MatchList[hunkNb];
+        this.hunkReplacers = new HunkReplacer[hunkNb];
+        for (int i = 0; i < ruleNb; i++) {
+            ruleMatches[i] = new MatchList();
+        }
+        for (int i = 0; i < hunkNb; i++) {
+            hunkMatches[i] = new MatchList();
+            hunkReplacers[i] = new HunkReplacer(compiledPatch, compiledPatch.getHunks().get(i));
+        }
+        this.variables = new HashMap<>();
+        this.skippedHunks = new boolean[hunkNb];
+        this.searchedRules = new boolean[ruleNb];
+        this.parallelSearches = new int[ruleNb + hunkNb];
+        this.linearMatchers = new LinearPattern.Matcher[ruleNb + hunkNb];
+        this.regexMatchers = new Matcher[ruleNb + hunkNb];
+    }
+
+    /**
+     * Forgets the matches and variables of the last content, and any
+     * reference to it.
+     *
+     * @param content the next content, or {@code null}
+     */
+    void clear(CharSequence content) {
+        for (MatchList matches : ruleMatches) {
+            matches.clear(content);
+        }
+        for (MatchList matches : hunkMatches) {
+            matches.clear(content);
+        }
+        for (HunkReplacer hunkReplacer : hunkReplacers) {
+            hunkReplacer.clear();
+        }
+        variables.clear();
+        Arrays.fill(skippedHunks, false);
+        Arrays.fill(searchedRules, false);
+        for (int i = 0; i < linearMatchers.length; i++) {
+            if (linearMatchers[i] != null) {
+                linearMatchers[i].reset("");
+            }
+            if (regexMatchers[i] != null) {
+                regexMatchers[i].reset("");
+            }
+        }
+    }
+
+    /**
+     * Finds the matches of the rules and hunks in the given content, each
+     * rule capturing the variable of its first match. A hunk is not searched
+     * once a rule it needs has no match, nor a rule that no hunk still
+     * searched needs, as planned by {@link SearchPlan}.
+     *
+     * @param allRules whether to search every rule, for its captures
+     * @param recorder records the time and number of matches of each rule and
+     *                 hunk, or that it was skipped
+     */
+    void find(CharSequence content, boolean allRules, Statistics.Recorder recorder) {
+        clear(content);
+        List<CompiledRule> rules = compiledPatch.getRules();
+        List<CompiledHunk> hunks = compiledPatch.getHunks();
+        SearchPlan plan = compiledPatch.getSearchPlan();
+
+        long time = System.nanoTime();
+        ContentIndex contentIndex = compiledPatch.isContentIndexed() ? ContentIndex.build(content, index) : null;
+        if (compiledPatch.isContentIndexed()) {
+            index = contentIndex != null ? contentIndex : index;
+            time = recorder.addTime(Statistics.Phase.INDEX, time);
+        }
+
+        variables.putAll(compiledPatch.getSharedVariables());
+        plan.skipUnboundHunks(skippedHunks);
+
+        // Rules searched in parallel cannot spare each other their searches
+        boolean parallel = content.length() >= PARALLEL_CONTENT_LENGTH;
+        int searchNb = 0;
+        for (int rule : plan.getRuleOrder()) {
+            if (!allRules && !plan.isRuleNeeded(rule, skippedHunks)) {
+                recorder.addSkippedSearch(rules.get(rule).getRule());
+                continue;
+            }
+            searchedRules[rule] = true;
+            if (parallel) {
+                parallelSearches[searchNb++] = rule;
+            } else {
+                findMatches(rule, content, contentIndex, false);
+                time = addMatches(rule, recorder, time);
+                if (ruleMatches[rule].isEmpty()) {
+                    plan.skipHunksNeeding(rule, skippedHunks);
+                }
+            }
+        }
+        if (parallel) {
+            findInParallel(searchNb, content, contentIndex, recorder);
+            for (int i = 0; i < searchNb; i++) {
+                if (ruleMatches[parallelSearches[i]].isEmpty()) {
+                    plan.skipHunksNeeding(parallelSearches[i], skippedHunks);
+                }
+            }
+        }
+
+        searchNb = 0;
+        for (int hunk = 0; hunk < hunks.size(); hunk++) {
+            if (skippedHunks[hunk]) {
+                recorder.addSkippedSearch(hunks.get(hunk).getHunk());
+            } else if (parallel) {
+                parallelSearches[searchNb++] = rules.size() + hunk;
+            } else {
+                findMatches(rules.size() + hunk, content, contentIndex, false);
+                time = addMatches(rules.size() + hunk, recorder, time);
+            }
+        }
+        if (parallel) {
+            findInParallel(searchNb, content, contentIndex, recorder);
+        }
+
+        for (int i = 0; i < rules.size(); i++) {
+            if (!ruleMatches[i].isEmpty()) {
+                variables.put(rules.get(i).getRule().getId(), ruleMatches[i].getText(0));
+            }
+        }
+    }
+
+    CompiledPatch getCompiledPatch() {
+        return compiledPatch;
+    }
+
+    MatchList getHunkMatches(int i) {
+        return hunkMatches[i];
+    }
+
+    HunkReplacer getHunkReplacer(int i) {
+        return hunkReplacers[i];
+    }
+
+    MatchList getRuleMatches(int i) {
+        return ruleMatches[i];
+    }
+
+    /**
+     * @return {@code true} if the given hunk was not searched in the last
+     *         content, a rule it needs having no match
+     */
+    boolean isHunkSkipped(int i) {
+        return skippedHunks[i];
+    }
+
+    /**
+     * @return {@code true} if the given rule was searched in the last content
+     */
+    boolean isRuleSearched(int i) {
+        return searchedRules[i];
+    }
+
+    /**
+     * @return the first capture of each rule that matched, by rule id
+     */
+    Map<String, CharSequence> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Adds the matches of a rule or hunk, given by its index among the rules
+     * then hunks, to the statistics.
+     *
+     * @return the end of the matching
+     */
+    private long addMatches(int patternIndex, Statistics.Recorder recorder, long start) {
+        int hunkIndex = patternIndex - ruleMatches.length;
+        if (hunkIndex < 0) {
+            Rule rule = compiledPatch.getRules().get(patternIndex).getRule();
+
+            return recorder.addMatches(Statistics.Phase.RULES, rule, ruleMatches[patternIndex].size(), start);
+        }
+
+        Hunk hunk = compiledPatch.getHunks().get(hunkIndex).getHunk();
+
+        return recorder.addMatches(Statistics.Phase.HUNKS, hunk, hunkMatches[hunkIndex].size(), start);
+    }
+
+    /**
+     * Searches the first rules and hunks of the parallel searches by parallel
+     * tasks, which only read the content and index and each fill their own
+     * list.
+     */
+    private void findInParallel(int searchNb, CharSequence content, ContentIndex contentIndex,
+            Statistics.Recorder recorder) {
+        long[] durations = new long[searchNb];
+        List<ForkJoinTask<?>> searches = new ArrayList<>(searchNb);
+        for (int i = 0; i < searchNb; i++) {
+            int search = i;
+            searches.add(ForkJoinTask.adapt(() -> {
+                long start = System.nanoTime();
+                findMatches(parallelSearches[search], content, contentIndex, true);
+                durations[search] = System.nanoTime() - start;
+            }));
+        }
+        ForkJoinTask.invokeAll(searches);
+        for (int i = 0; i < searchNb; i++) {
+            addMatches(parallelSearches[i], recorder, System.nanoTime() - durations[i]);
+        }
+    }
+
+    /**
+     * Finds the matches of a rule or hunk, given by its index among the rules
+     * then hunks.
+     *
+     * @param byRegion whether to search a linear pattern region by region,
+     *                 in parallel tasks
+     */
+    private void findMatches(int patternIndex, CharSequence content, ContentIndex contentIndex, boolean byRegion) {
+        int hunkIndex = patternIndex - ruleMatches.length;
+        CompiledRule rule = hunkIndex < 0 ? compiledPatch.getRules().get(patternIndex) : null;
+        CompiledHunk hunk = hunkIndex < 0 ? null : compiledPatch.getHunks().get(hunkIndex);
+        MatchList matches = hunkIndex < 0 ? ruleMatches[patternIndex] : hunkMatches[hunkIndex];
+
+        if (compiledPatch.getEngine() == MatchingEngine.REGEX) {
+            Pattern pattern = rule != null ? rule.getPattern() : hunk.getPattern();
+            String group = rule != null ? rule.getRule().getId() : hunk.getHunk().getId();
+            findRegexMatches(patternIndex, pattern, group, content, matches);
+        } else {
+            LinearPattern pattern = rule != null ? rule.getLinearPattern() : hunk.getLinearPattern();
+            String group = rule != null ? rule.getRule().getId() : null;
+            if (byRegion) {
+                RegionSearch.findMatches(pattern, group, content, contentIndex, REGION_LENGTH, matches);
+            } else {
+                findLinearMatches(patternIndex, pattern, group, content, contentIndex, matches);
+            }
+        }
+    }
+
+    /**
+     * @param group the group of the snippets, or {@code null} for the whole
+     *              matches
+     */
+    private void findLinearMatches(int patternIndex, LinearPattern pattern, String group, CharSequence content,
+            ContentIndex contentIndex, MatchList matches) {
+        LinearPattern.Matcher matcher = linearMatchers[patternIndex] == null ? pattern.matcher(content, contentIndex)
+                : linearMatchers[patternIndex].reset(content, contentIndex);
+        linearMatchers[patternIndex] = matcher;
+        while (matcher.find()) {
+            if (group == null) {
+                matches.add(matcher.start(0), matcher.end(0));
+            } else if (matcher.start(group) != -1) {
+                matches.add(matcher.start(group), matcher.end(group));
+            }
+        }
+    }
+
+    private void findRegexMatches(int patternIndex, Pattern pattern, String group, CharSequence content,
+            MatchList matches) {
+        Matcher matcher = regexMatchers[patternIndex] == null ? pattern.matcher(content)
+                : regexMatchers[patternIndex].reset(content);
+        regexMatchers[patternIndex] = matcher;
+        while (matcher.find()) {
+            if (matcher.start(group) != -1) {
+                matches.add(matcher.start(group), matcher.end(group));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.yac.gpatch.matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches a pattern in a region of a content, concurrently with the other
+ * regions, the matches of all the regions being the ones of a search over the
+ * whole content.
+ *
+ * The matches of a region are the ones starting in it, searched from its
+ * start. Their length is not bounded, so the regions cannot overlap enough
+ * for a match running over the end of a region to be found again in the next
+ * one. Instead, the whole search going on from the end of such a match, the
+ * matches of the next region are kept from the first one whose search started
+ * before that end, both searches finding the same matches from there. The
+ * region is only searched again if there is none.
+ */
+class RegionSearch extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LinearPattern pattern;
+    private final String group;
+    private final CharSequence content;
+    private final ContentIndex index;
+    private final int start;
+    private final int end;
+    // The whole matches of the region, and their groups, starting at -1 when
+    // not captured
+    private final MatchList matches;
+    private final MatchList groups;
+
+    private RegionSearch(LinearPattern pattern, String group, CharSequence content, ContentIndex index, int start,
+            int end) {
+        this.pattern = pattern;
+        this.group = group;
+        this.content = content;
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.matches = new MatchList();
+        this.groups = new MatchList();
+    }
+
+    /**
+     * Finds the matches of a pattern in a content by searching its regions in
+     * parallel tasks.
+     *
+     * @param group    the group whose text is the snippet of a match, or
+     *                 {@code null} for the whole match
+     * @param snippets receives the snippets of the matches
+     */
+    static void findMatches(LinearPattern pattern, String group, CharSequence content, ContentIndex index,
+            int regionLength, MatchList snippets) {
+        List<RegionSearch> regions = new ArrayList<>();
+        // An empty content still has a region, for its empty matches
+        int start = 0;
+        do {
+            // The last region also gets the empty matches at the end of the content
+            int end = content.length() - start > regionLength ? start + regionLength : Integer.MAX_VALUE;
+            regions.add(new RegionSearch(pattern, group, content, index, start, end));
+            start += regionLength;
+        } while (start < content.length());
+        ForkJoinTask.invokeAll(regions);
+
+        int searchPosition = 0;
+        for (RegionSearch region : regions) {
+            if (searchPosition >= region.end) {
+                continue;
+            }
+
+            int first = region.findFirstMatchInStep(searchPosition);
+            if (first == -1) {
+                region.search(searchPosition);
+                first = 0;
+            }
+            for (int i = first; i < region.matches.size(); i++) {
+                if (region.groups.getStart(i) != -1) {
+                    snippets.add(region.groups.getStart(i), region.groups.getEnd(i));
+                }
+                searchPosition = region.getNextSearchPosition(i);
+            }
+        }
+    }
+
+    @Override
+    protected void compute() {
+        search(start);
+    }
+
+    /**
+     * @param searchPosition the position the whole search goes on from, at
+     *                       most the start of the region if no match of the
+     *                       region before runs over it
+     * @return the first match of the region the whole search finds, or -1 if
+     *         the region has to be searched again from the given position
+     */
+    private int findFirstMatchInStep(int searchPosition) {
+        if (searchPosition <= start) {
+            return 0;
+        }
+
+        int regionSearchPosition = start;
+        int i = 0;
+        while (i < matches.size() && matches.getStart(i) < searchPosition) {
+            regionSearchPosition = getNextSearchPosition(i);
+            i++;
+        }
+
+        return regionSearchPosition <= searchPosition ? i : -1;
+    }
+
+    /**
+     * As the matcher, skips a character after an empty match.
+     */
+    private int getNextSearchPosition(int i) {
+        return matches.getEnd(i) == matches.getStart(i) ? matches.getEnd(i) + 1 : matches.getEnd(i);
+    }
+
+    private void search(int searchPosition) {
+        matches.clear(content);
+        groups.clear(content);
+        LinearPattern.Matcher matcher = pattern.matcher(content, index).limitStarts(end);
+        boolean found = matcher.find(searchPosition);
+        while (found) {
+            matches.add(matcher.start(0), matcher.end(0));
+            if (group == null) {
+                groups.add(matcher.start(0), matcher.end(0));
+            } else {
+                groups.add(matcher.start(group), matcher.end(group));
+            }
+            found = matcher.find();
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.yac.gpatch.matcher;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.yac.gpatch.model.Rule;
+
+/**
+ * The order the rules of a patch are searched in, and the hunks using the
+ * variables of each rule, found once per patch.
+ *
+ * A hunk cannot apply to a content in which a rule it uses a variable of has
+ * no match, so it is not searched there, and a rule is only searched while a
+ * hunk needing it may still apply. Rules are searched by decreasing length of
+ * their anchor, so that the hunks that cannot apply may be known early. This
+ * is a heuristic, a longer literal being assumed to be rarer, and not a
+ * measured selectivity; the order only changes the rules searched, never the
+ * replacements.
+ *
+ * The rules naming a file are not searched in the files to patch, their
+ * captures being known beforehand, and the hunks needing one that captured
+ * nothing are never searched.
+ */
+class SearchPlan {
+
+    private final int[] ruleOrder;
+    // The hunks using variables of each rule
+    private final int[][] ruleHunks;
+    private final boolean[] unboundHunks;
+
+    /**
+     * Plans the searches of the given rules and hunks, before the rules naming
+     * a file capture anything.
+     */
+    SearchPlan(List<CompiledRule> rules, List<CompiledHunk> hunks) {
+        this.ruleOrder = IntStream.range(0, rules.size()).boxed()
+                .filter(i -> rules.get(i).getRule().getFilename() == null)
+                .sorted(Comparator.comparingInt((Integer i) -> getAnchorLength(rules.get(i))).reversed())
+                .mapToInt(Integer::intValue).toArray();
+        // Each hunk is added to the rules it references, in a single pass over
+        // the hunks
+        Map<Rule, Integer> ruleIndexes = new IdentityHashMap<>();
+        for (int rule = 0; rule < rules.size(); rule++) {
+            ruleIndexes.putIfAbsent(rules.get(rule).getRule(), rule);
+        }
+        List<Set<Integer>> hunksByRule = new ArrayList<>();
+        for (int rule = 0; rule < rules.size(); rule++) {
+            hunksByRule.add(new LinkedHashSet<>());
+        }
+        for (int hunk = 0; hunk < hunks.size(); hunk++) {
+            int hunkIndex = hunk;
+            Stream.concat(hunks.get(hunk).getInitialVariables().stream(),
+                    hunks.get(hunk).getFinalVariables().stream()).map(reference -> ruleIndexes.get(reference.getRule()))
+                    .filter(Objects::nonNull).forEach(rule -> hunksByRule.get(rule).add(hunkIndex));
+        }
+        this.ruleHunks = hunksByRule.stream().map(ruleHunkSet -> ruleHunkSet.stream().mapToInt(Integer::intValue)
+                .toArray()).toArray(int[][]::new);
+        this.unboundHunks = findUnboundHunks(rules, ruleHunks, hunks.size(), Collections.emptyMap());
+    }
+
+    private SearchPlan(int[] ruleOrder, int[][] ruleHunks, boolean[] unboundHunks) {
+        this.ruleOrder = ruleOrder;
+        this.ruleHunks = ruleHunks;
+        this.unboundHunks = unboundHunks;
+    }
+
+    /**
+     * Reads a plan written by {@link #write(DataOutputStream)}.
+     *
+     * @throws IllegalArgumentException if the plan does not fit the given
+     *                                  rules and hunks
+     */
+    static SearchPlan read(ByteBuffer buffer, List<CompiledRule> rules, int hunkNb) {
+        int[] ruleOrder = BinaryPatchFile.readInts(buffer, rules.size());
+        int[][] ruleHunks = new int[BinaryPatchFile.readCount(buffer)][];
+        if (ruleHunks.length != rules.size()) {
+            throw new IllegalArgumentException("Invalid search plan");
+        }
+        for (int rule = 0; rule < ruleHunks.length; rule++) {
+            ruleHunks[rule] = BinaryPatchFile.readInts(buffer, hunkNb);
+        }
+
+        return new SearchPlan(ruleOrder, ruleHunks, findUnboundHunks(rules, ruleHunks, hunkNb,
+                Collections.emptyMap()));
+    }
+
+    /**
+     * @param sharedVariables the captures of the rules naming a file, by rule
+     *                        id
+     * @return this plan, for the given captures of the rules naming a file
+     */
+    SearchPlan bind(List<CompiledRule> rules, Map<String, String> sharedVariables) {
+        return new SearchPlan(ruleOrder, ruleHunks,
+                findUnboundHunks(rules, ruleHunks, unboundHunks.length, sharedVariables));
+    }
+
+    /**
+     * @return the rules to search in each file, the first to search first
+     */
+    int[] getRuleOrder() {
+        return ruleOrder;
+    }
+
+    /**
+     * @param skippedHunks the hunks that cannot apply, by index
+     * @return {@code true} if a hunk that may apply uses a variable of the
+     *         given rule
+     */
+    boolean isRuleNeeded(int rule, boolean[] skippedHunks) {
+        for (int hunk : ruleHunks[rule]) {
+            if (!skippedHunks[hunk]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks as skipped the hunks using a variable of a rule naming a file that
+     * captured nothing.
+     */
+    void skipUnboundHunks(boolean[] skippedHunks) {
+        for (int hunk = 0; hunk < unboundHunks.length; hunk++) {
+            skippedHunks[hunk] |= unboundHunks[hunk];
+        }
+    }
+
+    /**
+     * Marks as skipped the hunks using a variable of a rule with no match.
+     */
+    void skipHunksNeeding(int rule, boolean[] skippedHunks) {
+        for (int hunk : ruleHunks[rule]) {
+            skippedHunks[hunk] = true;
+        }
+    }
+
+    void write(DataOutputStream output) throws IOException {
+        BinaryPatchFile.writeInts(output, ruleOrder);
+        output.writeInt(ruleHunks.length);
+        for (int[] hunks : ruleHunks) {
+            BinaryPatchFile.writeInts(output, hunks);
+        }
+    }
+
+    /**
+     * @return the hunks using a variable of a rule naming a file that captured
+     *         nothing, by index
+     */
+    private static boolean[] findUnboundHunks(List<CompiledRule> rules, int[][] ruleHunks, int hunkNb,
+            Map<String, String> sharedVariables) {
+        boolean[] unboundHunks = new boolean[hunkNb];
+        for (int rule = 0; rule < rules.size(); rule++) {
+            Rule capturingRule = rules.get(rule).getRule();
+            if (capturingRule.getFilename() != null && !sharedVariables.containsKey(capturingRule.getId())) {
+                for (int hunk : ruleHunks[rule]) {
+                    unboundHunks[hunk] = true;
+                }
+            }
+        }
+
+        return unboundHunks;
+    }
+
+    private static int getAnchorLength(CompiledRule rule) {
+        return rule.getAnchor() == null ? 0 : rule.getAnchor().length();
+    }
+
+}
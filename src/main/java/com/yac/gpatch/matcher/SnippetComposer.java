@@ -0,0 +1,102 @@
+package com.yac.gpatch.matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.yac.gpatch.model.Snippet;
+
+/**
+ * Composes the replacements of successive patches applied to the same
+ * content, so that a file patched several times in memory is still described
+ * by replacements of its original content, as a diff needs.
+ *
+ * A replacement starting or ending inside a text inserted by a former
+ * replacement cannot be mapped back to the original content on its own: it
+ * is merged with the former replacement, and with the other replacements
+ * reaching the same inserted text.
+ */
+public class SnippetComposer {
+
+    private SnippetComposer() {
+    }
+
+    /**
+     * @param firstSnippets       the replacements turning the original content
+     *                            into the intermediate one, sorted by position
+     * @param intermediateContent the content between the two series of
+     *                            replacements
+     * @param secondSnippets      the replacements of the intermediate content,
+     *                            sorted by position
+     * @return the replacements turning the original content into the final one,
+     *         sorted by position
+     */
+    public static List<Snippet> compose(List<Snippet> firstSnippets, CharSequence intermediateContent,
+            List<Snippet> secondSnippets) {
+        int firstSnippetNb = firstSnippets.size();
+        int[] intermediateStarts = new int[firstSnippetNb];
+        int[] intermediateEnds = new int[firstSnippetNb];
+        // Shift of the intermediate positions following the first i replacements
+        int[] shifts = new int[firstSnippetNb + 1];
+        for (int i = 0; i < firstSnippetNb; i++) {
+            Snippet snippet = firstSnippets.get(i);
+            intermediateStarts[i] = snippet.getStart() + shifts[i];
+            intermediateEnds[i] = intermediateStarts[i] + snippet.getText().length();
+            shifts[i + 1] = shifts[i] + snippet.getText().length() - (snippet.getEnd() - snippet.getStart());
+        }
+
+        List<Snippet> snippets = new ArrayList<>();
+        int pendingFirstIndex = 0;
+        int i = 0;
+        while (i < secondSnippets.size()) {
+            Snippet secondSnippet = secondSnippets.get(i);
+            int start = secondSnippet.getStart();
+            int end = secondSnippet.getEnd();
+            StringBuilder text = new StringBuilder(secondSnippet.getText());
+
+            // Former replacements overlapping the range are between these two
+            int firstIndex = pendingFirstIndex;
+            while (firstIndex < firstSnippetNb && intermediateEnds[firstIndex] <= start) {
+                firstIndex++;
+            }
+            int lastIndex;
+            while (true) {
+                lastIndex = firstIndex - 1;
+                while (lastIndex + 1 < firstSnippetNb && intermediateStarts[lastIndex + 1] < end) {
+                    lastIndex++;
+                }
+                boolean endsInside = lastIndex >= firstIndex && intermediateEnds[lastIndex] > end;
+                if (endsInside && i + 1 < secondSnippets.size()
+                        && secondSnippets.get(i + 1).getStart() < intermediateEnds[lastIndex]) {
+                    Snippet nextSnippet = secondSnippets.get(++i);
+                    text.append(intermediateContent, end, nextSnippet.getStart()).append(nextSnippet.getText());
+                    end = nextSnippet.getEnd();
+                } else {
+                    break;
+                }
+            }
+
+            int originalStart = start - shifts[firstIndex];
+            if (firstIndex < firstSnippetNb && intermediateStarts[firstIndex] < start) {
+                Snippet firstSnippet = firstSnippets.get(firstIndex);
+                originalStart = firstSnippet.getStart();
+                text.insert(0, firstSnippet.getText(), 0, start - intermediateStarts[firstIndex]);
+            }
+            int originalEnd = end - shifts[lastIndex + 1];
+            if (lastIndex >= firstIndex && intermediateEnds[lastIndex] > end) {
+                Snippet firstSnippet = firstSnippets.get(lastIndex);
+                originalEnd = firstSnippet.getEnd();
+                text.append(firstSnippet.getText(), end - intermediateStarts[lastIndex],
+                        firstSnippet.getText().length());
+            }
+
+            snippets.addAll(firstSnippets.subList(pendingFirstIndex, firstIndex));
+            snippets.add(new Snippet(text.toString(), originalStart, originalEnd));
+            pendingFirstIndex = Math.max(firstIndex, lastIndex + 1);
+            i++;
+        }
+        snippets.addAll(firstSnippets.subList(pendingFirstIndex, firstSnippetNb));
+
+        return snippets;
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.yac.gpatch.matcher;
+
+import com.yac.gpatch.model.Rule;
+
+/**
+ * A reference to a captured variable ({@code @<name>@}) inside a hunk text.
+ * Offsets cover the whole macro, prefix and suffix included.
+ */
+public class VariableReference {
+
+    private final Rule rule;
+    private final int start;
+    private final int end;
+
+    VariableReference(Rule rule, int start, int end) {
+        this.rule = rule;
+        this.start = start;
+        this.end = end;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public Rule getRule() {
+        return rule;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.yac.gpatch.matcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.report.Reporter;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.RewriteWriter;
+
+/**
+ * Runs one {@link PatchMatcher} per file on its own virtual thread, so that
+ * the reads and writes of many files wait for the disk at the same time.
+ *
+ * Only as many files as threads are matched at once, the others waiting for
+ * their I/O or for a permit, so that the carriers of the virtual threads are
+ * not all busy matching. A file is only read once the cache does not skip it,
+ * and the contents read and not yet written are bounded to a quarter of the
+ * heap, the files waiting for their turn to be read. The number of files in
+ * flight is bounded too, each holding a virtual thread.
+ */
+public class VirtualMatcherScheduler {
+
+    private static final int FILES_IN_FLIGHT_PER_THREAD = 32;
+
+    private final int threadNb;
+    private final RewriteWriter writer;
+    private final MatchCache matchCache;
+
+    public VirtualMatcherScheduler(int threadNb, RewriteWriter writer, MatchCache matchCache) {
+        this.threadNb = threadNb;
+        this.writer = writer;
+        this.matchCache = matchCache;
+    }
+
+    /**
+     * @param reporter receives the report of each file as soon as it has been
+     *                 processed
+     */
+    public void run(List<CompiledPatch> compiledPatches, List<SourceFile> files, Statistics statistics,
+            Reporter reporter) throws ExecutionException, InterruptedException {
+        List<SourceFile> sortedFiles = new ArrayList<>(files);
+        // Ties are broken by path so that the order, and so the output of a dry
+        // run, is the same from run to run
+        sortedFiles.sort(Comparator.comparingLong(SourceFile::getSize).reversed()
+                .thenComparing(SourceFile::getPath));
+        writer.expect(sortedFiles.stream().map(SourceFile::getPath).collect(Collectors.toList()));
+
+        Semaphore matchingPermits = new Semaphore(threadNb);
+        Semaphore readingPermits = new Semaphore(PatchMatcher.READING_PERMIT_NB, true);
+        int maxFilesInFlight = threadNb * FILES_IN_FLIGHT_PER_THREAD;
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("gpatch-", 0).factory());
+        try {
+            CompletionService<FileReport> completionService = new ExecutorCompletionService<>(executor);
+            int pendingNb = 0;
+            for (SourceFile file : sortedFiles) {
+                if (pendingNb == maxFilesInFlight) {
+                    reporter.report(completionService.take().get());
+                    pendingNb--;
+                }
+                completionService.submit(new PatchMatcher(compiledPatches, file.getPath(), statistics, writer,
+                        matchCache, reporter.isMatchReportEnabled(), matchingPermits, readingPermits));
+                pendingNb++;
+            }
+            for (; pendingNb > 0; pendingNb--) {
+                reporter.report(completionService.take().get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.yac.gpatch.matcher;
+
+/**
+ * Searches a pattern in a content read window by window, finding the same
+ * matches as a search over the whole content.
+ *
+ * A match is only kept if its search did not reach the end of the window,
+ * since more content could change it. The next window then has to start at
+ * the earliest position such a match may start at, and the matches found
+ * after that position are searched again in the next window.
+ */
+class WindowedSearch {
+
+    private final LinearPattern pattern;
+    private final String group;
+    // The whole matches of the last window, and their groups, starting at -1
+    // when not captured
+    private final MatchList matches;
+    private final MatchList groups;
+    private final MatchList keptGroups;
+
+    private LinearPattern.Matcher matcher;
+    private long searchPosition;
+    private boolean lastWindow;
+
+    /**
+     * @param group the group whose text is the snippet of a match, or
+     *              {@code null} for the whole match
+     */
+    WindowedSearch(LinearPattern pattern, String group) {
+        this.pattern = pattern;
+        this.group = group;
+        this.matches = new MatchList();
+        this.groups = new MatchList();
+        this.keptGroups = new MatchList();
+    }
+
+    /**
+     * Searches the given window from the end of the last match kept, which
+     * must be in the window.
+     *
+     * @param last whether the window ends the content
+     * @return the position the next window must start at, at the latest
+     */
+    long search(CharSequence window, long windowStart, boolean last) {
+        matches.clear(window);
+        groups.clear(window);
+        lastWindow = last;
+        matcher = matcher == null ? pattern.matcher(window) : matcher.reset(window);
+        boolean found = matcher.find((int) (searchPosition - windowStart));
+        while (found && (last || !matcher.hitEnd())) {
+            matches.add(matcher.start(0), matcher.end(0));
+            if (group == null) {
+                groups.add(matcher.start(0), matcher.end(0));
+            } else {
+                groups.add(matcher.start(group), matcher.end(group));
+            }
+            found = matcher.find();
+        }
+
+        return !last && matcher.hitEnd() ? windowStart + matcher.getPendingStart() : windowStart + window.length();
+    }
+
+    /**
+     * Keeps the matches of the last window starting before the next window,
+     * the search going on from the end of the last of them.
+     *
+     * @return the snippets of the kept matches, positioned in the last
+     *         window, until the next search
+     */
+    MatchList commit(long windowStart, long nextWindowStart) {
+        keptGroups.clear(groups.getContent());
+        for (int i = 0; i < matches.size(); i++) {
+            int start = matches.getStart(i);
+            int end = matches.getEnd(i);
+            // Searched again in the next window, the last one keeping an empty match at its end
+            if (windowStart + start >= nextWindowStart && !lastWindow) {
+                break;
+            }
+            if (groups.getStart(i) != -1) {
+                keptGroups.add(groups.getStart(i), groups.getEnd(i));
+            }
+            // As the matcher, skips a character after an empty match
+            searchPosition = windowStart + (end == start ? end + 1 : end);
+        }
+        searchPosition = Math.max(searchPosition, nextWindowStart);
+
+        return keptGroups;
+    }
+
+}
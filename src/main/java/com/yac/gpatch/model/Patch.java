@@ -1,5 +1,6 @@
 package com.yac.gpatch.model;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -15,10 +16,20 @@ public class Patch {
 
     private final List<Rule> rules;
     private final List<Hunk> hunks;
+    private final Path directory;
 
-    public Patch(List<Rule> rules, List<Hunk> hunks) {
+    /**
+     * @param directory the absolute directory of the patch file, which the
+     *                  files named by rules are relative to
+     */
+    public Patch(List<Rule> rules, List<Hunk> hunks, Path directory) {
         this.rules = rules;
         this.hunks = hunks;
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
     }
 
     public List<Hunk> getHunks() {
@@ -21,6 +21,15 @@ public class Rule implements Identifiable {
         this._id = Identifiable.super.getId();
     }
 
+    /**
+     * @return the file the rule is matched against rather than each file to
+     *         patch ({@code @@ name from path @@}), relative to the patch
+     *         file, or {@code null}
+     */
+    public String getFilename() {
+        return filename;
+    }
+
     public List<String> getLines() {
         return lines;
     }
@@ -0,0 +1,23 @@
+package com.yac.gpatch.model;
+
+import java.nio.file.Path;
+
+public class SourceFile {
+
+    private final Path path;
+    private final long size;
+
+    public SourceFile(Path path, long size) {
+        this.path = path;
+        this.size = size;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+}
@@ -1,17 +1,16 @@
 package com.yac.gpatch.parser;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import com.yac.gpatch.util.logging.Log;
 import com.yac.gpatch.util.logging.LogLevel;
@@ -23,34 +22,50 @@ public class PatchParser {
 
     private static final Pattern RULE_HEADER_PATTERN = Pattern
             .compile("^\\s*@@\\s*([a-zA-Z0-9-_]+)(?:\\s+from\\s+([a-zA-Z0-9-_/.]+))?\\s*@@\\s*$");
-    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("^\\s*@@");
-
+    private static final String SEPARATOR = "@@";
+
+    /**
+     * Reads a patch file line by line, in a single pass.
+     *
+     * The lines before the first separator are a header. The sections
+     * starting with a rule header are rules, until the first section that does
+     * not, every section being a hunk from there.
+     */
     public static Patch parse(Path filePath) throws IOException {
-        try (Stream<String> linesStream = Files.lines(filePath)) {
-            // Remove header lines
-            List<String> relevantLines = linesStream.dropWhile(line -> !SEPARATOR_PATTERN.matcher(line).find())
-                    .collect(Collectors.toList());
-
-            // Create rules
-            int indexOfRuleEnd;
+        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
             List<Rule> rules = new ArrayList<>();
-            while ((indexOfRuleEnd = findIndexOfPattern(relevantLines, RULE_HEADER_PATTERN)) != -1) {
-                createRule(relevantLines.subList(0, indexOfRuleEnd)).ifPresent(newRule -> {
-                    rules.add(newRule);
-                });
-                relevantLines = relevantLines.subList(indexOfRuleEnd, relevantLines.size());
-            }
-
-            // Create hunks
-            int indexOfHunk;
             List<Hunk> hunks = new ArrayList<>();
-            while ((indexOfHunk = findIndexOfPattern(relevantLines, SEPARATOR_PATTERN)) != -1) {
-                hunks.add(createHunk(String.valueOf(hunks.size() + 1), relevantLines.subList(1, indexOfHunk)));
-                relevantLines = relevantLines.subList(indexOfHunk, relevantLines.size());
+            // The lines of the section being read, null in the header, and the
+            // header of the section if it is a rule
+            List<String> lines = null;
+            Matcher ruleHeaderMatcher = null;
+            boolean readingRules = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!isSeparator(line)) {
+                    if (lines != null) {
+                        lines.add(line);
+                    }
+                    continue;
+                }
+
+                if (lines != null) {
+                    addSection(rules, hunks, ruleHeaderMatcher, lines);
+                }
+                lines = new ArrayList<>();
+                if (readingRules) {
+                    ruleHeaderMatcher = RULE_HEADER_PATTERN.matcher(line);
+                    readingRules = ruleHeaderMatcher.find();
+                }
+                if (!readingRules) {
+                    ruleHeaderMatcher = null;
+                }
+            }
+            if (lines != null) {
+                addSection(rules, hunks, ruleHeaderMatcher, lines);
             }
 
-            // Create patch
-            return createPatch(rules, hunks);
+            return createPatch(rules, hunks, filePath.toAbsolutePath().getParent());
         }
     }
 
@@ -67,20 +82,24 @@ public class PatchParser {
             return new Log(LogLevel.ERROR, text);
         }).collect(Collectors.toList()));
 
-        // Check for undefined rules inside hunks
+        // Check for undefined rules inside hunks, a variable being on a single
+        // line
         Set<String> ruleSet = patch.getRules().stream().map(Rule::getName).collect(Collectors.toSet());
         List<String> undefinedRuleList = new ArrayList<>();
+        Matcher matcher = Patch.CAPTURED_VARIABLE_REGEX.matcher("");
         for (Hunk hunk : patch.getHunks()) {
-            String text = hunk.getLines().stream().collect(Collectors.joining("\n"));
-            Matcher matcher = Patch.CAPTURED_VARIABLE_REGEX.matcher(text);
-
-            while (matcher.find()) {
-                String rule = matcher.group(1);
-                if (!ruleSet.contains(rule)) {
-                    undefinedRuleList.add(rule);
-                    break;
+            String undefinedRule = null;
+            for (int i = 0; i < hunk.getLines().size() && undefinedRule == null; i++) {
+                matcher.reset(hunk.getLines().get(i));
+                while (undefinedRule == null && matcher.find()) {
+                    if (!ruleSet.contains(matcher.group(1))) {
+                        undefinedRule = matcher.group(1);
+                    }
                 }
             }
+            if (undefinedRule != null) {
+                undefinedRuleList.add(undefinedRule);
+            }
         }
         logs.addAll(undefinedRuleList.stream().map(rule -> {
             String text = new StringBuilder().append("Undefined rule: ").append(rule).toString();
@@ -91,38 +110,44 @@ public class PatchParser {
         return logs;
     }
 
+    /**
+     * Adds the rule or hunk of a section.
+     *
+     * @param ruleHeaderMatcher the matched header of a rule, or {@code null}
+     *                          for a hunk
+     */
+    private static void addSection(List<Rule> rules, List<Hunk> hunks, Matcher ruleHeaderMatcher,
+            List<String> lines) {
+        if (ruleHeaderMatcher != null) {
+            rules.add(new Rule(ruleHeaderMatcher.group(1), ruleHeaderMatcher.group(2), lines));
+        } else {
+            hunks.add(createHunk(String.valueOf(hunks.size() + 1), lines));
+        }
+    }
+
     private static Hunk createHunk(String id, List<String> lines) {
         return new Hunk(id, lines);
     }
 
-    private static Patch createPatch(List<Rule> rules, List<Hunk> hunks) {
-        return new Patch(rules, hunks);
+    private static Patch createPatch(List<Rule> rules, List<Hunk> hunks, Path directory) {
+        return new Patch(rules, hunks, directory);
     }
 
-    private static Optional<Rule> createRule(List<String> lines) {
-        Matcher ruleHeaderMatcher = RULE_HEADER_PATTERN.matcher(lines.get(0));
-        if (ruleHeaderMatcher.find()) {
-            String filename = ruleHeaderMatcher.group(2);
-            String id = ruleHeaderMatcher.group(1);
-            List<String> ruleLines = lines.subList(1, lines.size());
-
-            return Optional.of(new Rule(id, filename, ruleLines));
-        } else {
-            return Optional.empty();
+    /**
+     * @return {@code true} if the line starts with a separator after
+     *         whitespace, as matched by {@code ^\s*@@}
+     */
+    private static boolean isSeparator(String line) {
+        int i = 0;
+        while (i < line.length() && isRegexWhitespace(line.charAt(i))) {
+            i++;
         }
-    }
 
-    private static int findIndexOfPattern(List<String> lines, Pattern pattern) {
-        if (lines.isEmpty() || !pattern.matcher(lines.get(0)).find()) {
-            return -1;
-        } else {
-            int i = 1;
-            while (i < lines.size() && !SEPARATOR_PATTERN.matcher(lines.get(i)).find()) {
-                i++;
-            }
+        return line.startsWith(SEPARATOR, i);
+    }
 
-            return i;
-        }
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
     }
 
 }
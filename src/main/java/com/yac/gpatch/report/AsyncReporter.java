@@ -0,0 +1,114 @@
+package com.yac.gpatch.report;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.yac.gpatch.util.StringUtils;
+import com.yac.gpatch.util.logging.Log;
+
+/**
+ * Outputs the reports of the files from a dedicated thread, so that matchers
+ * do not wait for the output as long as it keeps up.
+ *
+ * Reports wait in a bounded queue: when the output is slower than the
+ * matchers, they block on {@link #report(FileReport)} instead of piling up
+ * reports in memory. The output is flushed whenever the queue is empty, so
+ * that the results of a long run can be consumed as they come.
+ */
+public class AsyncReporter implements Reporter, Closeable {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static final FileReport END_OF_REPORTS = new FileReport(null, null, null);
+
+    private final ReportFormat format;
+    private final PrintStream output;
+    private final PrintStream errorOutput;
+    private final BlockingQueue<FileReport> queue;
+    private final Thread thread;
+
+    /**
+     * @param output      the stream receiving the JSON lines or the logs,
+     *                    flushed but not closed by {@link #close()}
+     * @param errorOutput the stream receiving the error logs in text format
+     */
+    public AsyncReporter(ReportFormat format, PrintStream output, PrintStream errorOutput) {
+        this.format = format;
+        this.output = output;
+        this.errorOutput = errorOutput;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.thread = new Thread(this::run, "gpatch-reporter");
+        this.thread.start();
+    }
+
+    @Override
+    public boolean isMatchReportEnabled() {
+        return format == ReportFormat.JSON;
+    }
+
+    @Override
+    public void report(FileReport fileReport) throws InterruptedException {
+        if (!fileReport.getLogs().isEmpty() || !fileReport.getMatches().isEmpty()) {
+            queue.put(fileReport);
+        }
+    }
+
+    /**
+     * Waits for the pending reports to be output.
+     */
+    @Override
+    public void close() throws InterruptedIOException {
+        try {
+            queue.put(END_OF_REPORTS);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void run() {
+        try {
+            FileReport fileReport;
+            while ((fileReport = queue.take()) != END_OF_REPORTS) {
+                if (format == ReportFormat.JSON) {
+                    writeJsonLines(fileReport);
+                    if (queue.isEmpty()) {
+                        output.flush();
+                    }
+                } else {
+                    for (Log log : fileReport.getLogs()) {
+                        log.print(output, errorOutput);
+                    }
+                }
+            }
+            output.flush();
+            errorOutput.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeJsonLines(FileReport fileReport) {
+        String file = StringUtils.escapeJson(fileReport.getPath().toString());
+        for (MatchReport match : fileReport.getMatches()) {
+            output.println(new StringBuilder().append("{\"file\": \"").append(file).append("\", \"patch\": ")
+                    .append(match.getPatchNumber()).append(", \"").append(match.getAction().getPatternType())
+                    .append("\": \"").append(StringUtils.escapeJson(match.getName()))
+                    .append("\", \"action\": \"").append(match.getAction().getLabel()).append("\", \"start\": ")
+                    .append(match.getStart()).append(", \"end\": ").append(match.getEnd())
+                    .append(", \"startLine\": ").append(match.getStartLine()).append(", \"endLine\": ")
+                    .append(match.getEndLine()).append("}").toString());
+        }
+        for (Log log : fileReport.getLogs()) {
+            output.println(new StringBuilder().append("{\"file\": \"").append(file)
+                    .append("\", \"action\": \"log\", \"level\": \"").append(log.getLevel().name().toLowerCase())
+                    .append("\", \"message\": \"").append(StringUtils.escapeJson(log.getText())).append("\"}")
+                    .toString());
+        }
+    }
+
+}
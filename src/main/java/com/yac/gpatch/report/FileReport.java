@@ -0,0 +1,39 @@
+package com.yac.gpatch.report;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.yac.gpatch.util.logging.Log;
+
+/**
+ * The results of the processing of a file, reported as soon as it is done.
+ */
+public class FileReport {
+
+    private final Path path;
+    private final List<Log> logs;
+    private final List<MatchReport> matches;
+
+    /**
+     * @param matches the matches of the rules and hunks, empty unless the
+     *                reporter asks for them
+     */
+    public FileReport(Path path, List<Log> logs, List<MatchReport> matches) {
+        this.path = path;
+        this.logs = logs;
+        this.matches = matches;
+    }
+
+    public List<Log> getLogs() {
+        return logs;
+    }
+
+    public List<MatchReport> getMatches() {
+        return matches;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.yac.gpatch.report;
+
+public enum MatchAction {
+
+    // A rule captured a variable
+    CAPTURE("capture", "rule"),
+    // A hunk replaced the matched text
+    REPLACE("replace", "hunk");
+
+    private final String label;
+    private final String patternType;
+
+    MatchAction(String label, String patternType) {
+        this.label = label;
+        this.patternType = patternType;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the type of pattern taking the action, rule or hunk
+     */
+    public String getPatternType() {
+        return patternType;
+    }
+
+}
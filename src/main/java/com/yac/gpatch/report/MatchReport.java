@@ -0,0 +1,63 @@
+package com.yac.gpatch.report;
+
+/**
+ * A rule or hunk matched in a file. Offsets and lines are those of the
+ * content the patch was applied to, which is the original content of the
+ * file unless a previous patch modified it. Offsets count bytes when the
+ * file is matched through a byte view, characters otherwise.
+ */
+public class MatchReport {
+
+    private final int patchNumber;
+    private final MatchAction action;
+    private final String name;
+    private final long start;
+    private final long end;
+    private final long startLine;
+    private final long endLine;
+
+    /**
+     * @param patchNumber the position of the patch in the run, from 1
+     * @param startLine   the line of the start, from 1
+     * @param endLine     the line of the last character, from 1
+     */
+    public MatchReport(int patchNumber, MatchAction action, String name, long start, long end, long startLine,
+            long endLine) {
+        this.patchNumber = patchNumber;
+        this.action = action;
+        this.name = name;
+        this.start = start;
+        this.end = end;
+        this.startLine = startLine;
+        this.endLine = endLine;
+    }
+
+    public MatchAction getAction() {
+        return action;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getEndLine() {
+        return endLine;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPatchNumber() {
+        return patchNumber;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getStartLine() {
+        return startLine;
+    }
+
+}
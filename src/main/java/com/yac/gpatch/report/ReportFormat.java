@@ -0,0 +1,10 @@
+package com.yac.gpatch.report;
+
+public enum ReportFormat {
+
+    // The logs only, as they used to be printed
+    TEXT,
+    // One JSON object per line for each log and match
+    JSON;
+
+}
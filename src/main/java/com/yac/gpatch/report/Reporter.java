@@ -0,0 +1,22 @@
+package com.yac.gpatch.report;
+
+/**
+ * Receives the report of each file as soon as it has been processed, from
+ * any thread.
+ */
+public interface Reporter {
+
+    /**
+     * May block until previous reports have been output.
+     */
+    void report(FileReport fileReport) throws InterruptedException;
+
+    /**
+     * @return {@code true} if the reports must list the matches of the rules
+     *         and hunks, which costs a pass over the matched files
+     */
+    default boolean isMatchReportEnabled() {
+        return false;
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.yac.gpatch.util;
+
+import java.util.List;
+
+import com.yac.gpatch.model.Snippet;
+
+/**
+ * Read-only view of a text with replacements applied, without copying the
+ * text: a piece table whose pieces alternate between the ranges of the text
+ * left unchanged and the replacement texts.
+ *
+ * The piece of a position is found by a binary search, the piece read last
+ * being tried first so that reading the characters in order takes constant
+ * time.
+ */
+public class EditedCharSequence implements CharSequence {
+
+    private final int[] pieceStarts;
+    private final CharSequence[] pieceSources;
+    // Position of each piece in its source minus its position in the view
+    private final int[] pieceShifts;
+    private final int length;
+
+    private int lastPiece;
+
+    /**
+     * @param replacingSnippets the replacements of the text, sorted by
+     *                          position and not overlapping
+     */
+    public EditedCharSequence(CharSequence text, List<Snippet> replacingSnippets) {
+        int pieceNb = 2 * replacingSnippets.size() + 1;
+        this.pieceStarts = new int[pieceNb + 1];
+        this.pieceSources = new CharSequence[pieceNb];
+        this.pieceShifts = new int[pieceNb];
+
+        int position = 0;
+        int textPosition = 0;
+        for (int i = 0; i < replacingSnippets.size(); i++) {
+            Snippet snippet = replacingSnippets.get(i);
+            setPiece(2 * i, position, text, textPosition);
+            position += snippet.getStart() - textPosition;
+            setPiece(2 * i + 1, position, snippet.getText(), 0);
+            position += snippet.getText().length();
+            textPosition = snippet.getEnd();
+        }
+        setPiece(pieceNb - 1, position, text, textPosition);
+        position += text.length() - textPosition;
+        this.pieceStarts[pieceNb] = position;
+        this.length = position;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        int piece = lastPiece;
+        if (index < pieceStarts[piece] || index >= pieceStarts[piece + 1]) {
+            piece = findPiece(index);
+            lastPiece = piece;
+        }
+
+        return pieceSources[piece].charAt(index + pieceShifts[piece]);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException(new StringBuilder().append("start ").append(start).append(", end ")
+                    .append(end).append(", length ").append(length).toString());
+        }
+
+        StringBuilder text = new StringBuilder(end - start);
+        int position = start;
+        for (int piece = start < length ? findPiece(start) : pieceSources.length; position < end; piece++) {
+            int pieceEnd = Math.min(end, pieceStarts[piece + 1]);
+            text.append(pieceSources[piece], position + pieceShifts[piece], pieceEnd + pieceShifts[piece]);
+            position = pieceEnd;
+        }
+
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * @return the last piece starting at or before the position, which is not
+     *         empty
+     */
+    private int findPiece(int index) {
+        int low = 0;
+        int high = pieceSources.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (pieceStarts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private void setPiece(int piece, int start, CharSequence source, int sourceStart) {
+        pieceStarts[piece] = start;
+        pieceSources[piece] = source;
+        pieceShifts[piece] = sourceStart - start;
+    }
+
+}
@@ -0,0 +1,287 @@
+package com.yac.gpatch.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import com.yac.gpatch.model.SourceFile;
+
+/**
+ * Finds the files to process under a root, walking its subdirectories in
+ * parallel.
+ *
+ * A file is selected if its name ends with one of the extensions, if it
+ * matches one of the include patterns when there are some, and if it is
+ * neither excluded nor ignored. Excluded and ignored directories are not
+ * walked at all, nor are .git directories. Exclude patterns are relative to
+ * the root and ignore patterns are read from the .gitignore file of each
+ * directory, with the syntax of {@link GlobPattern}. As in git, the .gitignore
+ * files of the parents of the root also apply, up to the directory holding
+ * the .git of the repository, if the root is in one.
+ *
+ * The attributes of each entry are read once, without following links:
+ * symbolic links found in the walk are never processed, whether they point
+ * to a file or a directory, and neither is a root that is itself a link.
+ */
+public class FileWalker {
+
+    private static final String IGNORE_FILE_NAME = ".gitignore";
+    private static final String VCS_DIRECTORY_NAME = ".git";
+
+    private final List<String> extensions;
+    private final List<GlobPattern> includes;
+    private final List<String> excludes;
+    private final boolean ignoreFilesEnabled;
+    private final int threadNb;
+
+    /**
+     * @param extensions         the extensions of the files, with or without
+     *                           their leading dot
+     * @param ignoreFilesEnabled whether the .gitignore files are read
+     */
+    public FileWalker(List<String> extensions, List<String> includes, List<String> excludes,
+            boolean ignoreFilesEnabled, int threadNb) {
+        this.extensions = extensions.stream()
+                .map(extension -> extension.startsWith(".") ? extension
+                        : new StringBuilder().append(".").append(extension).toString())
+                .collect(Collectors.toList());
+        this.includes = includes.stream().map(GlobPattern::parse).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        this.excludes = excludes;
+        this.ignoreFilesEnabled = ignoreFilesEnabled;
+        this.threadNb = threadNb;
+    }
+
+    public List<SourceFile> getAllFiles(Path root) throws IOException {
+        Queue<SourceFile> files = new ConcurrentLinkedQueue<>();
+        walk(root, root, directory -> {
+        }, files::add);
+
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * @return whether the given file of the given root would be walked, for
+     *         files found otherwise
+     */
+    public boolean isSelected(Path root, Path file, BasicFileAttributes attributes) throws IOException {
+        if (file.equals(root)) {
+            return attributes.isRegularFile() && hasExtension(file);
+        }
+
+        IgnoreRules rules = getInheritedRules(root, file.getParent());
+        if (rules != null && ignoreFilesEnabled) {
+            rules = loadIgnoreFile(rules, file.getParent());
+        }
+
+        return rules != null && isSelected(root, file, attributes, rules);
+    }
+
+    /**
+     * Hands over each file as soon as it is found, from several threads. The
+     * walk stops if the current thread is interrupted, or if a consumer
+     * interrupts its own thread.
+     */
+    public void walk(Path root, Consumer<SourceFile> fileConsumer) throws IOException {
+        walk(root, root, directory -> {
+        }, fileConsumer);
+    }
+
+    /**
+     * Walks the given directory of a root, with the exclude and ignore
+     * patterns of the root.
+     *
+     * @param directoryConsumer receives each directory walked, from several
+     *                          threads
+     */
+    public void walk(Path root, Path start, Consumer<Path> directoryConsumer, Consumer<SourceFile> fileConsumer)
+            throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(start, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory()) {
+            if (isSelected(root, start, attributes)) {
+                fileConsumer.accept(new SourceFile(start, attributes.size()));
+            }
+            return;
+        }
+
+        IgnoreRules rules = getInheritedRules(root, start);
+        if (rules == null) {
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threadNb);
+        try {
+            pool.submit(new DirectoryTask(root, start, rules, directoryConsumer, fileConsumer)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            // Interrupts the tasks blocked in a consumer
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the rules applying to the entries of the given directory, but
+     *         those of its own ignore file, or {@code null} if it is excluded
+     *         or ignored
+     */
+    private IgnoreRules getInheritedRules(Path root, Path directory) throws IOException {
+        IgnoreRules rules = new IgnoreRules(ignoreFilesEnabled ? getRepositoryRules(root) : null, root, excludes);
+        Path current = root;
+        for (Path name : root.relativize(directory)) {
+            if (ignoreFilesEnabled) {
+                rules = loadIgnoreFile(rules, current);
+            }
+            current = current.resolve(name);
+            if (name.toString().equals(VCS_DIRECTORY_NAME) || rules.isIgnored(current, true)) {
+                return null;
+            }
+        }
+
+        return rules;
+    }
+
+    /**
+     * @return the rules of the ignore files of the parents of the root, from
+     *         the top of its repository, or {@code null} if there are none
+     */
+    private static IgnoreRules getRepositoryRules(Path root) throws IOException {
+        Path directory = root.toAbsolutePath().normalize();
+        List<Path> parents = new ArrayList<>();
+        while (!Files.exists(directory.resolve(VCS_DIRECTORY_NAME), LinkOption.NOFOLLOW_LINKS)) {
+            directory = directory.getParent();
+            if (directory == null) {
+                // Not in a repository
+                return null;
+            }
+            parents.add(directory);
+        }
+
+        IgnoreRules rules = null;
+        for (int i = parents.size() - 1; i >= 0; i--) {
+            Path ignoreFile = parents.get(i).resolve(IGNORE_FILE_NAME);
+            if (Files.isRegularFile(ignoreFile)) {
+                rules = IgnoreRules.load(rules, parents.get(i), ignoreFile);
+            }
+        }
+
+        return rules;
+    }
+
+    private boolean hasExtension(Path file) {
+        String name = file.getFileName().toString();
+        for (String extension : extensions) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isSelected(Path root, Path file, BasicFileAttributes attributes, IgnoreRules rules) {
+        if (!attributes.isRegularFile() || !hasExtension(file)) {
+            return false;
+        }
+        if (!includes.isEmpty()) {
+            Path relativePath = root.relativize(file);
+            if (includes.stream().noneMatch(include -> include.matches(relativePath, false))) {
+                return false;
+            }
+        }
+
+        return !rules.isIgnored(file, false);
+    }
+
+    private static IgnoreRules loadIgnoreFile(IgnoreRules rules, Path directory) throws IOException {
+        Path ignoreFile = directory.resolve(IGNORE_FILE_NAME);
+
+        return Files.isRegularFile(ignoreFile) ? IgnoreRules.load(rules, directory, ignoreFile) : rules;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path root;
+        private final Path directory;
+        private final IgnoreRules inheritedRules;
+        private final Consumer<Path> directoryConsumer;
+        private final Consumer<SourceFile> fileConsumer;
+
+        DirectoryTask(Path root, Path directory, IgnoreRules inheritedRules, Consumer<Path> directoryConsumer,
+                Consumer<SourceFile> fileConsumer) {
+            this.root = root;
+            this.directory = directory;
+            this.inheritedRules = inheritedRules;
+            this.directoryConsumer = directoryConsumer;
+            this.fileConsumer = fileConsumer;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                directoryConsumer.accept(directory);
+
+                List<Path> entries = new ArrayList<>();
+                boolean ignoreFileFound = false;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                    for (Path entry : stream) {
+                        entries.add(entry);
+                        ignoreFileFound |= entry.getFileName().toString().equals(IGNORE_FILE_NAME);
+                    }
+                }
+                IgnoreRules rules = ignoreFilesEnabled && ignoreFileFound
+                        ? IgnoreRules.load(inheritedRules, directory, directory.resolve(IGNORE_FILE_NAME))
+                        : inheritedRules;
+
+                List<DirectoryTask> subtasks = new ArrayList<>();
+                for (Path entry : entries) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        if (!entry.getFileName().toString().equals(VCS_DIRECTORY_NAME)
+                                && !rules.isIgnored(entry, true)) {
+                            subtasks.add(new DirectoryTask(root, entry, rules, directoryConsumer, fileConsumer));
+                        }
+                    } else if (isSelected(root, entry, attributes, rules)) {
+                        fileConsumer.accept(new SourceFile(entry, attributes.size()));
+                    }
+                }
+                invokeAll(subtasks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+}
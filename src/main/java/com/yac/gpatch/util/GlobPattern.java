@@ -0,0 +1,211 @@
+package com.yac.gpatch.util;
+
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * A pattern of a .gitignore file, or of the include and exclude options.
+ *
+ * As in git, a pattern without slash, but a trailing one, matches the name of
+ * a file at any depth, and a pattern with one matches its path from the
+ * directory of the pattern. A trailing slash restricts it to directories and
+ * a leading exclamation mark negates it. Trailing spaces are ignored.
+ *
+ * {@code *} matches any characters but a slash, {@code ?} one of them and
+ * {@code [...]} one of a class, negated by a leading {@code !} or {@code ^}.
+ * Two asterisks match any leading directories before a slash at the start of
+ * a pattern, anything inside after a slash at its end, and any directories
+ * between two slashes; elsewhere they are a single asterisk. A backslash
+ * escapes the next character, such as a leading {@code #} or {@code !} or a
+ * trailing space.
+ */
+class GlobPattern {
+
+    private final Pattern regex;
+    private final boolean anchored;
+    private final boolean directoryOnly;
+    private final boolean negated;
+
+    private GlobPattern(Pattern regex, boolean anchored, boolean directoryOnly, boolean negated) {
+        this.regex = regex;
+        this.anchored = anchored;
+        this.directoryOnly = directoryOnly;
+        this.negated = negated;
+    }
+
+    /**
+     * @return the pattern of the given line, or {@code null} for a blank line,
+     *         a comment or an invalid pattern
+     */
+    static GlobPattern parse(String line) {
+        String pattern = stripTrailingSpaces(line);
+        if (pattern.isEmpty() || pattern.startsWith("#")) {
+            return null;
+        }
+
+        boolean negated = pattern.startsWith("!");
+        if (negated) {
+            pattern = pattern.substring(1);
+        }
+        boolean directoryOnly = pattern.endsWith("/") && !isEscaped(pattern, pattern.length() - 1);
+        if (directoryOnly) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.isEmpty()) {
+            return null;
+        }
+
+        String regex = toRegex(pattern);
+
+        return regex == null ? null : new GlobPattern(Pattern.compile(regex), anchored, directoryOnly, negated);
+    }
+
+    /**
+     * @param relativePath the path from the directory of the pattern
+     */
+    boolean matches(Path relativePath, boolean directory) {
+        if (directoryOnly && !directory) {
+            return false;
+        }
+
+        String text;
+        if (anchored) {
+            String separator = relativePath.getFileSystem().getSeparator();
+            text = separator.equals("/") ? relativePath.toString() : relativePath.toString().replace(separator, "/");
+        } else {
+            text = relativePath.getFileName().toString();
+        }
+
+        return regex.matcher(text).matches();
+    }
+
+    boolean isNegated() {
+        return negated;
+    }
+
+    /**
+     * @return {@code true} if the character at the given index follows an odd
+     *         number of backslashes
+     */
+    private static boolean isEscaped(String pattern, int index) {
+        int backslashNb = 0;
+        for (int i = index - 1; i >= 0 && pattern.charAt(i) == '\\'; i--) {
+            backslashNb++;
+        }
+
+        return backslashNb % 2 == 1;
+    }
+
+    private static void appendLiteral(StringBuilder regex, char c) {
+        if (!Character.isLetterOrDigit(c)) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+
+    /**
+     * @return the index of the bracket closing the class opened at the given
+     *         index, or -1 if there is none
+     */
+    private static int findClassEnd(String pattern, int start) {
+        int i = start + 1;
+        if (i < pattern.length() && (pattern.charAt(i) == '!' || pattern.charAt(i) == '^')) {
+            i++;
+        }
+        // A bracket right after the opening one is part of the class
+        if (i < pattern.length() && pattern.charAt(i) == ']') {
+            i++;
+        }
+        for (; i < pattern.length(); i++) {
+            if (pattern.charAt(i) == '\\') {
+                i++;
+            } else if (pattern.charAt(i) == ']') {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static String stripTrailingSpaces(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ' && !isEscaped(line, end - 1)) {
+            end--;
+        }
+
+        return line.substring(0, end);
+    }
+
+    /**
+     * @param pattern a pattern without its leading slash, negation and
+     *                trailing slash
+     * @return the regex matching the same paths, or {@code null} if the
+     *         pattern ends with a lone backslash
+     */
+    private static String toRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        if (pattern.equals("**")) {
+            return ".*";
+        } else if (pattern.startsWith("**/")) {
+            regex.append("(?:.*/)?");
+            i = 3;
+        }
+
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '/' && pattern.startsWith("/**/", i)) {
+                regex.append("/(?:.*/)?");
+                i += 4;
+            } else if (c == '/' && pattern.startsWith("/**", i) && i + 3 == pattern.length()) {
+                regex.append("/.*");
+                i += 3;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+                while (i < pattern.length() && pattern.charAt(i) == '*') {
+                    i++;
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+                i++;
+            } else if (c == '[' && findClassEnd(pattern, i) >= 0) {
+                int end = findClassEnd(pattern, i);
+                i++;
+                // As in a name, a class never matches a slash
+                regex.append("(?!/)[");
+                if (pattern.charAt(i) == '!' || pattern.charAt(i) == '^') {
+                    regex.append("^");
+                    i++;
+                }
+                for (; i < end; i++) {
+                    char classChar = pattern.charAt(i);
+                    if (classChar == '\\') {
+                        classChar = pattern.charAt(++i);
+                    } else if (classChar == '-') {
+                        regex.append('-');
+                        continue;
+                    }
+                    appendLiteral(regex, classChar);
+                }
+                regex.append("]");
+                i = end + 1;
+            } else if (c == '\\') {
+                if (i + 1 == pattern.length()) {
+                    return null;
+                }
+                appendLiteral(regex, pattern.charAt(i + 1));
+                i += 2;
+            } else {
+                appendLiteral(regex, c);
+                i++;
+            }
+        }
+
+        return regex.toString();
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.yac.gpatch.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The patterns of the ignore files of a directory and of its parents, the
+ * deepest and the last matching pattern winning as in git.
+ *
+ * The rules of the directories above a root have an absolute and normalized
+ * directory, the paths they are checked against being made so too. Rules only
+ * apply to the paths inside their directory.
+ */
+class IgnoreRules {
+
+    private final IgnoreRules parent;
+    private final Path directory;
+    private final List<GlobPattern> patterns;
+
+    /**
+     * @param parent    the rules of the parent directories, or {@code null}
+     * @param directory the directory the patterns are relative to
+     */
+    IgnoreRules(IgnoreRules parent, Path directory, List<String> lines) {
+        this.parent = parent;
+        this.directory = directory;
+        this.patterns = new ArrayList<>();
+        for (String line : lines) {
+            GlobPattern pattern = GlobPattern.parse(line);
+            if (pattern != null) {
+                patterns.add(pattern);
+            }
+        }
+    }
+
+    static IgnoreRules load(IgnoreRules parent, Path directory, Path ignoreFile) throws IOException {
+        // Lenient about the encoding, a bad byte only spoils its own pattern
+        String content = new String(Files.readAllBytes(ignoreFile), StandardCharsets.UTF_8);
+
+        return new IgnoreRules(parent, directory, content.lines().collect(Collectors.toList()));
+    }
+
+    boolean isIgnored(Path path, boolean directory) {
+        Path absolutePath = null;
+        for (IgnoreRules rules = this; rules != null; rules = rules.parent) {
+            Path relativePath;
+            if (!path.startsWith(rules.directory)) {
+                if (absolutePath == null) {
+                    absolutePath = path.toAbsolutePath().normalize();
+                }
+                if (!absolutePath.startsWith(rules.directory)) {
+                    continue;
+                }
+                relativePath = rules.directory.relativize(absolutePath);
+            } else {
+                relativePath = rules.directory.relativize(path);
+            }
+            for (int i = rules.patterns.size() - 1; i >= 0; i--) {
+                GlobPattern pattern = rules.patterns.get(i);
+                if (pattern.matches(relativePath, directory)) {
+                    return !pattern.isNegated();
+                }
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.yac.gpatch.util;
+
+import java.util.Arrays;
+
+/**
+ * Positions of the lines of a text, to find the line of a position without
+ * counting the newlines before it again.
+ */
+public class LineIndex {
+
+    private final int[] lineStarts;
+
+    public LineIndex(CharSequence text) {
+        int lineNb = 1;
+        int[] starts = new int[16];
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (lineNb == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * lineNb);
+                }
+                starts[lineNb++] = i + 1;
+            }
+        }
+        this.lineStarts = Arrays.copyOf(starts, lineNb);
+    }
+
+    /**
+     * @return the line containing the given position, from 1
+     */
+    public int getLine(int position) {
+        int index = Arrays.binarySearch(lineStarts, position);
+
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.yac.gpatch.util;
+
+public class StringUtils {
+
+    public static String addPrefixIfNotPresent(String str, String prefix) {
+        if (str.startsWith(prefix)) {
+            return str;
+        } else {
+            return new StringBuilder().append(prefix).append(str).toString();
+        }
+    }
+
+    public static String addSuffixIfNotPresent(String str, String suffix) {
+        if (str.endsWith(suffix)) {
+            return str;
+        } else {
+            return new StringBuilder().append(str).append(suffix).toString();
+        }
+    }
+
+    /**
+     * @return the text as the content of a JSON string, without the quotes
+     */
+    public static String escapeJson(String text) {
+        StringBuilder escapedText = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escapedText.append('\\').append(c);
+            } else if (c < 0x20) {
+                escapedText.append(String.format("\\u%04x", (int) c));
+            } else {
+                escapedText.append(c);
+            }
+        }
+
+        return escapedText.toString();
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.yac.gpatch.util.logging;
 
+import java.io.PrintStream;
+
 public class Log {
 
     private final LogLevel level;
@@ -10,13 +12,26 @@ public class Log {
         this.text = text;
     }
 
-    public void print() {
+    public LogLevel getLevel() {
+        return level;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Prints errors to the given error stream and other logs to the output.
+     */
+    public void print(PrintStream output, PrintStream errorOutput) {
         switch (level) {
         case ERROR:
-            System.err.println(new StringBuilder().append("Error: ").append(text).toString());
+            errorOutput.println(new StringBuilder().append("Error: ").append(text).toString());
             break;
         case INFO:
-            System.out.println(text);
+            output.println(text);
             break;
         }
     }
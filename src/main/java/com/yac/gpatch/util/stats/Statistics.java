@@ -0,0 +1,308 @@
+package com.yac.gpatch.util.stats;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.yac.gpatch.model.Hunk;
+import com.yac.gpatch.model.Patch;
+import com.yac.gpatch.model.Rule;
+import com.yac.gpatch.util.Identifiable;
+import com.yac.gpatch.util.StringUtils;
+
+/**
+ * Counters shared by all the matchers of a run.
+ *
+ * Times and per-pattern counters are recorded by each thread in its own
+ * {@link Recorder}, without synchronization, and merged when the report is
+ * produced, once the threads are done. Times are summed over the threads.
+ */
+public class Statistics {
+
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder filesPrefiltered = new LongAdder();
+    private final LongAdder filesRewritten = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+    private final Queue<Recorder> idleRecorders = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Recorder> threadRecorder = ThreadLocal.withInitial(() -> {
+        Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    });
+
+    /**
+     * @return a recorder owned by the caller until it is given back, for tasks
+     *         that may run on more threads than there are cores
+     */
+    public Recorder borrowRecorder() {
+        Recorder recorder = idleRecorders.poll();
+        if (recorder == null) {
+            recorder = new Recorder();
+            recorders.add(recorder);
+        }
+
+        return recorder;
+    }
+
+    /**
+     * @return the recorder of the current thread
+     */
+    public Recorder getRecorder() {
+        return threadRecorder.get();
+    }
+
+    public void giveBack(Recorder recorder) {
+        idleRecorders.add(recorder);
+    }
+
+    public void incrementCacheHits() {
+        cacheHits.increment();
+    }
+
+    public void incrementCacheMisses() {
+        cacheMisses.increment();
+    }
+
+    public void incrementFilesPrefiltered() {
+        filesPrefiltered.increment();
+    }
+
+    public void incrementFilesRewritten() {
+        filesRewritten.increment();
+    }
+
+    public void incrementFilesScanned() {
+        filesScanned.increment();
+    }
+
+    /**
+     * Prints the counters, then the time of each phase and the patterns, the
+     * slowest first.
+     *
+     * @param patches the patches of the run, naming the patterns
+     */
+    public void print(List<Patch> patches, PrintStream output) {
+        Recorder total = merge();
+
+        output.println(new StringBuilder().append("Files scanned: ").append(filesScanned.sum()).toString());
+        output.println(
+                new StringBuilder().append("Files prefiltered out: ").append(filesPrefiltered.sum()).toString());
+        output.println(new StringBuilder().append("Files rewritten: ").append(filesRewritten.sum()).toString());
+        output.println(new StringBuilder().append("Bytes scanned: ").append(total.bytesScanned).toString());
+        if (cacheHits.sum() + cacheMisses.sum() > 0) {
+            output.println(new StringBuilder().append("Cache hits: ").append(cacheHits.sum()).toString());
+            output.println(new StringBuilder().append("Cache misses: ").append(cacheMisses.sum()).toString());
+        }
+
+        output.println();
+        output.println(String.format("%-32s %12s", "Phase", "Time (ms)"));
+        for (Phase phase : Phase.values()) {
+            output.println(
+                    String.format("%-32s %12.1f", phase.getLabel(), toMillis(total.phaseTimes[phase.ordinal()])));
+        }
+
+        output.println();
+        output.println(String.format("%-32s %12s %12s %12s", "Pattern", "Matches", "Time (ms)", "Skipped"));
+        List<PatternStatistics> patternStatistics = collectPatterns(patches, total);
+        patternStatistics.sort(Comparator.comparingLong((PatternStatistics pattern) -> pattern.time).reversed());
+        for (PatternStatistics pattern : patternStatistics) {
+            output.println(String.format("%-32s %12d %12.1f %12d", pattern.label, pattern.matchNb,
+                    toMillis(pattern.time), pattern.skipNb));
+        }
+    }
+
+    /**
+     * Writes the same report as {@link #print(List, PrintStream)} as JSON, times in
+     * nanoseconds.
+     */
+    public void writeJson(Path path, List<Patch> patches) throws IOException {
+        Recorder total = merge();
+
+        StringBuilder json = new StringBuilder().append("{\n");
+        json.append("  \"files\": {");
+        json.append("\"scanned\": ").append(filesScanned.sum());
+        json.append(", \"prefiltered\": ").append(filesPrefiltered.sum());
+        json.append(", \"rewritten\": ").append(filesRewritten.sum());
+        json.append(", \"cacheHits\": ").append(cacheHits.sum());
+        json.append(", \"cacheMisses\": ").append(cacheMisses.sum()).append("},\n");
+        json.append("  \"bytesScanned\": ").append(total.bytesScanned).append(",\n");
+
+        json.append("  \"phases\": {");
+        for (Phase phase : Phase.values()) {
+            json.append(phase.ordinal() > 0 ? ", " : "").append("\"").append(phase.getLabel()).append("\": ")
+                    .append(total.phaseTimes[phase.ordinal()]);
+        }
+        json.append("},\n");
+
+        json.append("  \"patterns\": [");
+        List<PatternStatistics> patternStatistics = collectPatterns(patches, total);
+        for (int i = 0; i < patternStatistics.size(); i++) {
+            PatternStatistics pattern = patternStatistics.get(i);
+            json.append(i > 0 ? "," : "").append("\n    {\"patch\": ").append(pattern.patchNumber)
+                    .append(", \"type\": \"").append(pattern.type).append("\", \"name\": \"")
+                    .append(StringUtils.escapeJson(pattern.name)).append("\", \"matches\": ")
+                    .append(pattern.matchNb)
+                    .append(", \"time\": ").append(pattern.time).append(", \"skipped\": ").append(pattern.skipNb)
+                    .append("}");
+        }
+        json.append(patternStatistics.isEmpty() ? "]\n" : "\n  ]\n").append("}\n");
+
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private Recorder merge() {
+        Recorder total = new Recorder();
+        for (Recorder recorder : recorders) {
+            for (int i = 0; i < total.phaseTimes.length; i++) {
+                total.phaseTimes[i] += recorder.phaseTimes[i];
+            }
+            total.bytesScanned += recorder.bytesScanned;
+            recorder.patternCounters.forEach((pattern, counters) -> {
+                long[] totalCounters = total.patternCounters.computeIfAbsent(pattern, key -> new long[3]);
+                totalCounters[0] += counters[0];
+                totalCounters[1] += counters[1];
+                totalCounters[2] += counters[2];
+            });
+        }
+
+        return total;
+    }
+
+    private static List<PatternStatistics> collectPatterns(List<Patch> patches, Recorder total) {
+        List<PatternStatistics> patternStatistics = new ArrayList<>();
+        for (int i = 0; i < patches.size(); i++) {
+            for (Rule rule : patches.get(i).getRules()) {
+                patternStatistics.add(new PatternStatistics(i + 1, "rule", rule.getName(),
+                        total.patternCounters.get(rule)));
+            }
+            for (Hunk hunk : patches.get(i).getHunks()) {
+                patternStatistics.add(new PatternStatistics(i + 1, "hunk", hunk.getName(),
+                        total.patternCounters.get(hunk)));
+            }
+        }
+
+        return patternStatistics;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Phases of a run, in the order a file goes through them.
+     */
+    public enum Phase {
+
+        WALK("walk"), MAP("map"), PREFILTER("prefilter"), DECODE("decode"), INDEX("index"), RULES("rules"),
+        HUNKS("hunks"), REWRITE("rewrite"), WRITE("write");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+    }
+
+    /**
+     * Counters of a single thread.
+     */
+    public static class Recorder {
+
+        private final long[] phaseTimes = new long[Phase.values().length];
+        // Number of matches, time and number of skipped searches of each rule
+        // and hunk
+        private final Map<Identifiable, long[]> patternCounters = new IdentityHashMap<>();
+
+        private long bytesScanned;
+
+        private Recorder() {
+        }
+
+        public void addBytesScanned(long byteNb) {
+            bytesScanned += byteNb;
+        }
+
+        /**
+         * Adds the time of the matching of a rule or hunk to its counters and
+         * to the given phase.
+         *
+         * @param start the time the matching started at
+         * @return the current time
+         */
+        public long addMatches(Phase phase, Identifiable ruleOrHunk, int matchNb, long start) {
+            long end = addTime(phase, start);
+            long[] counters = patternCounters.computeIfAbsent(ruleOrHunk, key -> new long[3]);
+            counters[0] += matchNb;
+            counters[1] += end - start;
+
+            return end;
+        }
+
+        /**
+         * Counts a content a rule or hunk was not searched in, since it could
+         * not lead to any replacement.
+         */
+        public void addSkippedSearch(Identifiable ruleOrHunk) {
+            patternCounters.computeIfAbsent(ruleOrHunk, key -> new long[3])[2]++;
+        }
+
+        /**
+         * @param start the time the phase started at
+         * @return the current time, at which the next phase starts
+         */
+        public long addTime(Phase phase, long start) {
+            long end = System.nanoTime();
+            phaseTimes[phase.ordinal()] += end - start;
+
+            return end;
+        }
+
+    }
+
+    private static class PatternStatistics {
+
+        private final int patchNumber;
+        private final String type;
+        private final String name;
+        private final String label;
+        private final long matchNb;
+        private final long time;
+        private final long skipNb;
+
+        private PatternStatistics(int patchNumber, String type, String name, long[] counters) {
+            this.patchNumber = patchNumber;
+            this.type = type;
+            this.name = name;
+            this.label = new StringBuilder().append(patchNumber).append(":").append(type).append(" ").append(name)
+                    .toString();
+            this.matchNb = counters == null ? 0 : counters[0];
+            this.time = counters == null ? 0 : counters[1];
+            this.skipNb = counters == null ? 0 : counters[2];
+        }
+
+    }
+
+}
@@ -0,0 +1,288 @@
+package com.yac.gpatch.watch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.util.FileWalker;
+import com.yac.gpatch.writer.Rewrite;
+import com.yac.gpatch.writer.RewriteWriter;
+import com.yac.gpatch.writer.StreamingRewriteWriter;
+
+/**
+ * Watches the roots of a run for created and modified files selected by a
+ * walker, in new directories too.
+ *
+ * Events are coalesced until none came for a short while, since editors and
+ * builds save files in several steps. Files rewritten by gpatch are ignored
+ * as long as their size and modification time are those it left, so that
+ * its own rewrites do not trigger it again.
+ */
+public class TreeWatcher implements Closeable {
+
+    private static final long QUIET_PERIOD_MILLIS = 200;
+
+    private final List<Path> roots;
+    private final FileWalker walker;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories;
+    private final Map<Path, String> ownWrites;
+
+    /**
+     * Registers the directories of the given roots, or the parent directory of
+     * the roots that are files. Changed files are then given by absolute path.
+     */
+    public TreeWatcher(List<Path> roots, FileWalker walker) throws IOException {
+        this.roots = roots.stream().map(Path::toAbsolutePath).collect(Collectors.toList());
+        this.walker = walker;
+        this.watchService = roots.get(0).getFileSystem().newWatchService();
+        this.directories = new HashMap<>();
+        this.ownWrites = new HashMap<>();
+
+        for (Path root : this.roots) {
+            if (Files.isDirectory(root)) {
+                registerTree(root, root, null);
+            } else {
+                register(root.getParent());
+            }
+        }
+    }
+
+    /**
+     * Waits for files to be created or modified, then until no more events
+     * come for a short while.
+     *
+     * @return the changed files, at least one
+     */
+    public List<SourceFile> awaitChanges() throws IOException, InterruptedException {
+        List<SourceFile> files = new ArrayList<>();
+        while (files.isEmpty()) {
+            Set<Path> changedPaths = new LinkedHashSet<>();
+            List<SourceFile> foundFiles = new ArrayList<>();
+            boolean overflowed = false;
+            WatchKey key = watchService.take();
+            while (key != null) {
+                Path directory = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflowed = true;
+                    } else if (directory != null) {
+                        changedPaths.add(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    directories.remove(key);
+                }
+                key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            if (overflowed) {
+                // Events were lost, every file may have changed
+                changedPaths.clear();
+                for (Path root : roots) {
+                    if (Files.isDirectory(root)) {
+                        registerTree(root, root, foundFiles);
+                    } else {
+                        changedPaths.add(root);
+                    }
+                }
+            }
+            for (Path path : changedPaths) {
+                Path root = getRoot(path);
+                if (root != null) {
+                    addChangedFiles(root, path, foundFiles);
+                }
+            }
+            for (SourceFile file : foundFiles) {
+                // The events of a rewrite may come in several batches, it is ignored until the file changes
+                if (!isOwnWrite(file.getPath())) {
+                    ownWrites.remove(file.getPath());
+                    files.add(file);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * @return a writer that writes through the given one, and on close
+     *         records the written files to ignore their next events
+     */
+    public RewriteWriter ignoreWritesOf(RewriteWriter writer) {
+        if (writer instanceof StreamingRewriteWriter) {
+            return new StreamingOwnWriteRecorder((StreamingRewriteWriter) writer);
+        }
+
+        return new OwnWriteRecorder(writer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void addChangedFiles(Path root, Path path, List<SourceFile> files) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Deleted or renamed since
+            return;
+        }
+
+        if (attributes.isDirectory()) {
+            // Files may have been created in it before it was registered
+            registerTree(root, path, files);
+        } else if (walker.isSelected(root, path, attributes)) {
+            files.add(new SourceFile(path, attributes.size()));
+        }
+    }
+
+    private boolean isOwnWrite(Path file) {
+        String ownVersion = ownWrites.get(file);
+        try {
+            return ownVersion != null && ownVersion.equals(getVersion(file));
+        } catch (IOException e) {
+            // Deleted since, the matcher reports it
+            return false;
+        }
+    }
+
+    /**
+     * @return the root containing the given path, or {@code null}
+     */
+    private Path getRoot(Path path) {
+        return roots.stream().filter(path::startsWith).findFirst().orElse(null);
+    }
+
+    private void register(Path directory) throws IOException {
+        directories.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY), directory);
+    }
+
+    /**
+     * Registers the directories the walker walks from the given one, which
+     * leaves out the excluded and ignored ones.
+     *
+     * @param files receives the selected files of the tree, or {@code null}
+     */
+    private void registerTree(Path root, Path start, List<SourceFile> files) throws IOException {
+        Set<Path> walkedDirectories = ConcurrentHashMap.newKeySet();
+        Queue<SourceFile> walkedFiles = new ConcurrentLinkedQueue<>();
+        walker.walk(root, start, walkedDirectories::add, walkedFiles::add);
+
+        for (Path directory : walkedDirectories) {
+            register(directory);
+        }
+        if (files != null) {
+            files.addAll(walkedFiles);
+        }
+    }
+
+    private static String getVersion(Path path) throws IOException {
+        return getVersion(Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    private static String getVersion(BasicFileAttributes attributes) {
+        return new StringBuilder().append(attributes.size()).append(" ")
+                .append(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)).toString();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes through a writer, recording the written files.
+     */
+    private class OwnWriteRecorder implements RewriteWriter {
+
+        private final RewriteWriter writer;
+        private final Set<Path> writtenPaths;
+
+        private OwnWriteRecorder(RewriteWriter writer) {
+            this.writer = writer;
+            this.writtenPaths = ConcurrentHashMap.newKeySet();
+        }
+
+        @Override
+        public void expect(List<Path> paths) {
+            writer.expect(paths);
+        }
+
+        @Override
+        public void expectNext(Path path) {
+            writer.expectNext(path);
+        }
+
+        @Override
+        public void processed(Path path) throws IOException {
+            writer.processed(path);
+        }
+
+        @Override
+        public void write(Rewrite rewrite) throws IOException {
+            writer.write(rewrite);
+            writtenPaths.add(rewrite.getPath());
+        }
+
+        // Files are only in place once the writer is closed
+        @Override
+        public void close() throws IOException {
+            writer.close();
+            for (Path path : writtenPaths) {
+                try {
+                    ownWrites.put(path.toAbsolutePath(), getVersion(path));
+                } catch (NoSuchFileException e) {
+                    // Removed since, whatever comes next at this path is not an own write
+                }
+            }
+        }
+
+        void addWrittenPath(Path path) {
+            writtenPaths.add(path);
+        }
+
+    }
+
+    private class StreamingOwnWriteRecorder extends OwnWriteRecorder implements StreamingRewriteWriter {
+
+        private final StreamingRewriteWriter writer;
+
+        private StreamingOwnWriteRecorder(StreamingRewriteWriter writer) {
+            super(writer);
+            this.writer = writer;
+        }
+
+        @Override
+        public Path createTemporaryFile(Path path) throws IOException {
+            return writer.createTemporaryFile(path);
+        }
+
+        @Override
+        public void write(Path path, Path temporaryPath) throws IOException {
+            writer.write(path, temporaryPath);
+            addWrittenPath(path);
+        }
+
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.yac.gpatch.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.Snippet;
+
+/**
+ * Writes the new content of each file to a sibling temporary file, then
+ * replaces the file with an atomic move, so that a crash leaves either the old
+ * or the new content.
+ *
+ * With an fsync batch size of 1, each temporary file and its directory are
+ * synced before and after the move. With a larger size, temporary files are
+ * committed by groups: all of them are synced, then moved, then each of their
+ * directories is synced once.
+ *
+ * Committed files are recorded in the {@link MatchCache}, with their new
+ * attributes.
+ *
+ * The unchanged ranges of a content read as bytes are written from the bytes
+ * read, a mapping of the file, so that only the replacements are encoded.
+ *
+ * A symbolic link is kept: the temporary file is created next to the file it
+ * resolves to, which is the one replaced. A file with several hard links is
+ * overwritten in place instead, as a move would detach it from its other
+ * links, so a crash while it is written can leave it partly rewritten.
+ */
+public class AtomicRewriteWriter implements StreamingRewriteWriter {
+
+    private static final int ENCODING_BUFFER_SIZE = 64 * 1024;
+    private static final String TEMPORARY_FILE_SUFFIX = ".gpatch";
+
+    private final int fsyncBatchSize;
+    private final MatchCache matchCache;
+    private final List<PendingRewrite> pendingRewrites;
+
+    /**
+     * @param fsyncBatchSize the number of files synced together, or 0 to never
+     *                       sync
+     */
+    public AtomicRewriteWriter(int fsyncBatchSize, MatchCache matchCache) {
+        this.fsyncBatchSize = fsyncBatchSize;
+        this.matchCache = matchCache;
+        this.pendingRewrites = new ArrayList<>();
+    }
+
+    @Override
+    public Path createTemporaryFile(Path path) throws IOException {
+        Path target = path.toRealPath();
+
+        return Files.createTempFile(target.getParent(),
+                new StringBuilder().append(".").append(target.getFileName()).toString(), TEMPORARY_FILE_SUFFIX);
+    }
+
+    @Override
+    public void write(Rewrite rewrite) throws IOException {
+        Path path = rewrite.getPath();
+        Path temporaryPath = createTemporaryFile(path);
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+                if (rewrite.getContentBytes() != null) {
+                    writePieces(channel, rewrite.getContentBytes(), rewrite.getReplacingSnippets(),
+                            rewrite.getCharset());
+                } else {
+                    writeEncoded(channel, rewrite.getNewContent(), rewrite.getCharset());
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+
+        write(path, temporaryPath);
+    }
+
+    @Override
+    public void write(Path path, Path temporaryPath) throws IOException {
+        try {
+            copyPermissions(path, temporaryPath);
+            if (fsyncBatchSize == 1) {
+                try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+
+        if (fsyncBatchSize > 1) {
+            List<PendingRewrite> batch = null;
+            synchronized (pendingRewrites) {
+                pendingRewrites.add(new PendingRewrite(temporaryPath, path));
+                if (pendingRewrites.size() >= fsyncBatchSize) {
+                    batch = new ArrayList<>(pendingRewrites);
+                    pendingRewrites.clear();
+                }
+            }
+            if (batch != null) {
+                commit(batch);
+            }
+        } else {
+            commit(temporaryPath, path);
+            if (fsyncBatchSize == 1) {
+                syncDirectory(temporaryPath.getParent());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<PendingRewrite> batch;
+        synchronized (pendingRewrites) {
+            batch = new ArrayList<>(pendingRewrites);
+            pendingRewrites.clear();
+        }
+        commit(batch);
+    }
+
+    private void commit(List<PendingRewrite> batch) throws IOException {
+        IOException exception = null;
+        Set<Path> directories = new LinkedHashSet<>();
+        List<PendingRewrite> syncedRewrites = new ArrayList<>();
+        for (PendingRewrite pendingRewrite : batch) {
+            try (FileChannel channel = FileChannel.open(pendingRewrite.temporaryPath, StandardOpenOption.WRITE)) {
+                channel.force(true);
+                syncedRewrites.add(pendingRewrite);
+            } catch (IOException e) {
+                exception = addFailure(exception, pendingRewrite, e);
+            }
+        }
+        for (PendingRewrite pendingRewrite : syncedRewrites) {
+            try {
+                commit(pendingRewrite.temporaryPath, pendingRewrite.path);
+                directories.add(pendingRewrite.temporaryPath.getParent());
+            } catch (IOException e) {
+                exception = addFailure(exception, pendingRewrite, e);
+            }
+        }
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static IOException addFailure(IOException exception, PendingRewrite pendingRewrite, IOException cause) {
+        try {
+            Files.deleteIfExists(pendingRewrite.temporaryPath);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        IOException failure = new IOException(
+                new StringBuilder().append("Unable to commit ").append(pendingRewrite.path).toString(), cause);
+        if (exception == null) {
+            return failure;
+        }
+        exception.addSuppressed(failure);
+
+        return exception;
+    }
+
+    private void commit(Path temporaryPath, Path path) throws IOException {
+        try {
+            Path target = path.toRealPath();
+            if (getLinkNb(target) > 1) {
+                overwrite(target, temporaryPath);
+                Files.delete(temporaryPath);
+            } else {
+                Files.move(temporaryPath, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+
+        try {
+            matchCache.recordApplied(path);
+        } catch (IOException e) {
+            // The file is matched again by the next run
+        }
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        try {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the temporary file keeps default permissions
+        }
+    }
+
+    /**
+     * @return the number of hard links to the file, 1 if the file system does
+     *         not tell
+     */
+    private static int getLinkNb(Path path) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(path, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Copies the content of the source file over the target file, keeping the
+     * target file itself and so its links.
+     */
+    private void overwrite(Path target, Path source) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel output = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                position += output.transferFrom(input, position, size - position);
+            }
+            output.truncate(size);
+            if (fsyncBatchSize > 0) {
+                output.force(true);
+            }
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be synced on every platform
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Encodes the text straight into the channel through a fixed-size buffer,
+     * without an encoded copy of the whole text. Unmappable characters are
+     * reported rather than replaced.
+     */
+    private static void writeEncoded(WritableByteChannel channel, CharSequence text, Charset charset)
+            throws IOException {
+        CharsetEncoder encoder = charset.newEncoder();
+        CharBuffer input = CharBuffer.wrap(text);
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODING_BUFFER_SIZE);
+        CoderResult result;
+        do {
+            result = encoder.encode(input, buffer, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            drain(buffer, channel);
+        } while (result.isOverflow());
+        do {
+            result = encoder.flush(buffer);
+            drain(buffer, channel);
+        } while (result.isOverflow());
+    }
+
+    /**
+     * Writes the ranges of the bytes between the replacements and the encoded
+     * replacements with gathering writes, which copy from the given bytes
+     * straight to the file.
+     *
+     * @param bytes the bytes of the content, one per character
+     */
+    private static void writePieces(FileChannel channel, ByteBuffer bytes, List<Snippet> replacingSnippets,
+            Charset charset) throws IOException {
+        ByteBuffer content = bytes.slice();
+        ByteBuffer[] pieces = new ByteBuffer[2 * replacingSnippets.size() + 1];
+        int pieceNb = 0;
+        int position = 0;
+        for (Snippet snippet : replacingSnippets) {
+            pieces[pieceNb++] = content.duplicate().limit(snippet.getStart()).position(position);
+            pieces[pieceNb++] = ByteBuffer.wrap(snippet.getText().getBytes(charset));
+            position = snippet.getEnd();
+        }
+        pieces[pieceNb++] = content.duplicate().position(position);
+
+        int firstPiece = 0;
+        while (firstPiece < pieceNb) {
+            channel.write(pieces, firstPiece, pieceNb - firstPiece);
+            while (firstPiece < pieceNb && !pieces[firstPiece].hasRemaining()) {
+                firstPiece++;
+            }
+        }
+    }
+
+    private static class PendingRewrite {
+
+        private final Path temporaryPath;
+        private final Path path;
+
+        private PendingRewrite(Path temporaryPath, Path path) {
+            this.temporaryPath = temporaryPath;
+            this.path = path;
+        }
+
+    }
+
+}
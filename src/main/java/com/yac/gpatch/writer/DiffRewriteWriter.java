@@ -0,0 +1,393 @@
+package com.yac.gpatch.writer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.yac.gpatch.model.Snippet;
+
+/**
+ * Writes a unified diff of each rewrite instead of modifying the files.
+ *
+ * The diff of a file is computed from its replacements only, so no line
+ * matching is needed, and it is written at once so that the diffs of files
+ * processed concurrently do not interleave. The lines of a file are encoded
+ * with its own charset, as {@code patch} works on bytes.
+ *
+ * Diffs are output in the order of the files announced by
+ * {@link #expect(List)} and {@link #expectNext(Path)}, a diff waiting for the files before its own to be
+ * processed, so that the output of a run does not depend on the completion
+ * order of the files. Past a size of waiting diffs, they are all output in
+ * that order without waiting any longer, so that a slow file does not hold the
+ * diffs of a whole tree in memory. Without an announced order, each diff is
+ * output as soon as it is computed.
+ */
+public class DiffRewriteWriter implements RewriteWriter {
+
+    private static final int CONTEXT_LINE_NB = 3;
+    private static final String NO_NEWLINE_MARKER = "\\ No newline at end of file";
+    private static final long DEFAULT_MAX_PENDING_SIZE = 16 * 1024 * 1024;
+
+    private final OutputStream output;
+    // Virtual threads waiting for the output must not block their carrier, as in a monitor
+    private final Lock outputLock;
+
+    // The files of the pass in output order, the next one to output, and the
+    // diffs and processed files after it
+    private List<Path> expectedPaths;
+    private int nextPath;
+    private final Map<Path, byte[]> pendingDiffs;
+    private final Set<Path> processedPaths;
+    private long pendingSize;
+    private final long maxPendingSize;
+
+    /**
+     * @param output the stream receiving the diffs, flushed but not closed by
+     *               {@link #close()}
+     */
+    public DiffRewriteWriter(OutputStream output) {
+        this(output, DEFAULT_MAX_PENDING_SIZE);
+    }
+
+    /**
+     * @param maxPendingSize the size in bytes of the diffs waiting for the files
+     *                       before their own past which they are output
+     */
+    DiffRewriteWriter(OutputStream output, long maxPendingSize) {
+        this.output = new BufferedOutputStream(output);
+        this.outputLock = new ReentrantLock();
+        this.maxPendingSize = maxPendingSize;
+        this.pendingDiffs = new HashMap<>();
+        this.processedPaths = new HashSet<>();
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputLock.lock();
+        try {
+            // Diffs of files never processed after a failure, or left out of the announced ones
+            if (expectedPaths != null) {
+                for (; nextPath < expectedPaths.size(); nextPath++) {
+                    writePendingDiff(expectedPaths.get(nextPath));
+                }
+            }
+            for (byte[] diff : new TreeMap<>(pendingDiffs).values()) {
+                output.write(diff);
+            }
+            pendingDiffs.clear();
+            pendingSize = 0;
+            output.flush();
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    @Override
+    public void expect(List<Path> paths) {
+        outputLock.lock();
+        try {
+            expectedPaths = new ArrayList<>(paths);
+            nextPath = 0;
+            processedPaths.clear();
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    @Override
+    public void expectNext(Path path) {
+        outputLock.lock();
+        try {
+            if (expectedPaths == null) {
+                expectedPaths = new ArrayList<>();
+            }
+            expectedPaths.add(path);
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    @Override
+    public void processed(Path path) throws IOException {
+        outputLock.lock();
+        try {
+            if (expectedPaths == null) {
+                return;
+            }
+
+            processedPaths.add(path);
+            while (nextPath < expectedPaths.size() && processedPaths.remove(expectedPaths.get(nextPath))) {
+                writePendingDiff(expectedPaths.get(nextPath));
+                nextPath++;
+            }
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(Rewrite rewrite) throws IOException {
+        CharSequence content = rewrite.getContent();
+        List<Integer> lineStarts = findLineStarts(content);
+        List<LineChange> changes = findLineChanges(content, lineStarts, rewrite.getReplacingSnippets());
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        StringBuilder header = new StringBuilder();
+        header.append("--- ").append(rewrite.getPath()).append("\n");
+        header.append("+++ ").append(rewrite.getPath()).append("\n");
+
+        StringBuilder diff = new StringBuilder();
+        int lineNb = content.length() == 0 ? 0 : lineStarts.size();
+        int lineDelta = 0;
+        int i = 0;
+        while (i < changes.size()) {
+            // Changes whose contexts overlap belong to the same hunk
+            int j = i;
+            while (j + 1 < changes.size()
+                    && changes.get(j + 1).firstLine - changes.get(j).getEndLine() <= 2 * CONTEXT_LINE_NB) {
+                j++;
+            }
+
+            int hunkFirstLine = Math.max(0, changes.get(i).firstLine - CONTEXT_LINE_NB);
+            int hunkEndLine = Math.min(lineNb, changes.get(j).getEndLine() + CONTEXT_LINE_NB);
+            StringBuilder hunkLines = new StringBuilder();
+            int oldLineNb = 0;
+            int newLineNb = 0;
+            int line = hunkFirstLine;
+            for (int k = i; k <= j; k++) {
+                LineChange change = changes.get(k);
+                for (; line < change.firstLine; line++, oldLineNb++, newLineNb++) {
+                    appendLine(hunkLines, ' ', getLine(content, lineStarts, line));
+                }
+                for (String oldLine : change.oldLines) {
+                    appendLine(hunkLines, '-', oldLine);
+                    line++;
+                    oldLineNb++;
+                }
+                for (String newLine : change.newLines) {
+                    appendLine(hunkLines, '+', newLine);
+                    newLineNb++;
+                }
+            }
+            for (; line < hunkEndLine; line++, oldLineNb++, newLineNb++) {
+                appendLine(hunkLines, ' ', getLine(content, lineStarts, line));
+            }
+
+            int oldStart = hunkFirstLine + 1;
+            int newStart = oldStart + lineDelta;
+            lineDelta += newLineNb - oldLineNb;
+            diff.append("@@ -").append(oldLineNb == 0 ? oldStart - 1 : oldStart).append(",").append(oldLineNb)
+                    .append(" +").append(newLineNb == 0 ? newStart - 1 : newStart).append(",").append(newLineNb)
+                    .append(" @@\n").append(hunkLines);
+
+            i = j + 1;
+        }
+
+        ByteArrayOutputStream fileDiff = new ByteArrayOutputStream();
+        fileDiff.write(header.toString().getBytes(Charset.defaultCharset()));
+        fileDiff.write(diff.toString().getBytes(rewrite.getCharset()));
+        outputLock.lock();
+        try {
+            if (expectedPaths == null) {
+                fileDiff.writeTo(output);
+                return;
+            }
+
+            pendingDiffs.put(rewrite.getPath(), fileDiff.toByteArray());
+            pendingSize += fileDiff.size();
+            if (pendingSize > maxPendingSize) {
+                // Out of order from here, the diffs of the files still processed coming after
+                for (int k = nextPath; k < expectedPaths.size() && !pendingDiffs.isEmpty(); k++) {
+                    writePendingDiff(expectedPaths.get(k));
+                }
+            }
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    private void writePendingDiff(Path path) throws IOException {
+        byte[] diff = pendingDiffs.remove(path);
+        if (diff != null) {
+            output.write(diff);
+            pendingSize -= diff.length;
+        }
+    }
+
+    /**
+     * @param line a line, newline included if it has one
+     */
+    private static void appendLine(StringBuilder hunkLines, char prefix, String line) {
+        boolean endsWithNewline = line.endsWith("\n");
+        hunkLines.append(prefix).append(line, 0, endsWithNewline ? line.length() - 1 : line.length()).append("\n");
+        if (!endsWithNewline) {
+            hunkLines.append(NO_NEWLINE_MARKER).append("\n");
+        }
+    }
+
+    /**
+     * @return the index of the line containing the given position
+     */
+    private static int findLine(List<Integer> lineStarts, int position) {
+        int low = 0;
+        int high = lineStarts.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) / 2;
+            if (lineStarts.get(middle) <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Groups the replacements touching the same lines, then leaves out the
+     * lines a group does not change at its start and end, so that they are
+     * context lines rather than removed and added again.
+     *
+     * @return the changes of the lines, without the groups changing nothing
+     */
+    private static List<LineChange> findLineChanges(CharSequence content, List<Integer> lineStarts,
+            List<Snippet> snippets) {
+        List<Integer> firstLines = new ArrayList<>();
+        List<Integer> lastLines = new ArrayList<>();
+        List<List<Snippet>> groups = new ArrayList<>();
+        for (Snippet snippet : snippets) {
+            int firstLine = findLine(lineStarts, snippet.getStart());
+            int lastLine = snippet.getEnd() > snippet.getStart() ? findLine(lineStarts, snippet.getEnd() - 1)
+                    : firstLine;
+            int last = groups.size() - 1;
+            if (last >= 0 && firstLine <= lastLines.get(last)) {
+                lastLines.set(last, Math.max(lastLines.get(last), lastLine));
+                groups.get(last).add(snippet);
+            } else {
+                firstLines.add(firstLine);
+                lastLines.add(lastLine);
+                groups.add(new ArrayList<>(List.of(snippet)));
+            }
+        }
+
+        List<LineChange> changes = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            int changeStart = lineStarts.get(firstLines.get(i));
+            int changeEnd = getLineEnd(content, lineStarts, lastLines.get(i));
+            StringBuilder newText = new StringBuilder();
+            int position = changeStart;
+            for (Snippet snippet : groups.get(i)) {
+                newText.append(content, position, snippet.getStart()).append(snippet.getText());
+                position = snippet.getEnd();
+            }
+            newText.append(content, position, changeEnd);
+
+            List<String> oldLines = splitLines(content.subSequence(changeStart, changeEnd));
+            List<String> newLines = splitLines(newText);
+            int firstLine = firstLines.get(i);
+            while (!oldLines.isEmpty() && !newLines.isEmpty() && oldLines.get(0).equals(newLines.get(0))) {
+                oldLines.remove(0);
+                newLines.remove(0);
+                firstLine++;
+            }
+            while (!oldLines.isEmpty() && !newLines.isEmpty()
+                    && oldLines.get(oldLines.size() - 1).equals(newLines.get(newLines.size() - 1))) {
+                oldLines.remove(oldLines.size() - 1);
+                newLines.remove(newLines.size() - 1);
+            }
+            if (!oldLines.isEmpty() || !newLines.isEmpty()) {
+                changes.add(new LineChange(firstLine, oldLines, newLines));
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * A text ending with a newline has no empty last line.
+     */
+    private static List<Integer> findLineStarts(CharSequence text) {
+        List<Integer> lineStarts = new ArrayList<>();
+        lineStarts.add(0);
+        for (int i = 0; i < text.length() - 1; i++) {
+            if (text.charAt(i) == '\n') {
+                lineStarts.add(i + 1);
+            }
+        }
+
+        return lineStarts;
+    }
+
+    private static String getLine(CharSequence text, List<Integer> lineStarts, int line) {
+        return text.subSequence(lineStarts.get(line), getLineEnd(text, lineStarts, line)).toString();
+    }
+
+    /**
+     * @return the end of the given line, newline included
+     */
+    private static int getLineEnd(CharSequence text, List<Integer> lineStarts, int line) {
+        return line + 1 < lineStarts.size() ? lineStarts.get(line + 1) : text.length();
+    }
+
+    /**
+     * @return the lines of the text, newlines included, an empty text having
+     *         none
+     */
+    private static List<String> splitLines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.subSequence(lineStart, i + 1).toString());
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < text.length()) {
+            lines.add(text.subSequence(lineStart, text.length()).toString());
+        }
+
+        return lines;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The lines removed from a file from a given line, and the lines added in
+     * their place.
+     */
+    private static class LineChange {
+
+        private final int firstLine;
+        private final List<String> oldLines;
+        private final List<String> newLines;
+
+        private LineChange(int firstLine, List<String> oldLines, List<String> newLines) {
+            this.firstLine = firstLine;
+            this.oldLines = oldLines;
+            this.newLines = newLines;
+        }
+
+        /**
+         * @return the line following the removed lines
+         */
+        private int getEndLine() {
+            return firstLine + oldLines.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.yac.gpatch.writer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.yac.gpatch.model.Snippet;
+import com.yac.gpatch.util.EditedCharSequence;
+
+/**
+ * The replacements of the content of a file modified by patches. They make
+ * up the new content along with the unchanged ranges of the content, which
+ * is never built as a whole.
+ */
+public class Rewrite {
+
+    private final Path path;
+    private final CharSequence content;
+    private final ByteBuffer contentBytes;
+    private final List<Snippet> replacingSnippets;
+    private final Charset charset;
+
+    /**
+     * @param contentBytes      the bytes of the content, from their position,
+     *                          when each character of the content is the byte
+     *                          at the same position, or {@code null}
+     * @param replacingSnippets the replacements applied to the content, sorted
+     *                          by position
+     * @param charset           the charset encoding the contents back to bytes
+     */
+    public Rewrite(Path path, CharSequence content, ByteBuffer contentBytes, List<Snippet> replacingSnippets,
+            Charset charset) {
+        this.path = path;
+        this.content = content;
+        this.contentBytes = contentBytes;
+        this.replacingSnippets = replacingSnippets;
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public CharSequence getContent() {
+        return content;
+    }
+
+    /**
+     * @return the bytes of the content, or {@code null} if the content was
+     *         decoded
+     */
+    public ByteBuffer getContentBytes() {
+        return contentBytes;
+    }
+
+    /**
+     * @return a view of the new content
+     */
+    public CharSequence getNewContent() {
+        return new EditedCharSequence(content, replacingSnippets);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<Snippet> getReplacingSnippets() {
+        return replacingSnippets;
+    }
+
+}
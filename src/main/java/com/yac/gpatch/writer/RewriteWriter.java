@@ -0,0 +1,40 @@
+package com.yac.gpatch.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface RewriteWriter extends Closeable {
+
+    /**
+     * Announces the files of a pass, in the order their rewrites are to be
+     * output, before any of them is processed.
+     */
+    default void expect(List<Path> paths) {
+    }
+
+    /**
+     * Announces one more file of the pass, to be output after the ones
+     * announced so far, for a pass whose files are found while the first ones
+     * are already processed. Called before the file is processed.
+     */
+    default void expectNext(Path path) {
+    }
+
+    /**
+     * Called once a file has been processed, after its rewrite if it has one.
+     */
+    default void processed(Path path) throws IOException {
+    }
+
+    void write(Rewrite rewrite) throws IOException;
+
+    /**
+     * Called once all the rewrites of a run have been written.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
+}
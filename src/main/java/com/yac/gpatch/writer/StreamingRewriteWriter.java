@@ -0,0 +1,23 @@
+package com.yac.gpatch.writer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A writer to which the new content of a file can be handed over as a file,
+ * for the files too large to be rewritten in memory.
+ */
+public interface StreamingRewriteWriter extends RewriteWriter {
+
+    /**
+     * @return a new empty file to write the new content of the given file to,
+     *         on the same file system
+     */
+    Path createTemporaryFile(Path path) throws IOException;
+
+    /**
+     * Replaces the given file with the given temporary file, which is moved.
+     */
+    void write(Path path, Path temporaryPath) throws IOException;
+
+}
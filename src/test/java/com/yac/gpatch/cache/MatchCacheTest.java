@@ -0,0 +1,183 @@
+package com.yac.gpatch.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.matcher.CompiledPatch;
+import com.yac.gpatch.matcher.MatchingEngine;
+import com.yac.gpatch.parser.PatchParser;
+
+public class MatchCacheTest {
+
+    private static final int HEADER_SIZE = 8;
+    // Key length, size, modification time, checksum and state, besides the key
+    private static final int ENTRY_FIELDS_SIZE = 4 + 3 * 8 + 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path cacheDirectory;
+    private List<CompiledPatch> compiledPatches;
+    private List<Path> files;
+
+    @Before
+    public void setUp() throws IOException {
+        Path root = folder.getRoot().toPath();
+        cacheDirectory = root.resolve("cache");
+        Path patchPath = Files.write(root.resolve("patch"),
+                "header\n@@ @@\n-x = 1;\n+x = 2;\n".getBytes(StandardCharsets.UTF_8));
+        compiledPatches = Collections.singletonList(CompiledPatch.compile(PatchParser.parse(patchPath),
+                StandardCharsets.UTF_8, MatchingEngine.LINEAR));
+        files = new ArrayList<>();
+        for (String name : Arrays.asList("a.ts", "bb.ts", "ccc.ts")) {
+            files.add(Files.write(root.resolve(name), ("const " + name + ";\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    public void keepsEntriesAcrossRuns() throws IOException {
+        recordAll(false);
+
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, false)) {
+            for (Path file : files) {
+                assertTrue(isFresh(matchCache, file));
+            }
+        }
+    }
+
+    @Test
+    public void dropsTornEntriesAtEndOfIndex() throws IOException {
+        recordAll(false);
+        Path indexPath = getIndexPath();
+        byte[] bytes = Files.readAllBytes(indexPath);
+        long[] entryEnds = new long[files.size()];
+        long entryEnd = HEADER_SIZE;
+        for (int i = 0; i < files.size(); i++) {
+            entryEnd += ENTRY_FIELDS_SIZE + files.get(i).toAbsolutePath().normalize().toString()
+                    .getBytes(StandardCharsets.UTF_8).length;
+            entryEnds[i] = entryEnd;
+        }
+        assertEquals(entryEnd, bytes.length);
+
+        for (int length = 0; length <= bytes.length; length++) {
+            Files.write(indexPath, Arrays.copyOf(bytes, length));
+            long wholeEntriesEnd = HEADER_SIZE;
+            try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, false)) {
+                for (int i = 0; i < files.size(); i++) {
+                    assertEquals("length " + length, entryEnds[i] <= length, isFresh(matchCache, files.get(i)));
+                    if (entryEnds[i] <= length) {
+                        wholeEntriesEnd = entryEnds[i];
+                    }
+                }
+            }
+            // Compacted from the entries read, the torn one left out
+            assertEquals("length " + length, wholeEntriesEnd, Files.size(indexPath));
+        }
+    }
+
+    @Test
+    public void dropsCorruptedEntries() throws IOException {
+        recordAll(false);
+        Path indexPath = getIndexPath();
+        byte[] bytes = Files.readAllBytes(indexPath);
+
+        byte[] badState = bytes.clone();
+        badState[badState.length - 1] = 7;
+        Files.write(indexPath, badState);
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, false)) {
+            assertTrue(isFresh(matchCache, files.get(0)));
+            assertFalse(isFresh(matchCache, files.get(2)));
+        }
+
+        byte[] badKeyLength = bytes.clone();
+        ByteBuffer.wrap(badKeyLength).putInt(HEADER_SIZE, -1);
+        Files.write(indexPath, badKeyLength);
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, false)) {
+            assertFalse(isFresh(matchCache, files.get(0)));
+        }
+        assertEquals(HEADER_SIZE, Files.size(indexPath));
+    }
+
+    @Test
+    public void ignoresIndexOfOtherFormat() throws IOException {
+        recordAll(false);
+        Path indexPath = getIndexPath();
+        byte[] bytes = Files.readAllBytes(indexPath);
+        ByteBuffer.wrap(bytes).putInt(4, 0);
+        Files.write(indexPath, bytes);
+
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, false)) {
+            for (Path file : files) {
+                assertFalse(isFresh(matchCache, file));
+            }
+        }
+        assertEquals(HEADER_SIZE, Files.size(indexPath));
+    }
+
+    @Test
+    public void detectsChangedFiles() throws IOException {
+        recordAll(true);
+        Path file = files.get(0);
+        FileTime modificationTime = Files.getLastModifiedTime(file);
+        // Same size and modification time, only the checksum differs
+        Files.write(file, new String(Files.readAllBytes(file), StandardCharsets.UTF_8).toUpperCase()
+                .getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, modificationTime);
+        Files.write(files.get(1), "x".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, true)) {
+            assertFalse(isFresh(matchCache, file));
+            assertFalse(isFresh(matchCache, files.get(1)));
+            assertTrue(isFresh(matchCache, files.get(2)));
+        }
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, false)) {
+            // Another index, without checksums
+            assertFalse(isFresh(matchCache, files.get(2)));
+        }
+    }
+
+    private void recordAll(boolean checksumEnabled) throws IOException {
+        try (MatchCache matchCache = MatchCache.open(cacheDirectory, compiledPatches, checksumEnabled)) {
+            for (Path file : files) {
+                matchCache.recordUnmatched(file, Files.readAttributes(file, BasicFileAttributes.class),
+                        ByteBuffer.wrap(Files.readAllBytes(file)));
+            }
+        }
+    }
+
+    private Path getIndexPath() throws IOException {
+        try (Stream<Path> indexPaths = Files.list(cacheDirectory)) {
+            List<Path> paths = indexPaths.collect(Collectors.toList());
+            assertEquals(1, paths.size());
+
+            return paths.get(0);
+        }
+    }
+
+    private static boolean isFresh(MatchCache matchCache, Path file) throws IOException {
+        return matchCache.isFresh(file, Files.readAttributes(file, BasicFileAttributes.class),
+                ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.yac.gpatch.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs a {@link Daemon} on a temporary socket and talks to it as a
+ * {@link DaemonClient} does.
+ */
+public class DaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private Path socketPath;
+    private Thread daemonThread;
+    private String output;
+    private String errorOutput;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException {
+        root = folder.getRoot().toPath();
+        socketPath = root.resolve("daemon.socket");
+        Daemon daemon = new Daemon(socketPath, 4);
+        daemonThread = new Thread(() -> {
+            try {
+                daemon.run();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        daemonThread.setDaemon(true);
+        daemonThread.start();
+        // The socket file is created before the daemon listens, a connection tells it is ready
+        while (!isAnswering()) {
+            Thread.sleep(10);
+        }
+
+        Files.write(root.resolve("patch"), "header\n@@ @@\n-x = 1;\n+x = 2;\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("a.ts"), "y = 0;\nx = 1;\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        daemonThread.interrupt();
+        daemonThread.join();
+    }
+
+    @Test
+    public void sendsOutputFramesAndExitStatus() throws IOException {
+        assertEquals(0, runClient("-e", "ts", "--dry-run", "--p-file=" + root.resolve("patch"),
+                root.resolve("a.ts").toString()));
+        assertTrue(output, output.startsWith("--- " + root.resolve("a.ts") + "\n"));
+        assertTrue(output, output.endsWith("-x = 1;\n+x = 2;\n"));
+        // Not rewritten by a dry run
+        assertEquals("y = 0;\nx = 1;\n", Files.readString(root.resolve("a.ts")));
+    }
+
+    @Test
+    public void sendsErrorFramesOfFailedRun() throws IOException {
+        int status = runClient("-e", "ts", "--p-file=" + root.resolve("missing"), root.toString());
+
+        assertTrue(status != 0);
+        assertEquals("", output);
+        assertTrue(errorOutput, errorOutput.startsWith("Error: "));
+        assertTrue(errorOutput, errorOutput.contains("missing"));
+    }
+
+    @Test
+    public void keepsServingAfterInvalidRequests() throws IOException {
+        assertClosedAfter(root.toString(), -1);
+        assertClosedAfter(root.toString(), Integer.MAX_VALUE);
+        // Not a valid path
+        assertClosedAfter("a\0b", 0);
+
+        assertEquals(0, runClient("-e", "ts", "--p-file=" + root.resolve("patch"), root.resolve("a.ts").toString()));
+        assertEquals("y = 0;\nx = 2;\n", Files.readString(root.resolve("a.ts")));
+    }
+
+    private boolean isAnswering() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private int runClient(String... args) throws IOException {
+        ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorOutputBytes = new ByteArrayOutputStream();
+        int status = DaemonClient.run(socketPath, args, new PrintStream(outputBytes),
+                new PrintStream(errorOutputBytes));
+        output = outputBytes.toString(StandardCharsets.UTF_8);
+        errorOutput = errorOutputBytes.toString(StandardCharsets.UTF_8);
+
+        return status;
+    }
+
+    /**
+     * Sends a request header and checks that the daemon closes the connection
+     * without answering.
+     */
+    private void assertClosedAfter(String workingDirectory, int argNb) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            // Sent at once, so that no byte is left unread when the daemon closes the connection
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(workingDirectory);
+            request.writeInt(argNb);
+            request.flush();
+
+            InputStream frames = Channels.newInputStream(channel);
+            assertEquals(-1, frames.read());
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.parser.PatchParser;
+
+public class BinaryPatchFileTest {
+
+    private static final String PATCH = new StringBuilder().append("header\n")
+            .append("@@ name @@\nconst NAME = '@<>@';\n")
+            .append("@@ @@\n-greet(@<name>@, @...@);\n+sayHello(@<name>@, @...@);\n")
+            .append("@@ @@\n-console.log( foo.bar );\n+logger.info(foo.bar);\n")
+            .append("@@ @@\n-x = 1;\n+x = 2;\n").toString();
+    private static final String CONTENT = new StringBuilder().append("const NAME = 'bob';\n")
+            .append("greet(bob, 1, 2); greet(bob);\nconsole.log(foo.bar);\n x = 1;\n").toString();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackCompiledPatches() throws IOException {
+        for (MatchingEngine engine : MatchingEngine.values()) {
+            for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.UTF_16)) {
+                CompiledPatch compiledPatch = compile(charset, engine);
+                Path path = folder.getRoot().toPath().resolve("patch.bin");
+                BinaryPatchFile.write(path, Collections.singletonList(compiledPatch));
+
+                BinaryPatchFile binaryPatchFile = BinaryPatchFile.read(path);
+                List<CompiledPatch> readPatches = binaryPatchFile.getCompiledPatches(charset, engine);
+                assertNotNull(readPatches);
+                assertEquals(1, readPatches.size());
+                assertEquals(compiledPatch.isByteViewEnabled(), binaryPatchFile.isByteViewEnabled());
+                assertEquals(describe(compiledPatch), describe(readPatches.get(0)));
+                assertEquals(compiledPatch.getPatch().toString(), binaryPatchFile.getPatches().get(0).toString());
+            }
+        }
+    }
+
+    @Test
+    public void keysCompiledPatchesByEngineAndCharset() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("patch.bin");
+        BinaryPatchFile.write(path, Collections.singletonList(compile(StandardCharsets.UTF_8,
+                MatchingEngine.LINEAR)));
+        BinaryPatchFile binaryPatchFile = BinaryPatchFile.read(path);
+
+        assertNull(binaryPatchFile.getCompiledPatches(StandardCharsets.ISO_8859_1, MatchingEngine.LINEAR));
+        assertNull(binaryPatchFile.getCompiledPatches(StandardCharsets.UTF_8, MatchingEngine.REGEX));
+        assertEquals(1, binaryPatchFile.getPatches().size());
+    }
+
+    @Test
+    public void resolvesDirectoryAgainstFile() throws IOException {
+        Path tree = folder.newFolder("tree").toPath();
+        Files.createDirectories(tree.resolve("patches"));
+        Files.createDirectories(tree.resolve("compiled"));
+        Path patchPath = Files.write(tree.resolve("patches/patch"), PATCH.getBytes(StandardCharsets.UTF_8));
+        CompiledPatch compiledPatch = CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8,
+                MatchingEngine.LINEAR);
+        BinaryPatchFile.write(tree.resolve("compiled/patch.bin"), Collections.singletonList(compiledPatch));
+
+        Path movedTree = Files.move(tree, folder.getRoot().toPath().resolve("moved"));
+        BinaryPatchFile binaryPatchFile = BinaryPatchFile.read(movedTree.resolve("compiled/patch.bin"));
+
+        assertEquals(movedTree.resolve("patches"), binaryPatchFile.getPatches().get(0).getDirectory());
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("patch.bin");
+        BinaryPatchFile.write(path, Collections.singletonList(compile(StandardCharsets.UTF_8,
+                MatchingEngine.LINEAR)));
+        byte[] bytes = Files.readAllBytes(path);
+
+        Path truncatedPath = folder.getRoot().toPath().resolve("truncated.bin");
+        for (int length = 0; length < bytes.length; length += 1 + length / 64) {
+            Files.write(truncatedPath, Arrays.copyOf(bytes, length));
+            assertUnreadable(truncatedPath);
+        }
+        Files.write(truncatedPath, Arrays.copyOf(bytes, bytes.length - 1));
+        assertUnreadable(truncatedPath);
+        Files.write(truncatedPath, Arrays.copyOf(bytes, bytes.length + 1));
+        assertUnreadable(truncatedPath);
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("patch.bin");
+        BinaryPatchFile.write(path, Collections.singletonList(compile(StandardCharsets.UTF_8,
+                MatchingEngine.LINEAR)));
+        byte[] bytes = Files.readAllBytes(path);
+        assertTrue(BinaryPatchFile.isBinaryPatchFile(path));
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0]++;
+        Files.write(path, badMagic);
+        assertFalse(BinaryPatchFile.isBinaryPatchFile(path));
+        assertUnreadable(path);
+
+        byte[] otherVersion = bytes.clone();
+        ByteBuffer.wrap(otherVersion).putInt(Integer.BYTES, 1);
+        Files.write(path, otherVersion);
+        assertTrue(BinaryPatchFile.isBinaryPatchFile(path));
+        assertUnreadable(path);
+    }
+
+    private static void assertUnreadable(Path path) {
+        try {
+            BinaryPatchFile.read(path);
+            fail(new StringBuilder().append("Read ").append(path).append(" of ").append(path.toFile().length())
+                    .append(" bytes").toString());
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private CompiledPatch compile(Charset charset, MatchingEngine engine) throws IOException {
+        Path patchPath = folder.getRoot().toPath().resolve("patch");
+        Files.write(patchPath, PATCH.getBytes(StandardCharsets.UTF_8));
+
+        return CompiledPatch.compile(PatchParser.parse(patchPath), charset, engine);
+    }
+
+    /**
+     * @return the compiled state of the patch and its matches in the content
+     */
+    private static String describe(CompiledPatch compiledPatch) {
+        StringBuilder description = new StringBuilder().append(compiledPatch.getPatch().getDirectory())
+                .append(compiledPatch.isContentIndexed()).append(compiledPatch.getContentCharset()).append("\n");
+        for (CompiledRule rule : compiledPatch.getRules()) {
+            description.append(rule.getRule().getId()).append(rule.getText()).append(rule.getAnchor())
+                    .append(findAll(rule.getLinearPattern())).append(findAll(rule.getPattern())).append("\n");
+        }
+        for (CompiledHunk hunk : compiledPatch.getHunks()) {
+            description.append(hunk.getHunk().getId()).append(hunk.getInitialText()).append(hunk.getFinalText())
+                    .append(hunk.getAnchor()).append(findAll(hunk.getLinearPattern()))
+                    .append(findAll(hunk.getEllipsisPattern())).append(findAll(hunk.getPattern()));
+            for (VariableReference variable : hunk.getInitialVariables()) {
+                description.append(variable.getRule().getId()).append(variable.getStart()).append(variable.getEnd());
+            }
+            for (VariableReference variable : hunk.getFinalVariables()) {
+                description.append(variable.getRule().getId()).append(variable.getStart()).append(variable.getEnd());
+            }
+            description.append("\n");
+        }
+        byte[] content = CONTENT.getBytes(compiledPatch.getContentCharset());
+        description.append(compiledPatch.getPrefilter().mayMatch(ByteBuffer.wrap(content)))
+                .append(compiledPatch.getPrefilter().mayMatch(ByteBuffer.wrap(new byte[] { 'x' })))
+                .append(Arrays.toString(compiledPatch.getSearchPlan().getRuleOrder()));
+
+        return description.toString();
+    }
+
+    private static String findAll(LinearPattern pattern) {
+        if (pattern == null) {
+            return "-";
+        }
+
+        StringBuilder matches = new StringBuilder();
+        LinearPattern.Matcher matcher = pattern.matcher(CONTENT);
+        while (matcher.find()) {
+            matches.append(matcher.start(0)).append(",").append(matcher.end(0)).append(";");
+        }
+
+        return matches.toString();
+    }
+
+    private static String findAll(Pattern pattern) {
+        if (pattern == null) {
+            return "-";
+        }
+
+        StringBuilder matches = new StringBuilder();
+        Matcher matcher = pattern.matcher(CONTENT);
+        while (matcher.find()) {
+            matches.append(matcher.start()).append(",").append(matcher.end()).append(";");
+        }
+
+        return matches.toString();
+    }
+
+}
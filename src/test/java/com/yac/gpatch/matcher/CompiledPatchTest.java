@@ -0,0 +1,144 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.report.FileReport;
+import com.yac.gpatch.util.logging.Log;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.Rewrite;
+
+/**
+ * Checks the captures of the rules naming a file, and the hunks they leave
+ * out of the search when they capture nothing.
+ */
+public class CompiledPatchTest {
+
+    private static final String PATCH = "@@ name from defs.ts @@\nconst NAME = '@<>@';\n"
+            + "@@ @@\n-greet(@<name>@);\n+hello(@<name>@);\n"
+            + "@@ @@\n-wave(x);\n+wave(y);\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void capturesRulesNamingFileOnce() throws IOException {
+        write("defs.ts", "const NAME = 'bob';\nconst NAME = 'al';\n");
+        CompiledPatch compiledPatch = compile(PATCH);
+        CompiledPatch boundPatch = compiledPatch.captureSharedRules(folder.getRoot().toPath());
+        String ruleId = compiledPatch.getRules().get(0).getRule().getId();
+
+        assertEquals(Collections.singletonMap(ruleId, "bob"), boundPatch.getSharedVariables());
+        assertEquals(Collections.singletonList("File " + folder.getRoot().toPath().resolve("defs.ts")
+                + ": Variable 'name' has multiple definitions"), getLogTexts(boundPatch.getCaptureReports()));
+        assertEquals("x;\nhello(bob);\ngreet(al);\n", apply(boundPatch, "x;\ngreet(bob);\ngreet(al);\n"));
+    }
+
+    @Test
+    public void returnsPatchWithoutRulesNamingFile() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ @@\n-wave(x);\n+wave(y);\n");
+
+        assertSame(compiledPatch, compiledPatch.captureSharedRules(folder.getRoot().toPath()));
+    }
+
+    @Test
+    public void failsOnMissingFile() throws IOException {
+        CompiledPatch compiledPatch = compile(PATCH);
+        try {
+            compiledPatch.captureSharedRules(folder.getRoot().toPath());
+            fail("Expected a NoSuchFileException");
+        } catch (NoSuchFileException e) {
+            assertEquals(folder.getRoot().toPath().resolve("defs.ts").toString(), e.getFile());
+        }
+    }
+
+    @Test
+    public void skipsHunksOfRuleCapturingNothing() throws IOException {
+        write("defs.ts", "let name = 'bob';\n");
+        CompiledPatch boundPatch = compile(PATCH).captureSharedRules(folder.getRoot().toPath());
+
+        assertEquals(Collections.emptyMap(), boundPatch.getSharedVariables());
+        assertEquals(Collections.singletonList("File " + folder.getRoot().toPath().resolve("defs.ts")
+                + ": Missing variable 'name'"), getLogTexts(boundPatch.getCaptureReports()));
+        boolean[] skippedHunks = new boolean[2];
+        boundPatch.getSearchPlan().skipUnboundHunks(skippedHunks);
+        assertArrayEquals(new boolean[] { true, false }, skippedHunks);
+        assertEquals("x;\ngreet(bob);\nwave(y);\n", apply(boundPatch, "x;\ngreet(bob);\nwave(x);\n"));
+    }
+
+    @Test
+    public void bindsPlanToCaptures() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ name from defs.ts @@\nconst NAME = '@<>@';\n"
+                + "@@ other @@\nlet OTHER = '@<>@';\n"
+                + "@@ @@\n-greet(@<name>@, @<other>@);\n+hello(@<other>@);\n"
+                + "@@ @@\n-wave(x);\n+wave(y);\n"
+                + "@@ @@\n-greet(@<name>@);\n+hello(@<name>@);\n");
+        List<CompiledRule> rules = compiledPatch.getRules();
+        String ruleId = rules.get(0).getRule().getId();
+        SearchPlan plan = compiledPatch.getSearchPlan();
+
+        // Unbound until captured
+        boolean[] skippedHunks = new boolean[3];
+        plan.skipUnboundHunks(skippedHunks);
+        assertArrayEquals(new boolean[] { true, false, true }, skippedHunks);
+        // The rule in the files is only needed by a hunk that cannot apply
+        assertFalse(plan.isRuleNeeded(1, skippedHunks));
+
+        skippedHunks = new boolean[3];
+        plan.bind(rules, Collections.singletonMap(ruleId, "bob")).skipUnboundHunks(skippedHunks);
+        assertArrayEquals(new boolean[3], skippedHunks);
+        assertTrue(plan.isRuleNeeded(1, skippedHunks));
+    }
+
+    private CompiledPatch compile(String patch) throws IOException {
+        Path patchPath = write("patch", "header\n" + patch);
+
+        return CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR);
+    }
+
+    /**
+     * @return the content rewritten by the given patch, or the same content
+     *         if it left it unchanged
+     */
+    private String apply(CompiledPatch compiledPatch, String content) throws IOException {
+        Path path = write("file.ts", content);
+        List<Rewrite> rewrites = new ArrayList<>();
+        new PatchMatcher(Collections.singletonList(compiledPatch), path, new Statistics(), rewrites::add,
+                MatchCache.disabled(), false).call();
+        if (rewrites.isEmpty()) {
+            return content;
+        }
+
+        return rewrites.get(0).getNewContent().toString();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> getLogTexts(List<FileReport> reports) {
+        return reports.stream().flatMap(report -> report.getLogs().stream()).map(Log::getText)
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ContentIndexTest {
+
+    private static final String[] PATTERN_ATOMS = { "ab", "ba", "a(", "(b", "a", ")", ",", " ", "\n", "@...@",
+            "@<>@" };
+    private static final String[] TEXT_ATOMS = { "a", "b", "(", ")", ",", " ", "\n", "\t", "\r\n", "\u000B", "\f",
+            "\u0085", "ab", "x" };
+    // Literals occurring inside and across each other in the texts
+    private static final String[] OVERLAPPING_PATTERN_ATOMS = { "a", "aa", "aba", "bab", " ", "\n", "@...@",
+            "@<>@" };
+    private static final String[] OVERLAPPING_TEXT_ATOMS = { "a", "b", "aa", "ab", " ", "\n" };
+    private static final int RANDOM_CASE_NB = 20000;
+
+    @Test
+    public void indexesPairsOutsideWhitespaces() {
+        assertIndexed("ab");
+        assertIndexed("a b\tc\r\nd\u000Be\ff");
+        assertIndexed("abc  cba\nabcabc");
+        assertIndexed("a\u0085b");
+        assertIndexed(" ab ");
+    }
+
+    @Test
+    public void indexesContentsTooShortForAPair() {
+        assertIndexed("");
+        assertIndexed("a");
+        assertIndexed(" ");
+        assertIndexed(" \n\t");
+    }
+
+    @Test
+    public void leavesContentsTooLargeUnindexed() {
+        assertNull(ContentIndex.build(new RepeatedChar(64 * 1024 * 1024 + 1)));
+    }
+
+    @Test
+    public void keepsNoPositionOfFormerContent() {
+        ContentIndex index = ContentIndex.build("abababab xyxyxy abab");
+        for (String content : new String[] { "ab", "", "yx ab", "a", "abababababababababab" }) {
+            index = ContentIndex.build(content, index);
+
+            assertEquals(content, describe(ContentIndex.build(content)), describe(index));
+        }
+    }
+
+    @Test
+    public void findsMatchesOfIndexedPatternsLikeScan() {
+        Random random = new Random(42);
+        ContentIndex index = null;
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String pattern = generate(random, PATTERN_ATOMS, 1 + random.nextInt(4));
+            String text = generate(random, TEXT_ATOMS, random.nextInt(40));
+            boolean crLfOnly = random.nextBoolean();
+            // Reused across cases, as by the matchers of successive files
+            index = ContentIndex.build(text, index);
+            LinearPattern linearPattern = CompiledPatch.toLinearPattern(pattern, crLfOnly, false, null);
+
+            assertEquals(new StringBuilder().append("pattern=").append(pattern).append(" text=").append(text)
+                    .toString(), findAll(linearPattern.matcher(text)), findAll(linearPattern.matcher(text, index)));
+        }
+    }
+
+    @Test
+    public void findsOverlappingLiteralsLikeScan() {
+        assertMatchesLikeScan("aa", "aaaaa");
+        assertMatchesLikeScan("aba", "ababababa");
+        assertMatchesLikeScan("abab ab", "ababab abab\nab ababab");
+        assertMatchesLikeScan("ab@...@ba", "abababa ba ab aba");
+        assertMatchesLikeScan("aa @<>@ aa", "aaa x aaaa aa aa aaa");
+        assertMatchesLikeScan("aab aab", "aaab aab aab aaab");
+    }
+
+    @Test
+    public void findsPatternsWithoutIndexablePairLikeScan() {
+        // Anchors of whitespaces or single characters, the content is scanned
+        for (String pattern : new String[] { " ", "\n", " \t \n ", "@...@", " @<>@ ", "a", "a b", "( )",
+                "a @...@ b" }) {
+            assertMatchesLikeScan(pattern, "a b\n( a )  \r\n\tb a\u000B\u0085a");
+            assertMatchesLikeScan(pattern, "");
+            assertMatchesLikeScan(pattern, " \n ");
+        }
+    }
+
+    @Test
+    public void findsRandomOverlappingLiteralsLikeScan() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String pattern = generate(random, OVERLAPPING_PATTERN_ATOMS, 1 + random.nextInt(5));
+            // A rule captures a single variable
+            if (pattern.indexOf("@<>@") == pattern.lastIndexOf("@<>@")) {
+                assertMatchesLikeScan(pattern, generate(random, OVERLAPPING_TEXT_ATOMS, random.nextInt(60)));
+            }
+        }
+    }
+
+    /**
+     * Compares the matches found through the index of the text with those of
+     * a scan, with the group of the variable if any, for both kinds of line
+     * terminators.
+     */
+    private static void assertMatchesLikeScan(String pattern, String text) {
+        ContentIndex index = ContentIndex.build(text);
+        String group = pattern.contains("@<>@") ? "G" : null;
+        for (boolean crLfOnly : new boolean[] { false, true }) {
+            LinearPattern linearPattern = CompiledPatch.toLinearPattern(pattern, crLfOnly, false, group);
+            String description = new StringBuilder().append("pattern=").append(pattern).append(" text=")
+                    .append(text).append(" crLfOnly=").append(crLfOnly).toString();
+
+            assertEquals(description, findAll(linearPattern.matcher(text), group),
+                    findAll(linearPattern.matcher(text, index), group));
+        }
+    }
+
+    /**
+     * Checks that each bucket holds, in order, the positions of the pairs
+     * hashed to it and no other.
+     */
+    private static void assertIndexed(String content) {
+        ContentIndex index = ContentIndex.build(content);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int bucket = 0; bucket < 4096; bucket++) {
+            expected.add(new ArrayList<>());
+        }
+        for (int i = 0; i + 1 < content.length(); i++) {
+            char first = content.charAt(i);
+            char second = content.charAt(i + 1);
+            if (!LinearPattern.isWhitespace(first) && !LinearPattern.isWhitespace(second)) {
+                expected.get(index.getBucket(first, second)).add(i);
+            }
+        }
+
+        assertEquals(content, expected.toString(), describe(index));
+    }
+
+    /**
+     * @return the positions of each bucket
+     */
+    private static String describe(ContentIndex index) {
+        List<List<Integer>> positions = new ArrayList<>();
+        for (int bucket = 0; bucket < 4096; bucket++) {
+            List<Integer> bucketPositions = new ArrayList<>();
+            for (int i = index.getBucketStart(bucket); i < index.getBucketEnd(bucket); i++) {
+                bucketPositions.add(index.getPosition(i));
+            }
+            positions.add(bucketPositions);
+        }
+
+        return positions.toString();
+    }
+
+    private static String findAll(LinearPattern.Matcher matcher) {
+        return findAll(matcher, null);
+    }
+
+    /**
+     * @param group the group of the variable, or {@code null} if the pattern
+     *              has none
+     */
+    private static String findAll(LinearPattern.Matcher matcher, String group) {
+        StringBuilder matches = new StringBuilder();
+        while (matcher.find()) {
+            matches.append(matcher.start(0)).append(",").append(matcher.end(0));
+            if (group != null) {
+                matches.append(":").append(matcher.start(group)).append(",").append(matcher.end(group));
+            }
+            matches.append(";");
+        }
+
+        return matches.toString();
+    }
+
+    private static String generate(Random random, String[] atoms, int atomNb) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < atomNb; i++) {
+            text.append(atoms[random.nextInt(atoms.length)]);
+        }
+
+        return text.toString();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A content of the same character, not held in memory.
+     */
+    private static class RepeatedChar implements CharSequence {
+
+        private final int length;
+
+        RepeatedChar(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return ' ';
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new RepeatedChar(end - start);
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.model.Snippet;
+import com.yac.gpatch.parser.PatchParser;
+
+public class HunkReplacerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replacesMatchesWithFinalLines() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ @@\n-console.log( foo );\n+logger.info(foo);\n");
+
+        assertEquals("0,18:\nlogger.info(foo);\n;18,38:\nlogger.info(foo);\n;",
+                replace(compiledPatch, "console.log(foo);\nconsole.log( foo );\n", Collections.emptyMap()));
+    }
+
+    @Test
+    public void copiesEllipsesOfEachMatch() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ @@\n-greet(@...@, @...@);\n+hello(@...@, @...@);\n");
+
+        assertEquals("0,13:\nhello(a, b);\n;13,29:\nhello(c, d, e);\n;",
+                replace(compiledPatch, "greet(a, b);\ngreet(c, d, e);\n", Collections.emptyMap()));
+    }
+
+    @Test
+    public void keepsEllipsesMissingFromFinalText() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ @@\n-greet(@...@, @...@);\n+hello(@...@);\n");
+
+        assertEquals("0,13:\nhello(a);\n;", replace(compiledPatch, "greet(a, b);\n", Collections.emptyMap()));
+    }
+
+    @Test
+    public void replacesOnlyMatchesOfCapturedVariables() throws IOException {
+        CompiledPatch compiledPatch = compile(
+                "@@ name @@\nconst NAME = '@<>@';\n@@ @@\n-greet(@<name>@);\n+hello(@<name>@);\n");
+        String ruleId = compiledPatch.getRules().get(0).getRule().getId();
+
+        assertEquals("0,12:\nhello(bob);\n;",
+                replace(compiledPatch, "greet(bob);\ngreet(al);\n", Collections.singletonMap(ruleId, "bob")));
+    }
+
+    @Test
+    public void keepsNoVariableOfFormerContent() throws IOException {
+        CompiledPatch compiledPatch = compile(
+                "@@ name @@\nconst NAME = '@<>@';\n@@ @@\n-greet(@<name>@, @...@);\n+hello(@<name>@, @...@);\n");
+        CompiledHunk compiledHunk = compiledPatch.getHunks().get(0);
+        String ruleId = compiledPatch.getRules().get(0).getRule().getId();
+        HunkReplacer replacer = new HunkReplacer(compiledPatch, compiledHunk);
+        MatchList matches = new MatchList();
+
+        assertEquals("0,15:\nhello(bob, 1);\n;", replace(replacer, compiledHunk, matches,
+                "greet(bob, 1);\ngreet(al, 2);\n", Collections.singletonMap(ruleId, "bob")));
+        replacer.clear();
+        assertEquals("15,29:\nhello(al, 2);\n;", replace(replacer, compiledHunk, matches,
+                "greet(bob, 1);\ngreet(al, 2);\n", Collections.singletonMap(ruleId, "al")));
+    }
+
+    private CompiledPatch compile(String patch) throws IOException {
+        Path patchPath = Files.write(folder.getRoot().toPath().resolve("patch"),
+                ("header\n" + patch).getBytes(StandardCharsets.UTF_8));
+
+        return CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR);
+    }
+
+    private static String replace(CompiledPatch compiledPatch, String content, Map<String, String> variables) {
+        CompiledHunk compiledHunk = compiledPatch.getHunks().get(compiledPatch.getHunks().size() - 1);
+
+        return replace(new HunkReplacer(compiledPatch, compiledHunk), compiledHunk, new MatchList(), content,
+                variables);
+    }
+
+    /**
+     * @return the replacements of the matches of the hunk in the content
+     */
+    private static String replace(HunkReplacer replacer, CompiledHunk compiledHunk, MatchList matches,
+            String content, Map<String, String> variables) {
+        matches.clear(content);
+        LinearPattern.Matcher matcher = compiledHunk.getLinearPattern().matcher(content);
+        while (matcher.find()) {
+            matches.add(matcher.start(0), matcher.end(0));
+        }
+        replacer.prepare(variables);
+        List<Snippet> snippets = new ArrayList<>();
+        replacer.replace(matches, snippets);
+
+        StringBuilder description = new StringBuilder();
+        for (Snippet snippet : snippets) {
+            description.append(snippet.getStart()).append(",").append(snippet.getEnd()).append(":")
+                    .append(snippet.getText()).append(";");
+        }
+
+        return description.toString();
+    }
+
+}
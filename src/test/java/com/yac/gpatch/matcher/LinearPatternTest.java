@@ -0,0 +1,176 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Compares the matches of {@link LinearPattern} with the ones of the regex
+ * built by {@link CompiledPatch#toRegex(String, String, String, String)} for
+ * the same patch text.
+ */
+public class LinearPatternTest {
+
+    private static final String[] PATTERN_ATOMS = { "a", "b", "(", ")", ",", " ", "\n", "@...@", "@<>@", "@<n>@",
+            "ab", "\u0085" };
+    private static final String[] TEXT_ATOMS = { "a", "b", "(", ")", ",", " ", "  ", "\n", "\t", "\r\n", "\u0085",
+            "ab", "x" };
+    private static final int RANDOM_CASE_NB = 20000;
+
+    @Test
+    public void matchesRulesLikeRegex() {
+        assertRuleMatches("foo(@<>@)", "foo(a) foo(b)\nfoo()", false);
+        assertRuleMatches("x = @<>@;", "x = 1;\n  x   =  abc ;\r\nx = ;", false);
+        assertRuleMatches("@...@ @<>@", "a b\r\nc\u0085d", true);
+        assertRuleMatches("@...@ @<>@", "a b\r\nc\u0085d", false);
+    }
+
+    @Test
+    public void matchesHunksLikeRegex() {
+        assertHunkMatches("foo ( @...@ )", "foo(a, b) foo ( \n ) foo(x)", false);
+        assertHunkMatches("a @<n>@ b", "a x b a  b a\nb", false);
+        assertHunkMatches("@<>@", "x @<>@ y", false);
+        assertHunkMatches("a\nb", "a \n  b a\r\nb", true);
+        assertHunkMatches("a\u0085b", "a\u0085b", true);
+    }
+
+    @Test
+    public void capturesAnchoredEllipsesLikeRegex() {
+        assertEllipsisMatches("f(@...@, @...@)", "f(a, b, c)", false);
+        assertEllipsisMatches("f(@...@, @...@)", "f(a\u0085, b)", true);
+        assertEllipsisMatches("@...@ x @...@", " x x x ", false);
+    }
+
+    @Test
+    public void matchesRandomPatternsLikeRegex() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String pattern = generate(random, PATTERN_ATOMS, 1 + random.nextInt(6));
+            String text = generate(random, TEXT_ATOMS, random.nextInt(30));
+            boolean crLfOnly = random.nextBoolean();
+            switch (random.nextInt(3)) {
+            case 0:
+                if (pattern.indexOf("@<>@") == pattern.lastIndexOf("@<>@")) {
+                    assertRuleMatches(pattern, text, crLfOnly);
+                }
+                break;
+            case 1:
+                assertHunkMatches(pattern, text, crLfOnly);
+                break;
+            default:
+                assertEllipsisMatches(pattern, text, crLfOnly);
+            }
+        }
+    }
+
+    // java.util.regex takes time exponential in the number of ellipses here
+    @Test(timeout = 10000)
+    public void matchesManyEllipsesInLinearTime() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("a, ");
+        }
+        LinearPattern pattern = CompiledPatch.toLinearPattern("f(@...@, @...@, @...@, @...@, @...@) ;", false,
+                false, null);
+
+        assertFalse(pattern.matcher(text).find());
+        text.append("f(a, b, c, d, e);");
+        LinearPattern.Matcher matcher = pattern.matcher(text);
+        assertTrue(matcher.find());
+        assertEquals(text.length(), matcher.end(0));
+    }
+
+    private static void assertRuleMatches(String pattern, String text, boolean crLfOnly) {
+        String any = anyRegex(crLfOnly);
+        String regex = CompiledPatch.toRegex(pattern, any + "*?", "(?<G>" + any + "+)", any + "+");
+        String group = pattern.contains("@<>@") ? "G" : null;
+
+        assertEquals(describe(pattern, text, crLfOnly), findAll(Pattern.compile(regex).matcher(text), group),
+                findAll(CompiledPatch.toLinearPattern(pattern, crLfOnly, false, "G").matcher(text), group));
+    }
+
+    private static void assertHunkMatches(String pattern, String text, boolean crLfOnly) {
+        String any = anyRegex(crLfOnly);
+        String regex = CompiledPatch.toRegex(pattern, any + "*?", CompiledPatch.CAPTURING_VARIABLE_LITERAL,
+                any + "+");
+
+        assertEquals(describe(pattern, text, crLfOnly), findAll(Pattern.compile(regex).matcher(text), null),
+                findAll(CompiledPatch.toLinearPattern(pattern, crLfOnly, false, null).matcher(text), null));
+    }
+
+    private static void assertEllipsisMatches(String pattern, String text, boolean crLfOnly) {
+        String any = anyRegex(crLfOnly);
+        String regex = CompiledPatch.toRegex(pattern, "(" + any + "*?)", CompiledPatch.CAPTURING_VARIABLE_LITERAL,
+                any + "+");
+        Matcher expected = Pattern.compile(regex).matcher(text);
+        LinearPattern.Matcher actual = CompiledPatch.toLinearPattern(pattern, crLfOnly, true, null).matcher(text);
+
+        StringBuilder expectedGroups = new StringBuilder().append(expected.matches());
+        StringBuilder actualGroups = new StringBuilder().append(actual.matches());
+        if (expected.matches() && actual.matches()) {
+            for (int i = 0; i <= expected.groupCount(); i++) {
+                expectedGroups.append("|").append(expected.start(i)).append(",").append(expected.end(i));
+            }
+            for (int i = 0; i <= actual.groupCount(); i++) {
+                actualGroups.append("|").append(actual.start(i)).append(",").append(actual.end(i));
+            }
+        }
+
+        assertEquals(describe(pattern, text, crLfOnly), expectedGroups.toString(), actualGroups.toString());
+    }
+
+    private static String anyRegex(boolean crLfOnly) {
+        return crLfOnly ? "[^\\n\\r]" : ".";
+    }
+
+    private static String describe(String pattern, String text, boolean crLfOnly) {
+        return new StringBuilder().append("pattern=").append(escape(pattern)).append(" text=").append(escape(text))
+                .append(" crLfOnly=").append(crLfOnly).toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t").replace("\u0085", "\\u0085");
+    }
+
+    private static String findAll(Matcher matcher, String group) {
+        StringBuilder matches = new StringBuilder();
+        while (matcher.find()) {
+            matches.append(matcher.start()).append(",").append(matcher.end());
+            if (group != null) {
+                matches.append(":").append(matcher.start(group)).append(",").append(matcher.end(group));
+            }
+            matches.append(";");
+        }
+
+        return matches.toString();
+    }
+
+    private static String findAll(LinearPattern.Matcher matcher, String group) {
+        StringBuilder matches = new StringBuilder();
+        while (matcher.find()) {
+            matches.append(matcher.start(0)).append(",").append(matcher.end(0));
+            if (group != null) {
+                matches.append(":").append(matcher.start(group)).append(",").append(matcher.end(group));
+            }
+            matches.append(";");
+        }
+
+        return matches.toString();
+    }
+
+    private static String generate(Random random, String[] atoms, int atomNb) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < atomNb; i++) {
+            text.append(atoms[random.nextInt(atoms.length)]);
+        }
+
+        return text.toString();
+    }
+
+}
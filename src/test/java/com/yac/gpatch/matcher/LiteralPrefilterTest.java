@@ -0,0 +1,165 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.ByteCharSequence;
+
+/**
+ * Checks that the prefilter never rejects a content in which a hunk and the
+ * rules it uses all match, as found by matching them without the prefilter.
+ */
+public class LiteralPrefilterTest {
+
+    // Literals overlapping each other, a multi-byte character, and texts without any literal
+    private static final String[] LINE_ATOMS = { "ab", "aba", "bab", "b", "é", "aé", " ", "@...@" };
+    private static final String[] TEXT_ATOMS = { "a", "b", "ab", "é", " ", "\n", "x" };
+    private static final int RANDOM_CASE_NB = 5000;
+    private static final int[] WINDOW_SIZES = { 1, 2, 5 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsOverlappingAnchors() {
+        LiteralPrefilter prefilter = new LiteralPrefilter(
+                Arrays.asList(set("abc", "bcd"), set("he", "she", "hers")), StandardCharsets.UTF_8);
+
+        assertTrue(prefilter.mayMatch(bytes("abcd")));
+        assertTrue(prefilter.mayMatch(bytes("bcd abc")));
+        assertFalse(prefilter.mayMatch(bytes("abcbcabc")));
+        // Anchors ending inside a longer one
+        assertTrue(prefilter.mayMatch(bytes("ushers")));
+        assertFalse(prefilter.mayMatch(bytes("usher")));
+    }
+
+    @Test
+    public void keepsEveryContentOfHunkWithoutAnchor() throws IOException {
+        // The hunk only has whitespaces and macros, the rule it uses no literal either
+        CompiledPatch compiledPatch = compile("@@ r @@\n  @<>@ \n@@ @@\n-abc\n+x\n@@ @@\n-@...@  @<r>@\n+x\n");
+
+        assertTrue(compiledPatch.getPrefilter().mayMatch(bytes("")));
+        assertTrue(compiledPatch.getPrefilter().mayMatch(bytes("xyz")));
+    }
+
+    @Test
+    public void requiresAnchorsOfRulesOfHunkWithoutAnchor() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ r @@\nlet R = @<>@;\n@@ @@\n-  @<r>@  \n+x\n");
+
+        assertFalse(compiledPatch.getPrefilter().mayMatch(bytes("x y")));
+        assertTrue(compiledPatch.getPrefilter().mayMatch(bytes("let R = 1;")));
+    }
+
+    @Test
+    public void keepsContentsMatchedWithoutPrefilter() throws IOException {
+        Random random = new Random(42);
+        Path file = folder.getRoot().toPath().resolve("file");
+        int applicableNb = 0;
+        int rejectedNb = 0;
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            StringBuilder patch = new StringBuilder();
+            int ruleNb = random.nextInt(3);
+            for (int rule = 0; rule < ruleNb; rule++) {
+                patch.append("@@ r").append(rule).append(" @@\n").append(generate(random, LINE_ATOMS, 2))
+                        .append("@<>@").append(generate(random, LINE_ATOMS, 2)).append("\n");
+            }
+            for (int hunk = random.nextInt(3); hunk >= 0; hunk--) {
+                patch.append("@@ @@\n-").append(generate(random, LINE_ATOMS, 1 + random.nextInt(3)));
+                if (ruleNb > 0 && random.nextBoolean()) {
+                    patch.append("@<r").append(random.nextInt(ruleNb)).append(">@");
+                }
+                patch.append("\n+x\n");
+            }
+            CompiledPatch compiledPatch = compile(patch.toString());
+            byte[] content = generate(random, TEXT_ATOMS, random.nextInt(30)).getBytes(StandardCharsets.UTF_8);
+            String description = new StringBuilder().append("patch=").append(patch).append(" content=")
+                    .append(new String(content, StandardCharsets.UTF_8)).toString();
+
+            boolean mayMatch = compiledPatch.getPrefilter().mayMatch(ByteBuffer.wrap(content));
+            if (mayApply(compiledPatch, content)) {
+                assertTrue(description, mayMatch);
+                applicableNb++;
+            }
+            if (i % 10 == 0) {
+                Files.write(file, content);
+                try (FileChannel channel = FileChannel.open(file)) {
+                    for (int windowSize : WINDOW_SIZES) {
+                        assertEquals(description, mayMatch, compiledPatch.getPrefilter().mayMatch(channel,
+                                windowSize));
+                    }
+                }
+            }
+            rejectedNb += mayMatch ? 0 : 1;
+        }
+
+        // Both outcomes are covered
+        assertTrue(String.valueOf(applicableNb), applicableNb > RANDOM_CASE_NB / 10);
+        assertTrue(String.valueOf(rejectedNb), rejectedNb > RANDOM_CASE_NB / 10);
+    }
+
+    private CompiledPatch compile(String patch) throws IOException {
+        Path patchPath = Files.write(folder.getRoot().toPath().resolve("patch"),
+                ("header\n" + patch).getBytes(StandardCharsets.UTF_8));
+
+        return CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR);
+    }
+
+    /**
+     * @return {@code true} if a hunk and all the rules it uses match the
+     *         content, the hunk then possibly applying
+     */
+    private static boolean mayApply(CompiledPatch compiledPatch, byte[] bytes) {
+        CharSequence content = compiledPatch.isByteViewEnabled() ? new ByteCharSequence(ByteBuffer.wrap(bytes))
+                : new String(bytes, StandardCharsets.UTF_8);
+        for (CompiledHunk compiledHunk : compiledPatch.getHunks()) {
+            Set<String> ruleIds = Stream
+                    .concat(compiledHunk.getInitialVariables().stream(), compiledHunk.getFinalVariables().stream())
+                    .map(variable -> variable.getRule().getId()).collect(Collectors.toSet());
+            if (compiledHunk.getLinearPattern().matcher(content).find() && compiledPatch.getRules().stream()
+                    .filter(compiledRule -> ruleIds.contains(compiledRule.getRule().getId()))
+                    .allMatch(compiledRule -> compiledRule.getLinearPattern().matcher(content).find())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<String> set(String... anchors) {
+        return Arrays.stream(anchors).collect(Collectors.toSet());
+    }
+
+    private static String generate(Random random, String[] atoms, int atomNb) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < atomNb; i++) {
+            text.append(atoms[random.nextInt(atoms.length)]);
+        }
+
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MatchListTest {
+
+    @Test
+    public void growsPastInitialCapacity() {
+        MatchList matches = new MatchList();
+        matches.clear("0123456789");
+        for (int i = 0; i < 40; i++) {
+            matches.add(i % 10, i % 10 + 1);
+        }
+
+        assertEquals(40, matches.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i % 10, matches.getStart(i));
+            assertEquals(i % 10 + 1, matches.getEnd(i));
+            assertEquals(String.valueOf(i % 10), matches.getText(i).toString());
+        }
+    }
+
+    @Test
+    public void readsTextsOfContentAfterClear() {
+        MatchList matches = new MatchList();
+        matches.clear("abcdef");
+        matches.add(0, 3);
+        matches.add(3, 6);
+
+        String content = "xyz";
+        matches.clear(content);
+        assertTrue(matches.isEmpty());
+        assertSame(content, matches.getContent());
+
+        matches.add(1, 1);
+        matches.add(0, 3);
+        assertFalse(matches.isEmpty());
+        assertEquals(2, matches.size());
+        assertEquals("", matches.getText(0).toString());
+        assertEquals("xyz", matches.getText(1).toString());
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.FileWalker;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.DiffRewriteWriter;
+
+public class MatcherPipelineTest {
+
+    private static final Pattern DIFF_HEADER = Pattern.compile("^--- (.*)$", Pattern.MULTILINE);
+    private static final int DIRECTORY_NB = 10;
+    private static final int FILE_NB = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesDryRunDiffsInWalkOrderDuringRun() throws IOException, ExecutionException, InterruptedException {
+        Path root = folder.newFolder("src").toPath();
+        Path patchPath = Files.write(folder.getRoot().toPath().resolve("patch"),
+                "header\n@@ @@\n-x = 1;\n+x = 2;\n".getBytes(StandardCharsets.UTF_8));
+        List<CompiledPatch> compiledPatches = Collections.singletonList(
+                CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR));
+        // More diffs than the output buffer holds, files of different sizes finishing out of order
+        for (int i = 0; i < DIRECTORY_NB; i++) {
+            Path directory = Files.createDirectory(root.resolve("dir" + i));
+            for (int j = 0; j < FILE_NB; j++) {
+                Files.write(directory.resolve("file" + j + ".ts"),
+                        ("// c\n".repeat((i * j) % 7 * 1000) + "x = 1;\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        List<Path> expectedPaths = Collections.synchronizedList(new ArrayList<>());
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output) {
+
+            @Override
+            public void expectNext(Path path) {
+                expectedPaths.add(path);
+                super.expectNext(path);
+            }
+
+        }) {
+            FileWalker walker = new FileWalker(Collections.singletonList("ts"), Collections.emptyList(),
+                    Collections.emptyList(), false, 4);
+            new MatcherPipeline(4, writer, MatchCache.disabled()).run(compiledPatches,
+                    Collections.singletonList(root), walker, new Statistics(), fileReport -> {
+                    });
+            assertTrue(output.size() > 0);
+        }
+
+        List<Path> diffPaths = new ArrayList<>();
+        Matcher matcher = DIFF_HEADER.matcher(output.toString(StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            diffPaths.add(root.resolve(matcher.group(1)));
+        }
+        assertEquals(DIRECTORY_NB * FILE_NB, expectedPaths.size());
+        assertEquals(expectedPaths, diffPaths);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.stats.Statistics;
+import com.yac.gpatch.writer.DiffRewriteWriter;
+
+public class MatcherSchedulerTest {
+
+    private static final Pattern DIFF_HEADER = Pattern.compile("^--- (.*)$", Pattern.MULTILINE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesDryRunDiffsInScheduledOrder() throws IOException, ExecutionException, InterruptedException {
+        Path root = folder.getRoot().toPath();
+        Path patchPath = Files.write(root.resolve("patch"),
+                "header\n@@ @@\n-x = 1;\n+x = 2;\n".getBytes(StandardCharsets.UTF_8));
+        List<CompiledPatch> compiledPatches = Collections.singletonList(
+                CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR));
+        // Sizes in another order than the names, and a tie broken by path
+        List<SourceFile> files = new ArrayList<>();
+        List<Path> expectedOrder = new ArrayList<>();
+        for (String name : Arrays.asList("a.ts:1", "b.ts:40", "c.ts:8", "d.ts:8", "e.ts:0")) {
+            String[] nameAndSize = name.split(":");
+            Path path = Files.write(root.resolve(nameAndSize[0]), ("x = 1;\n" + "// y\n".repeat(
+                    Integer.parseInt(nameAndSize[1]))).getBytes(StandardCharsets.UTF_8));
+            files.add(new SourceFile(path, Files.size(path)));
+        }
+        for (String name : Arrays.asList("b.ts", "c.ts", "d.ts", "a.ts", "e.ts")) {
+            expectedOrder.add(root.resolve(name));
+        }
+
+        MatchCache matchCache = MatchCache.disabled();
+        for (int i = 0; i < 20; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (DiffRewriteWriter writer = new DiffRewriteWriter(output)) {
+                new MatcherScheduler(4, writer, matchCache).run(compiledPatches, files, new Statistics(),
+                        fileReport -> {
+                        });
+            }
+
+            List<Path> diffPaths = new ArrayList<>();
+            Matcher matcher = DIFF_HEADER.matcher(output.toString(StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                diffPaths.add(root.resolve(matcher.group(1)));
+            }
+            assertEquals(expectedOrder, diffPaths);
+        }
+    }
+
+}
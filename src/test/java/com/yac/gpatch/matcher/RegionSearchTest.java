@@ -0,0 +1,99 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the matches of a pattern searched region by region with the ones
+ * of a search over the whole content.
+ */
+public class RegionSearchTest {
+
+    private static final String[] PATTERN_ATOMS = { "a", "b", "(", ")", ",", " ", "\n", "@...@", "@<>@", "ab" };
+    private static final String[] TEXT_ATOMS = { "a", "b", "(", ")", ",", " ", "   ", "\n", "\t", "\r\n", "ab",
+            "x" };
+    private static final int RANDOM_CASE_NB = 10000;
+
+    @Test
+    public void findsMatchesRunningOverRegions() {
+        assertRegionMatches("foo(@...@);", null, "foo(a, b); foo(); foo(c);", false);
+        assertRegionMatches("x = @<>@;", "G", "x = 1; x  =  abc ;\nx = ;", false);
+        assertRegionMatches("a b", null, "a" + " ".repeat(100) + "b a\n\n\nb", false);
+        assertRegionMatches("(@...@)", null, "((((((a))))))", false);
+    }
+
+    @Test
+    public void findsMatchesAtContentBoundaries() {
+        assertRegionMatches("ab", null, "", false);
+        assertRegionMatches("@...@", null, "", false);
+        assertRegionMatches("ab", null, "ab", false);
+        assertRegionMatches("@...@", null, "a b", false);
+    }
+
+    @Test
+    public void findsRandomPatternsLikeWholeSearch() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String pattern = generate(random, PATTERN_ATOMS, 1 + random.nextInt(5));
+            String text = generate(random, TEXT_ATOMS, random.nextInt(40));
+            boolean crLfOnly = random.nextBoolean();
+            // A rule captures a single variable
+            if (pattern.indexOf("@<>@") == pattern.lastIndexOf("@<>@")) {
+                assertRegionMatches(pattern, pattern.contains("@<>@") ? "G" : null, text, crLfOnly);
+            }
+        }
+    }
+
+    private static void assertRegionMatches(String pattern, String group, String text, boolean crLfOnly) {
+        LinearPattern linearPattern = CompiledPatch.toLinearPattern(pattern, crLfOnly, false, group);
+        String expected = findAll(linearPattern, group, text);
+        ContentIndex index = ContentIndex.build(text);
+        for (int regionLength = 1; regionLength <= 8; regionLength++) {
+            String description = new StringBuilder().append("pattern=").append(pattern).append(" text=").append(text)
+                    .append(" regionLength=").append(regionLength).toString();
+            assertEquals(description, expected, findAllByRegions(linearPattern, group, text, null, regionLength));
+            assertEquals(description, expected, findAllByRegions(linearPattern, group, text, index, regionLength));
+        }
+    }
+
+    private static String findAll(LinearPattern pattern, String group, String text) {
+        StringBuilder matches = new StringBuilder();
+        LinearPattern.Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            int start = group == null ? matcher.start(0) : matcher.start(group);
+            if (start != -1) {
+                matches.append(start).append(",")
+                        .append(group == null ? matcher.end(0) : matcher.end(group)).append(";");
+            }
+        }
+
+        return matches.toString();
+    }
+
+    private static String findAllByRegions(LinearPattern pattern, String group, String text, ContentIndex index,
+            int regionLength) {
+        MatchList snippets = new MatchList();
+        snippets.clear(text);
+        RegionSearch.findMatches(pattern, group, text, index, regionLength, snippets);
+
+        StringBuilder matches = new StringBuilder();
+        for (int i = 0; i < snippets.size(); i++) {
+            matches.append(snippets.getStart(i)).append(",").append(snippets.getEnd(i)).append(";");
+        }
+
+        return matches.toString();
+    }
+
+    private static String generate(Random random, String[] atoms, int atomNb) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < atomNb; i++) {
+            text.append(atoms[random.nextInt(atoms.length)]);
+        }
+
+        return text.toString();
+    }
+
+}
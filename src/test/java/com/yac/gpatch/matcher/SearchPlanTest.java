@@ -0,0 +1,96 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.parser.PatchParser;
+import com.yac.gpatch.util.logging.Log;
+import com.yac.gpatch.util.stats.Statistics;
+
+public class SearchPlanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ordersRulesByDecreasingAnchorLength() throws IOException {
+        CompiledPatch compiledPatch = compile("@@ short @@\nab = '@<>@';\n"
+                + "@@ shared from defs.ts @@\nverylongidentifier = '@<>@';\n"
+                + "@@ medium @@\nmedium = '@<>@';\n"
+                + "@@ long @@\nlongidentifier = '@<>@';\n"
+                + "@@ macros @@\n@<>@\n"
+                + "@@ tie @@\ncd = '@<>@';\n"
+                + "@@ @@\n-x;\n+y;\n");
+
+        // Ties in the order of the patch, the rule naming a file left out
+        assertArrayEquals(new int[] { 3, 2, 0, 5, 4 }, compiledPatch.getSearchPlan().getRuleOrder());
+    }
+
+    @Test
+    public void logsHunksSkippedForMissingVariables() throws IOException {
+        // The anchors of the rules are in the contents, so that the prefilter lets them through. The
+        // first rule is searched first, the second one is still needed by the second hunk
+        CompiledPatch compiledPatch = compile("@@ first @@\nconst FIRSTNAME = '@<>@';\n"
+                + "@@ second @@\nlet SECOND = '@<>@';\n"
+                + "@@ @@\n-greet(@<first>@, @<second>@);\n+hello(@<first>@, @<second>@);\n"
+                + "@@ @@\n-wave(@<second>@);\n+waves(@<second>@);\n");
+
+        assertEquals(Arrays.asList(": Skipped hunk '1', missing variables 'first', 'second'",
+                ": Skipped hunk '2', missing variable 'second'"),
+                match(compiledPatch, "// const FIRSTNAME, let SECOND\ngreet(a, b);\nwave(c);\n"));
+        assertEquals(Arrays.asList(": Skipped hunk '1', missing variable 'second'",
+                ": Skipped hunk '2', missing variable 'second'"),
+                match(compiledPatch, "// let SECOND\nconst FIRSTNAME = 'a';\ngreet(a, b);\n"));
+        // Left out by the prefilter before any rule is searched
+        assertEquals(Collections.emptyList(), match(compiledPatch, "greet(a, b);\nwave(c);\n"));
+        assertEquals(Collections.emptyList(), match(compiledPatch, "const FIRSTNAME = 'a';\nlet SECOND = 'b';\n"));
+    }
+
+    @Test
+    public void leavesRulesNotSearchedOutOfLogs() throws IOException {
+        // The longer rule is searched first, the shorter one is then needed by no hunk
+        CompiledPatch compiledPatch = compile("@@ short @@\nlet S = '@<>@';\n"
+                + "@@ long @@\nconst LONGNAME = '@<>@';\n"
+                + "@@ @@\n-greet(@<short>@, @<long>@);\n+hello(@<short>@, @<long>@);\n");
+
+        assertEquals(Collections.singletonList(": Skipped hunk '1', missing variable 'long'"),
+                match(compiledPatch, "// const LONGNAME, let S\ngreet(a, b);\n"));
+    }
+
+    private CompiledPatch compile(String patch) throws IOException {
+        Path patchPath = Files.write(folder.getRoot().toPath().resolve("patch"),
+                ("header\n" + patch).getBytes(StandardCharsets.UTF_8));
+
+        return CompiledPatch.compile(PatchParser.parse(patchPath), StandardCharsets.UTF_8, MatchingEngine.LINEAR);
+    }
+
+    /**
+     * @return the logs of the patch in the given content, without the file
+     *         path starting them
+     */
+    private List<String> match(CompiledPatch compiledPatch, String content) throws IOException {
+        Path path = Files.write(folder.getRoot().toPath().resolve("file.ts"),
+                content.getBytes(StandardCharsets.UTF_8));
+        String prefix = "File " + path;
+
+        return new PatchMatcher(Collections.singletonList(compiledPatch), path, new Statistics(), rewrite -> {
+        }, MatchCache.disabled(), false).call().getLogs().stream().map(Log::getText)
+                .map(text -> text.startsWith(prefix) ? text.substring(prefix.length()) : text)
+                .collect(Collectors.toList());
+    }
+
+}
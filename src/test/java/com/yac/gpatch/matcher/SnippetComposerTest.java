@@ -0,0 +1,141 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yac.gpatch.model.Snippet;
+
+public class SnippetComposerTest {
+
+    private static final String ORIGINAL = "0123456789";
+    private static final int RANDOM_CASE_NB = 20000;
+
+    @Test
+    public void keepsReplacementsOfASingleSeries() {
+        List<Snippet> snippets = Arrays.asList(new Snippet("AB", 2, 4), new Snippet("", 6, 7));
+
+        assertEquals("2,4:AB;6,7:;", describe(SnippetComposer.compose(snippets, apply(ORIGINAL, snippets),
+                Collections.emptyList())));
+        assertEquals("2,4:AB;6,7:;", describe(SnippetComposer.compose(Collections.emptyList(), ORIGINAL,
+                snippets)));
+        assertEquals("", describe(SnippetComposer.compose(Collections.emptyList(), ORIGINAL,
+                Collections.emptyList())));
+    }
+
+    @Test
+    public void keepsReplacementsTouchingInsertedTextApart() {
+        List<Snippet> first = Arrays.asList(new Snippet("AB", 2, 4));
+
+        assertComposed("0,2:x;2,4:AB;", first, new Snippet("x", 0, 2));
+        assertComposed("2,4:AB;4,5:y;", first, new Snippet("y", 4, 5));
+        assertComposed("2,4:Ax;5,8:yD;", Arrays.asList(new Snippet("AB", 2, 4), new Snippet("CD", 6, 8)),
+                new Snippet("x", 3, 4), new Snippet("y", 5, 7));
+    }
+
+    @Test
+    public void mergesReplacementsReachingInsertedText() {
+        List<Snippet> first = Arrays.asList(new Snippet("AB", 2, 4));
+
+        assertComposed("2,4:Z;", first, new Snippet("Z", 2, 4));
+        assertComposed("2,4:AQ;", first, new Snippet("Q", 3, 4));
+        assertComposed("1,4:WB;", first, new Snippet("W", 1, 3));
+        assertComposed("2,5:AV;", first, new Snippet("V", 3, 5));
+    }
+
+    @Test
+    public void mergesReplacementsSpanningSeveralInsertedTexts() {
+        assertComposed("2,8:AXD;", Arrays.asList(new Snippet("AB", 2, 4), new Snippet("CD", 6, 8)),
+                new Snippet("X", 3, 7));
+        assertComposed("2,4:xByD;", Arrays.asList(new Snippet("ABCD", 2, 4)), new Snippet("x", 2, 3),
+                new Snippet("y", 4, 5));
+        assertComposed("2,8:AxyEz;", Arrays.asList(new Snippet("ABC", 2, 4), new Snippet("DEF", 6, 8)),
+                new Snippet("x", 3, 4), new Snippet("y", 4, 8), new Snippet("z", 9, 10));
+    }
+
+    @Test
+    public void composesRandomReplacementsLikeApplyingThemInTurn() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String original = generateText(random, random.nextInt(12));
+            List<Snippet> first = generateSnippets(random, original.length());
+            String intermediate = apply(original, first);
+            List<Snippet> second = generateSnippets(random, intermediate.length());
+
+            List<Snippet> composed = SnippetComposer.compose(first, intermediate, second);
+
+            String description = new StringBuilder().append("original=").append(original).append(" first=")
+                    .append(describe(first)).append(" second=").append(describe(second)).append(" composed=")
+                    .append(describe(composed)).toString();
+            int lastEnd = 0;
+            for (Snippet snippet : composed) {
+                assertTrue(description, lastEnd <= snippet.getStart() && snippet.getStart() <= snippet.getEnd());
+                lastEnd = snippet.getEnd();
+            }
+            assertTrue(description, lastEnd <= original.length());
+            assertEquals(description, apply(intermediate, second), apply(original, composed));
+        }
+    }
+
+    private static void assertComposed(String expected, List<Snippet> first, Snippet... second) {
+        List<Snippet> composed = SnippetComposer.compose(first, apply(ORIGINAL, first), Arrays.asList(second));
+
+        assertEquals(expected, describe(composed));
+        assertEquals(apply(apply(ORIGINAL, first), Arrays.asList(second)), apply(ORIGINAL, composed));
+    }
+
+    private static String apply(String content, List<Snippet> snippets) {
+        StringBuilder result = new StringBuilder();
+        int position = 0;
+        for (Snippet snippet : snippets) {
+            result.append(content, position, snippet.getStart()).append(snippet.getText());
+            position = snippet.getEnd();
+        }
+
+        return result.append(content, position, content.length()).toString();
+    }
+
+    private static String describe(List<Snippet> snippets) {
+        StringBuilder description = new StringBuilder();
+        for (Snippet snippet : snippets) {
+            description.append(snippet.getStart()).append(",").append(snippet.getEnd()).append(":")
+                    .append(snippet.getText()).append(";");
+        }
+
+        return description.toString();
+    }
+
+    /**
+     * @return sorted replacements of non-empty ranges, possibly adjacent, by
+     *         texts possibly empty
+     */
+    private static List<Snippet> generateSnippets(Random random, int length) {
+        List<Snippet> snippets = new ArrayList<>();
+        int position = 0;
+        while (position < length && random.nextInt(3) > 0) {
+            int start = position + random.nextInt(Math.min(3, length - position));
+            int end = start + 1 + random.nextInt(Math.min(3, length - start));
+            snippets.add(new Snippet(generateText(random, random.nextInt(4)).toUpperCase(), start, end));
+            position = end;
+        }
+
+        return snippets;
+    }
+
+    private static String generateText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(3)));
+        }
+
+        return text.toString();
+    }
+
+}
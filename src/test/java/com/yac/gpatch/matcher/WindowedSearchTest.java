@@ -0,0 +1,123 @@
+package com.yac.gpatch.matcher;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the matches of a {@link WindowedSearch} run as the windows of
+ * {@link PatchMatcher} are, small and growing, with the ones of a search over
+ * the whole content.
+ */
+public class WindowedSearchTest {
+
+    private static final String[] PATTERN_ATOMS = { "a", "b", "(", ")", ",", " ", "\n", "@...@", "@<>@", "ab" };
+    private static final String[] TEXT_ATOMS = { "a", "b", "(", ")", ",", " ", "   ", "\n", "\t", "\r\n", "ab",
+            "x" };
+    private static final int RANDOM_CASE_NB = 20000;
+
+    @Test
+    public void findsMatchesCutByWindows() {
+        assertWindowedMatches("foo(@...@);", null, "foo(a, b); foo(); foo(c);", false);
+        assertWindowedMatches("x = @<>@;", "G", "x = 1; x  =  abc ;\nx = ;", false);
+        assertWindowedMatches("a b", null, "a" + repeat(" ", 100) + "b a\n\n\nb", false);
+    }
+
+    @Test
+    public void findsMatchesAtContentBoundaries() {
+        assertWindowedMatches("ab", null, "", false);
+        assertWindowedMatches("ab", null, "ab", false);
+        assertWindowedMatches("ab", null, "xab", false);
+        assertWindowedMatches("@...@", null, "a b", false);
+    }
+
+    @Test
+    public void findsRandomPatternsLikeWholeSearch() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String pattern = generate(random, PATTERN_ATOMS, 1 + random.nextInt(5));
+            String text = generate(random, TEXT_ATOMS, random.nextInt(40));
+            boolean crLfOnly = random.nextBoolean();
+            // A rule captures a single variable
+            if (pattern.indexOf("@<>@") == pattern.lastIndexOf("@<>@")) {
+                assertWindowedMatches(pattern, pattern.contains("@<>@") ? "G" : null, text, crLfOnly);
+            }
+        }
+    }
+
+    private static void assertWindowedMatches(String pattern, String group, String text, boolean crLfOnly) {
+        LinearPattern linearPattern = CompiledPatch.toLinearPattern(pattern, crLfOnly, false, group);
+        String expected = findAll(linearPattern, group, text);
+        for (int windowSize = 1; windowSize <= 8; windowSize++) {
+            assertEquals(new StringBuilder().append("pattern=").append(pattern).append(" text=").append(text)
+                    .append(" windowSize=").append(windowSize).toString(), expected,
+                    findAllByWindows(linearPattern, group, text, windowSize));
+        }
+    }
+
+    private static String findAll(LinearPattern pattern, String group, String text) {
+        StringBuilder matches = new StringBuilder();
+        LinearPattern.Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            int start = group == null ? matcher.start(0) : matcher.start(group);
+            if (start != -1) {
+                matches.append(start).append(",")
+                        .append(group == null ? matcher.end(0) : matcher.end(group)).append(";");
+            }
+        }
+
+        return matches.toString();
+    }
+
+    /**
+     * Searches the text as {@code PatchMatcher.scanWindows} does, each window
+     * starting where the last one may have cut a match, and doubled while no
+     * match can be decided in it.
+     */
+    private static String findAllByWindows(LinearPattern pattern, String group, String text, int windowSize) {
+        StringBuilder matches = new StringBuilder();
+        WindowedSearch search = new WindowedSearch(pattern, group);
+        long windowStart = 0;
+        while (true) {
+            int length = (int) Math.min(windowSize, text.length() - windowStart);
+            boolean last = windowStart + length == text.length();
+            CharSequence window = text.substring((int) windowStart, (int) windowStart + length);
+            long nextWindowStart = Math.min(windowStart + length, search.search(window, windowStart, last));
+            if (nextWindowStart == windowStart && !last) {
+                windowSize *= 2;
+                continue;
+            }
+
+            MatchList windowMatches = search.commit(windowStart, nextWindowStart);
+            for (int i = 0; i < windowMatches.size(); i++) {
+                matches.append(windowStart + windowMatches.getStart(i)).append(",")
+                        .append(windowStart + windowMatches.getEnd(i)).append(";");
+            }
+            if (last) {
+                return matches.toString();
+            }
+            windowStart = nextWindowStart;
+        }
+    }
+
+    private static String generate(Random random, String[] atoms, int atomNb) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < atomNb; i++) {
+            text.append(atoms[random.nextInt(atoms.length)]);
+        }
+
+        return text.toString();
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            repeated.append(text);
+        }
+
+        return repeated.toString();
+    }
+
+}
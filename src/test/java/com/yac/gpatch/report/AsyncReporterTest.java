@@ -0,0 +1,274 @@
+package com.yac.gpatch.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.App;
+import com.yac.gpatch.cache.PatchCache;
+import com.yac.gpatch.util.logging.Log;
+import com.yac.gpatch.util.logging.LogLevel;
+
+public class AsyncReporterTest {
+
+    private static final Set<String> MATCH_KEYS = new HashSet<>(
+            Arrays.asList("file", "patch", "action", "start", "end", "startLine", "endLine"));
+    private static final Set<String> LOG_KEYS = new HashSet<>(Arrays.asList("file", "action", "level", "message"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesJsonLinesOfRun() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.write(root.resolve("patch"), ("header\n@@ name @@\nconst NAME = '@<>@';\n"
+                + "@@ @@\n-greet(@<name>@);\n+hello(@<name>@);\n").getBytes(StandardCharsets.UTF_8));
+        Path tree = Files.createDirectories(root.resolve("src/sub"));
+        // Characters to escape in the paths, and in the logs naming them
+        Path quoted = Files.write(tree.resolve("a \"quoted\" \\ name\t.ts"),
+                "const NAME = 'bob';\nconst NAME = 'al';\ngreet(bob);\n".getBytes(StandardCharsets.UTF_8));
+        Path skipped = Files.write(tree.resolve("skipped.ts"),
+                "// const NAME\ngreet(bob);\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(tree.resolve("unmatched.ts"), "x;\n".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+        int status = App.run(new String[] { "-e", "ts", "--report", "JSON", "--p-file=patch", "src" }, root,
+                new PatchCache(1), new PrintStream(output, true, StandardCharsets.UTF_8),
+                new PrintStream(errorOutput, true, StandardCharsets.UTF_8));
+        assertEquals(errorOutput.toString(StandardCharsets.UTF_8), 0, status);
+
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (String line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+            lines.add(parseObject(line));
+        }
+        for (Map<String, Object> line : lines) {
+            if ("log".equals(line.get("action"))) {
+                assertEquals(line.toString(), LOG_KEYS, line.keySet());
+            } else {
+                Set<String> keys = new HashSet<>(line.keySet());
+                assertTrue(line.toString(), keys.remove("capture".equals(line.get("action")) ? "rule" : "hunk"));
+                assertEquals(line.toString(), MATCH_KEYS, keys);
+                assertTrue(line.toString(), (Long) line.get("start") <= (Long) line.get("end"));
+                assertTrue(line.toString(), (Long) line.get("startLine") <= (Long) line.get("endLine"));
+            }
+        }
+
+        // Captures span the captured text, the replacement the newline before the line too
+        assertEquals(Arrays.asList(
+                Arrays.asList(quoted.toString(), "capture", "name", 14L, 17L, 1L, 1L),
+                Arrays.asList(quoted.toString(), "capture", "name", 34L, 36L, 2L, 2L),
+                Arrays.asList(quoted.toString(), "replace", "1", 38L, 51L, 2L, 3L)),
+                getMatches(lines, quoted));
+        assertEquals(Collections.singletonList(Arrays.asList(quoted.toString(), "log", "info",
+                "File " + quoted + ": Variable 'name' has multiple definitions")), getLogs(lines, quoted));
+        assertEquals(Collections.emptyList(), getMatches(lines, skipped));
+        assertEquals(Collections.singletonList(Arrays.asList(skipped.toString(), "log", "info",
+                "File " + skipped + ": Skipped hunk '1', missing variable 'name'")), getLogs(lines, skipped));
+        assertEquals(5, lines.size());
+    }
+
+    @Test
+    public void outputsQueuedReportsOnClose() throws Exception {
+        CountDownLatch outputReleased = new CountDownLatch(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Holds the reporter thread on its first line, while the reports pile up in the queue
+        OutputStream blockingOutput = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int offset, int length) throws IOException {
+                try {
+                    outputReleased.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                bytes.write(b, offset, length);
+            }
+
+        };
+        AsyncReporter reporter = new AsyncReporter(ReportFormat.JSON,
+                new PrintStream(blockingOutput, false, StandardCharsets.UTF_8), System.err);
+        int reportNb = 500;
+        for (int i = 0; i < reportNb; i++) {
+            reporter.report(new FileReport(folder.getRoot().toPath().resolve("f" + i),
+                    Collections.singletonList(new Log(LogLevel.INFO, "m" + i)), Collections.emptyList()));
+        }
+        // Left out, nothing to report
+        reporter.report(new FileReport(folder.getRoot().toPath(), Collections.emptyList(), Collections.emptyList()));
+
+        Thread releasingThread = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            outputReleased.countDown();
+        });
+        releasingThread.start();
+        reporter.close();
+        releasingThread.join();
+
+        String[] lines = bytes.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(reportNb, lines.length);
+        for (int i = 0; i < reportNb; i++) {
+            assertEquals("m" + i, parseObject(lines[i]).get("message"));
+        }
+    }
+
+    private static List<List<Object>> getMatches(List<Map<String, Object>> lines, Path file) {
+        return lines.stream().filter(line -> file.toString().equals(line.get("file")))
+                .filter(line -> !"log".equals(line.get("action")))
+                .map(line -> Arrays.asList(line.get("file"), line.get("action"),
+                        line.containsKey("rule") ? line.get("rule") : line.get("hunk"), line.get("start"),
+                        line.get("end"), line.get("startLine"), line.get("endLine")))
+                .collect(Collectors.toList());
+    }
+
+    private static List<List<Object>> getLogs(List<Map<String, Object>> lines, Path file) {
+        return lines.stream().filter(line -> file.toString().equals(line.get("file")))
+                .filter(line -> "log".equals(line.get("action")))
+                .map(line -> Arrays.<Object>asList(line.get("file"), line.get("action"), line.get("level"),
+                        line.get("message")))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parses a JSON object of strings and integers, strictly enough to catch
+     * a text left unescaped.
+     */
+    private static Map<String, Object> parseObject(String json) {
+        JsonReader reader = new JsonReader(json);
+        Map<String, Object> object = new LinkedHashMap<>();
+        reader.expect('{');
+        do {
+            String key = reader.readString();
+            reader.expect(':');
+            Object previous = object.put(key, reader.peek() == '"' ? reader.readString() : reader.readLong());
+            assertEquals(json, null, previous);
+        } while (reader.skip(','));
+        reader.expect('}');
+        assertEquals(json, json.length(), reader.position);
+
+        return object;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    private static class JsonReader {
+
+        private final String json;
+        private int position;
+
+        private JsonReader(String json) {
+            this.json = json;
+        }
+
+        private void expect(char c) {
+            assertTrue(json, skip(c));
+        }
+
+        private char peek() {
+            skipWhitespaces();
+            assertTrue(json, position < json.length());
+            return json.charAt(position);
+        }
+
+        private boolean skip(char c) {
+            if (peek() != c) {
+                return false;
+            }
+            position++;
+            return true;
+        }
+
+        private long readLong() {
+            skipWhitespaces();
+            int start = position;
+            while (position < json.length() && (Character.isDigit(json.charAt(position))
+                    || position == start && json.charAt(position) == '-')) {
+                position++;
+            }
+            return Long.parseLong(json.substring(start, position));
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder text = new StringBuilder();
+            while (true) {
+                assertTrue(json, position < json.length());
+                char c = json.charAt(position++);
+                assertTrue(json, c >= 0x20);
+                if (c == '"') {
+                    return text.toString();
+                } else if (c != '\\') {
+                    text.append(c);
+                    continue;
+                }
+
+                char escaped = json.charAt(position++);
+                switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    text.append(escaped);
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'u':
+                    text.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                    position += 4;
+                    break;
+                default:
+                    throw new AssertionError(json);
+                }
+            }
+        }
+
+        private void skipWhitespaces() {
+            while (position < json.length() && json.charAt(position) == ' ') {
+                position++;
+            }
+        }
+
+    }
+
+}
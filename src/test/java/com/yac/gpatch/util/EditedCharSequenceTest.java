@@ -0,0 +1,112 @@
+package com.yac.gpatch.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yac.gpatch.model.Snippet;
+
+/**
+ * Compares an {@link EditedCharSequence} with the text built by applying its
+ * replacements.
+ */
+public class EditedCharSequenceTest {
+
+    private static final int RANDOM_CASE_NB = 5000;
+
+    @Test
+    public void viewsTextWithoutReplacements() {
+        assertView("", Collections.emptyList());
+        assertView("abc", Collections.emptyList());
+    }
+
+    @Test
+    public void viewsReplacementsAtBoundaries() {
+        assertView("abcdef", Arrays.asList(new Snippet("X", 0, 1), new Snippet("YZ", 5, 6)));
+        assertView("abcdef", Arrays.asList(new Snippet("X", 0, 3), new Snippet("", 3, 6)));
+        assertView("abcdef", Arrays.asList(new Snippet("", 0, 6)));
+        assertView("abc", Arrays.asList(new Snippet("X", 0, 0), new Snippet("Y", 3, 3)));
+        assertView("", Arrays.asList(new Snippet("X", 0, 0)));
+    }
+
+    @Test
+    public void viewsRandomReplacements() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CASE_NB; i++) {
+            String text = generate(random, random.nextInt(12));
+            List<Snippet> snippets = new ArrayList<>();
+            int position = 0;
+            while (random.nextInt(3) > 0) {
+                int start = position + random.nextInt(text.length() - position + 1);
+                int end = start + random.nextInt(text.length() - start + 1);
+                snippets.add(new Snippet(generate(random, random.nextInt(4)).toUpperCase(), start, end));
+                position = end;
+            }
+            assertView(text, snippets);
+        }
+    }
+
+    @Test
+    public void rejectsPositionsOutsideView() {
+        EditedCharSequence view = new EditedCharSequence("abc", Arrays.asList(new Snippet("XY", 1, 2)));
+
+        assertOutOfBounds(() -> view.charAt(-1));
+        assertOutOfBounds(() -> view.charAt(4));
+        assertOutOfBounds(() -> view.subSequence(-1, 2));
+        assertOutOfBounds(() -> view.subSequence(3, 2));
+        assertOutOfBounds(() -> view.subSequence(0, 5));
+    }
+
+    private static void assertView(String text, List<Snippet> snippets) {
+        StringBuilder expected = new StringBuilder();
+        int position = 0;
+        for (Snippet snippet : snippets) {
+            expected.append(text, position, snippet.getStart()).append(snippet.getText());
+            position = snippet.getEnd();
+        }
+        String edited = expected.append(text, position, text.length()).toString();
+        EditedCharSequence view = new EditedCharSequence(text, snippets);
+        String description = new StringBuilder().append(text).append(" -> ").append(edited).toString();
+
+        assertEquals(description, edited.length(), view.length());
+        assertEquals(description, edited, view.toString());
+        for (int i = 0; i < edited.length(); i++) {
+            assertEquals(description, edited.charAt(i), view.charAt(i));
+        }
+        // Backwards, away from the piece read last
+        for (int i = edited.length() - 1; i >= 0; i--) {
+            assertEquals(description, edited.charAt(i), view.charAt(i));
+        }
+        for (int start = 0; start <= edited.length(); start++) {
+            for (int end = start; end <= edited.length(); end++) {
+                assertEquals(description, edited.substring(start, end), view.subSequence(start, end).toString());
+            }
+        }
+    }
+
+    private static void assertOutOfBounds(Runnable access) {
+        try {
+            access.run();
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    private static String generate(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(3)));
+        }
+
+        return text.toString();
+    }
+
+}
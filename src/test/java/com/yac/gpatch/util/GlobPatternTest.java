@@ -0,0 +1,86 @@
+package com.yac.gpatch.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+public class GlobPatternTest {
+
+    @Test
+    public void matchesNamesAtAnyDepthWithoutSlash() {
+        assertTrue(matches("*.log", "debug.log"));
+        assertTrue(matches("*.log", "a/b/debug.log"));
+        assertFalse(matches("*.log", "debug.log.txt"));
+        assertTrue(matches("build/", "a/build", true));
+        assertFalse(matches("build/", "a/build", false));
+    }
+
+    @Test
+    public void anchorsPatternsWithSlash() {
+        assertTrue(matches("/build", "build"));
+        assertFalse(matches("/build", "a/build"));
+        assertTrue(matches("doc/*.txt", "doc/a.txt"));
+        assertFalse(matches("doc/*.txt", "doc/sub/a.txt"));
+        assertFalse(matches("doc/*.txt", "a/doc/a.txt"));
+    }
+
+    @Test
+    public void matchesDoubleAsterisks() {
+        assertTrue(matches("**/foo", "foo"));
+        assertTrue(matches("**/foo", "a/b/foo"));
+        assertTrue(matches("**/foo/bar", "foo/bar"));
+        assertTrue(matches("**/foo/bar", "a/foo/bar"));
+        assertFalse(matches("**/foo/bar", "foo/a/bar"));
+        assertTrue(matches("a/**/b", "a/b"));
+        assertTrue(matches("a/**/b", "a/x/y/b"));
+        assertFalse(matches("a/**/b", "ab"));
+        assertTrue(matches("abc/**", "abc/x"));
+        assertTrue(matches("abc/**", "abc/x/y"));
+        assertFalse(matches("abc/**", "abc"));
+        assertTrue(matches("a**b", "axxb"));
+        assertFalse(matches("a/x**b", "a/x/b"));
+    }
+
+    @Test
+    public void matchesWildcardsWithinNames() {
+        assertTrue(matches("a?c", "abc"));
+        assertFalse(matches("a/b?c", "a/b/c"));
+        assertTrue(matches("[a-c]x", "bx"));
+        assertFalse(matches("[a-c]x", "dx"));
+        assertTrue(matches("[!a-c]x", "dx"));
+        assertTrue(matches("[^a]x", "bx"));
+        assertFalse(matches("a[!b]c", "a/c"));
+        assertTrue(matches("[]]", "]"));
+        assertTrue(matches("a[b", "a[b"));
+        assertTrue(matches("{a,b}", "{a,b}"));
+    }
+
+    @Test
+    public void handlesEscapesAndSpaces() {
+        assertNull(GlobPattern.parse("# comment"));
+        assertNull(GlobPattern.parse("   "));
+        assertNull(GlobPattern.parse("foo\\"));
+        assertTrue(matches("\\#file", "#file"));
+        assertTrue(matches("\\!file", "!file"));
+        assertFalse(GlobPattern.parse("\\!file").isNegated());
+        assertTrue(GlobPattern.parse("!file").isNegated());
+        assertTrue(matches("foo  ", "foo"));
+        assertTrue(matches("foo\\ ", "foo "));
+        assertTrue(matches("a\\*", "a*"));
+        assertFalse(matches("a\\*", "ab"));
+        assertTrue(matches("[\\]]", "]"));
+    }
+
+    private static boolean matches(String pattern, String path) {
+        return matches(pattern, path, false);
+    }
+
+    private static boolean matches(String pattern, String path, boolean directory) {
+        return GlobPattern.parse(pattern).matches(Paths.get(path), directory);
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.yac.gpatch.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IgnoreRulesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliesLastMatchingPattern() {
+        IgnoreRules rules = new IgnoreRules(null, Paths.get("root"), Arrays.asList("*.ts", "!keep.ts"));
+
+        assertTrue(rules.isIgnored(Paths.get("root/a.ts"), false));
+        assertFalse(rules.isIgnored(Paths.get("root/sub/keep.ts"), false));
+        assertFalse(rules.isIgnored(Paths.get("root/a.js"), false));
+    }
+
+    @Test
+    public void appliesDeepestRulesFirst() {
+        IgnoreRules parent = new IgnoreRules(null, Paths.get("root"), Arrays.asList("*.ts"));
+        IgnoreRules rules = new IgnoreRules(parent, Paths.get("root/sub"), Arrays.asList("!/keep.ts"));
+
+        assertFalse(rules.isIgnored(Paths.get("root/sub/keep.ts"), false));
+        assertTrue(rules.isIgnored(Paths.get("root/sub/deeper/keep.ts"), false));
+        assertTrue(rules.isIgnored(Paths.get("root/sub/other.ts"), false));
+    }
+
+    @Test
+    public void anchorsPatternsToTheirDirectory() {
+        IgnoreRules parent = new IgnoreRules(null, Paths.get("root"), Collections.emptyList());
+        IgnoreRules rules = new IgnoreRules(parent, Paths.get("root/sub"), Arrays.asList("/gen", "out/*.ts"));
+
+        assertTrue(rules.isIgnored(Paths.get("root/sub/gen"), true));
+        assertFalse(rules.isIgnored(Paths.get("root/sub/a/gen"), true));
+        assertTrue(rules.isIgnored(Paths.get("root/sub/out/a.ts"), false));
+        assertFalse(rules.isIgnored(Paths.get("root/out/a.ts"), false));
+    }
+
+    @Test
+    public void keepsFilesOfIgnoredDirectoriesIgnored() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Files.write(root.resolve(".gitignore"), Arrays.asList("build/", "!build/keep.ts"));
+        Files.createDirectories(root.resolve("build"));
+        Files.createFile(root.resolve("build/keep.ts"));
+        Files.createFile(root.resolve("a.ts"));
+
+        assertEquals(Arrays.asList("a.ts"), walk(root, root));
+    }
+
+    @Test
+    public void readsIgnoreFilesAboveRootUpToRepository() throws IOException {
+        Path top = folder.getRoot().toPath();
+        Files.createDirectories(top.resolve("repository/.git"));
+        Files.write(top.resolve(".gitignore"), Arrays.asList("*.ts"));
+        Files.write(top.resolve("repository/.gitignore"), Arrays.asList("*.gen.ts", "/root/a.ts"));
+        Files.createDirectories(top.resolve("repository/root/sub"));
+        Files.write(top.resolve("repository/root/.gitignore"), Arrays.asList("!b.gen.ts"));
+        for (String name : Arrays.asList("a.ts", "a.gen.ts", "b.gen.ts", "sub/a.ts")) {
+            Files.createFile(top.resolve("repository/root").resolve(name));
+        }
+        Path root = top.resolve("repository/root");
+
+        assertEquals(Arrays.asList("b.gen.ts", "sub/a.ts"), walk(root, root));
+    }
+
+    private static List<String> walk(Path root, Path relativeTo) throws IOException {
+        FileWalker walker = new FileWalker(Arrays.asList("ts"), Collections.emptyList(), Collections.emptyList(),
+                true, 1);
+
+        return walker.getAllFiles(root).stream().map(file -> relativeTo.relativize(file.getPath()).toString())
+                .sorted().collect(Collectors.toList());
+    }
+
+}
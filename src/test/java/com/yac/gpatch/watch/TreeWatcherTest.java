@@ -0,0 +1,127 @@
+package com.yac.gpatch.watch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.model.SourceFile;
+import com.yac.gpatch.util.FileWalker;
+import com.yac.gpatch.writer.Rewrite;
+import com.yac.gpatch.writer.RewriteWriter;
+
+public class TreeWatcherTest {
+
+    private static final long TIMEOUT_MILLIS = 20000;
+    // More events than a watch key keeps before signalling an overflow
+    private static final int OVERFLOWING_FILE_NB = 600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private TreeWatcher watcher;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.getRoot().toPath().toAbsolutePath();
+        write(root.resolve("a.ts"), "x = 1;\n");
+        write(root.resolve("b.ts"), "y = 1;\n");
+        FileWalker walker = new FileWalker(Collections.singletonList("ts"), Collections.emptyList(),
+                Collections.emptyList(), false, 2);
+        watcher = new TreeWatcher(Collections.singletonList(root), walker);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        watcher.close();
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void ignoresOwnWritesUntilEditedAgain() throws IOException, InterruptedException {
+        Path a = root.resolve("a.ts");
+        try (RewriteWriter writer = watcher.ignoreWritesOf(new ContentWriter())) {
+            writer.write(new Rewrite(a, "x = 2;\n", null, Collections.emptyList(), StandardCharsets.UTF_8));
+        }
+        write(root.resolve("b.ts"), "y = 2;\n");
+        assertEquals(paths("b.ts"), awaitChangedPaths());
+
+        Files.write(a, "x = 3;\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(paths("a.ts"), awaitChangedPaths());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void skipsOwnWritesRemovedSince() throws IOException, InterruptedException {
+        Path a = root.resolve("a.ts");
+        RewriteWriter writer = watcher.ignoreWritesOf(new ContentWriter());
+        writer.write(new Rewrite(a, "x = 2;\n", null, Collections.emptyList(), StandardCharsets.UTF_8));
+        Files.delete(a);
+        writer.close();
+
+        write(a, "x = 3;\n");
+        assertEquals(paths("a.ts"), awaitChangedPaths());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void rescansRootsAfterOverflow() throws IOException, InterruptedException {
+        Set<Path> expectedPaths = paths("a.ts", "b.ts");
+        for (int i = 0; i < OVERFLOWING_FILE_NB; i++) {
+            expectedPaths.add(write(root.resolve("file" + i + ".ts"), "z = 1;\n"));
+        }
+
+        // The unchanged files too, since the events lost may have been theirs
+        assertEquals(expectedPaths, awaitChangedPaths());
+    }
+
+    @Test(timeout = TIMEOUT_MILLIS)
+    public void watchesNewDirectories() throws IOException, InterruptedException {
+        Path directory = Files.createDirectories(root.resolve("sub/subsub"));
+        write(directory.resolve("c.ts"), "z = 1;\n");
+        write(directory.resolve("c.txt"), "z = 1;\n");
+        assertEquals(paths("sub/subsub/c.ts"), awaitChangedPaths());
+
+        write(directory.resolve("d.ts"), "z = 2;\n");
+        assertEquals(paths("sub/subsub/d.ts"), awaitChangedPaths());
+    }
+
+    private Set<Path> awaitChangedPaths() throws IOException, InterruptedException {
+        return watcher.awaitChanges().stream().map(SourceFile::getPath).collect(Collectors.toSet());
+    }
+
+    private Set<Path> paths(String... names) {
+        return Arrays.stream(names).map(root::resolve).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private static Path write(Path path, String content) throws IOException {
+        return Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes the whole content of each rewrite in place.
+     */
+    private static class ContentWriter implements RewriteWriter {
+
+        @Override
+        public void write(Rewrite rewrite) throws IOException {
+            TreeWatcherTest.write(rewrite.getPath(), rewrite.getContent().toString());
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.yac.gpatch.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yac.gpatch.cache.MatchCache;
+import com.yac.gpatch.model.Snippet;
+
+public class AtomicRewriteWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replacesRegularFile() throws IOException {
+        Path file = createFile("file", "old\n");
+        rewrite(file, 0);
+
+        assertEquals("new\n", read(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void keepsSymbolicLink() throws IOException {
+        Path target = createFile("target", "old\n");
+        Path link = Files.createSymbolicLink(folder.getRoot().toPath().resolve("link"), target);
+        rewrite(link, 1);
+
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals("new\n", read(target));
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void keepsHardLinks() throws IOException {
+        Path file = createFile("file", "old content\n");
+        Path link = Files.createLink(folder.getRoot().toPath().resolve("link"), file);
+        rewrite(file, 2);
+
+        assertEquals("new content\n", read(link));
+        assertEquals(2, Files.getAttribute(file, "unix:nlink"));
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void streamsIntoTargetOfSymbolicLink() throws IOException {
+        Path target = createFile("target/file", "old\n");
+        Path link = Files.createSymbolicLink(folder.getRoot().toPath().resolve("link"), target);
+        try (AtomicRewriteWriter writer = new AtomicRewriteWriter(0, MatchCache.disabled())) {
+            Path temporaryPath = writer.createTemporaryFile(link);
+            assertEquals(target.getParent(), temporaryPath.getParent());
+
+            Files.write(temporaryPath, "new\n".getBytes(StandardCharsets.UTF_8));
+            writer.write(link, temporaryPath);
+        }
+
+        assertTrue(Files.isSymbolicLink(link));
+        assertEquals("new\n", read(target));
+        assertEquals(1, target.getParent().toFile().list().length);
+    }
+
+    @Test
+    public void commitsStreamedFilesOfPendingBatchOnClose() throws IOException {
+        Path file = createFile("file", "old\n");
+        try (AtomicRewriteWriter writer = new AtomicRewriteWriter(2, MatchCache.disabled())) {
+            Path temporaryPath = writer.createTemporaryFile(file);
+            Files.write(temporaryPath, "new\n".getBytes(StandardCharsets.UTF_8));
+            writer.write(file, temporaryPath);
+
+            assertEquals("old\n", read(file));
+        }
+
+        assertEquals("new\n", read(file));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private Path createFile(String name, String content) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(name);
+        Files.createDirectories(path.getParent());
+
+        return Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+    private static void rewrite(Path path, int fsyncBatchSize) throws IOException {
+        String content = read(path);
+        try (AtomicRewriteWriter writer = new AtomicRewriteWriter(fsyncBatchSize, MatchCache.disabled())) {
+            writer.write(new Rewrite(path, content, null, Collections.singletonList(new Snippet("new", 0, 3)),
+                    StandardCharsets.UTF_8));
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.yac.gpatch.writer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.yac.gpatch.model.Snippet;
+
+public class DiffRewriteWriterTest {
+
+    @Test
+    public void writesDiffsInExpectedOrder() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Path a = Paths.get("a");
+        Path b = Paths.get("b");
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output)) {
+            writer.expect(Arrays.asList(a, b));
+            writer.write(rewrite(b, "x\n", new Snippet("y", 0, 1)));
+            writer.processed(b);
+            assertEquals("", output.toString(StandardCharsets.UTF_8));
+            writer.write(rewrite(a, "x\n", new Snippet("z", 0, 1)));
+            writer.processed(a);
+        }
+
+        assertEquals("--- a\n+++ a\n@@ -1,1 +1,1 @@\n-x\n+z\n--- b\n+++ b\n@@ -1,1 +1,1 @@\n-x\n+y\n",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesUnorderedDiffsAsSoonAsComputed() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output)) {
+            writer.write(rewrite(Paths.get("b"), "x\n", new Snippet("y", 0, 1)));
+            writer.write(rewrite(Paths.get("a"), "x\n", new Snippet("z", 0, 1)));
+        }
+
+        assertEquals("--- b\n+++ b\n@@ -1,1 +1,1 @@\n-x\n+y\n--- a\n+++ a\n@@ -1,1 +1,1 @@\n-x\n+z\n",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesPendingDiffsPastMaxPendingSize() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Path a = Paths.get("a");
+        Path b = Paths.get("b");
+        Path c = Paths.get("c");
+        String diffB = "--- b\n+++ b\n@@ -1,1 +1,1 @@\n-x\n+y\n";
+        String diffC = "--- c\n+++ c\n@@ -1,1 +1,1 @@\n-x\n+w\n";
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output, diffC.length())) {
+            writer.expect(Arrays.asList(a, b, c));
+            writer.write(rewrite(c, "x\n", new Snippet("w", 0, 1)));
+            writer.processed(c);
+            writer.write(rewrite(b, "x\n", new Snippet("y", 0, 1)));
+            writer.processed(b);
+            writer.write(rewrite(a, "x\n", new Snippet("z", 0, 1)));
+            writer.processed(a);
+        }
+
+        // Still in the expected order among the diffs output together
+        assertEquals(diffB + diffC + "--- a\n+++ a\n@@ -1,1 +1,1 @@\n-x\n+z\n",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void leavesUnchangedLinesAsContext() throws IOException {
+        // The replacement spans three lines but only changes the middle one
+        String content = "a\nb\nc\n";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output)) {
+            writer.write(rewrite(Paths.get("f"), content, new Snippet("a\nB\nc", 0, 5)));
+        }
+
+        assertEquals("--- f\n+++ f\n@@ -1,3 +1,3 @@\n a\n-b\n+B\n c\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void skipsFilesLeftUnchanged() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output)) {
+            writer.write(rewrite(Paths.get("f"), "a\nb\n", new Snippet("b", 2, 3)));
+        }
+
+        assertEquals("", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesRemovedLinesAndMissingNewline() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DiffRewriteWriter writer = new DiffRewriteWriter(output)) {
+            writer.write(rewrite(Paths.get("f"), "a\nb\nc", new Snippet("", 2, 4), new Snippet("d", 4, 5)));
+        }
+
+        assertEquals("--- f\n+++ f\n@@ -1,3 +1,2 @@\n a\n-b\n-c\n\\ No newline at end of file\n"
+                + "+d\n\\ No newline at end of file\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Rewrite rewrite(Path path, String content, Snippet... snippets) {
+        List<Snippet> replacingSnippets = Arrays.asList(snippets);
+
+        return new Rewrite(path, content, null, replacingSnippets, StandardCharsets.UTF_8);
+    }
+
+}